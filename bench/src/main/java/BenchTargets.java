@@ -0,0 +1,98 @@
+import bench.Targets;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.LongUnaryOperator;
+
+// The benchmarks' way into the assembler and simulator (see bench.Targets)
+public class BenchTargets implements Targets {
+
+    private static final PrintStream NOWHERE = new PrintStream(OutputStream.nullOutputStream());
+
+    @Override
+    public void assemble(Reader source, Writer listing) throws IOException {
+        new RiscVParser().assemble(source, listing);
+    }
+
+    @Override
+    public Object decode(int word) {
+        return DecodedInstruction.decode(word);
+    }
+
+    @Override
+    public Machine load(String listing, String engine) throws IOException {
+        Execution cpu = new Execution(NOWHERE);
+        cpu.parseMachineCode(new BufferedReader(new StringReader(listing)));
+        switch (engine) {
+            case "jit":
+                FastInterpreter jit = cpu.newFastInterpreter();
+                jit.setJitThreshold(FastInterpreter.JIT_THRESHOLD);
+                return new LoadedMachine(cpu, maxInstructions -> jit.run(maxInstructions).instructionsRetired());
+            case "interpreter":
+                FastInterpreter interpreter = cpu.newFastInterpreter();
+                return new LoadedMachine(cpu,
+                        maxInstructions -> interpreter.run(maxInstructions).instructionsRetired());
+            case "stage":
+                return new LoadedMachine(cpu, maxInstructions -> cpu
+                        .completeExecution(ExecutionBudget.instructions(maxInstructions)).instructionsRetired());
+            default:
+                throw new IllegalArgumentException("Unknown engine " + engine);
+        }
+    }
+
+    @Override
+    public String finalState(String listing, boolean fullMemory) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(buffer, false, StandardCharsets.UTF_8);
+        Execution cpu = new Execution(out);
+        cpu.parseMachineCode(new BufferedReader(new StringReader(listing)));
+        cpu.setFullMemoryDump(fullMemory);
+        cpu.printFastResult(cpu.runFast());
+        out.flush();
+        return buffer.toString(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public int[] pooledFreePages(String listing, int reservedPages, int cycles)
+            throws IOException, InterruptedException {
+        MachinePool pool = new MachinePool(1, reservedPages);
+        int[] freePages = new int[cycles];
+        for (int i = 0; i < cycles; i++) {
+            Execution cpu = pool.acquire(NOWHERE);
+            try {
+                freePages[i] = cpu.getState().getMemory().getFreePageCount();
+                cpu.parseMachineCode(new BufferedReader(new StringReader(listing)));
+                cpu.runFast();
+            } finally {
+                pool.release(cpu);
+            }
+        }
+        return freePages;
+    }
+
+    private static final class LoadedMachine implements Machine {
+        private final Execution cpu;
+        private final LongUnaryOperator runner;
+
+        LoadedMachine(Execution cpu, LongUnaryOperator runner) {
+            this.cpu = cpu;
+            this.runner = runner;
+        }
+
+        @Override
+        public long run(long maxInstructions) {
+            return runner.applyAsLong(maxInstructions);
+        }
+
+        @Override
+        public int register(int index) {
+            return cpu.getState().getRegisters()[index];
+        }
+    }
+}
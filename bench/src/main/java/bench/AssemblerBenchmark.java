@@ -0,0 +1,91 @@
+package bench;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Assembler throughput on generated programs (Sources.generate()) of 1K, 100K
+// and 1M lines. One operation is one source line, so the scores are lines per
+// second and -prof gc's gc.alloc.rate.norm is bytes allocated per line. The
+// listing is written to a null Writer so only the assembler is measured.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+public class AssemblerBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Lines1K {
+        String source;
+
+        @Setup
+        public void setup() {
+            source = Sources.generate(1_000);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Lines100K {
+        String source;
+
+        @Setup
+        public void setup() {
+            source = Sources.generate(100_000);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Lines1M {
+        String source;
+
+        @Setup
+        public void setup() {
+            source = Sources.generate(1_000_000);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Assembler {
+        Targets targets;
+
+        @Setup
+        public void setup() {
+            targets = Targets.get();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(1_000)
+    @Warmup(iterations = 5, time = 2)
+    @Measurement(iterations = 5, time = 2)
+    public void assemble1K(Assembler assembler, Lines1K lines) throws IOException {
+        assembler.targets.assemble(new StringReader(lines.source), Writer.nullWriter());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(100_000)
+    @Warmup(iterations = 3, time = 5)
+    @Measurement(iterations = 5, time = 5)
+    public void assemble100K(Assembler assembler, Lines100K lines) throws IOException {
+        assembler.targets.assemble(new StringReader(lines.source), Writer.nullWriter());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(1_000_000)
+    @Warmup(iterations = 2, time = 10)
+    @Measurement(iterations = 3, time = 10)
+    public void assemble1M(Assembler assembler, Lines1M lines) throws IOException {
+        assembler.targets.assemble(new StringReader(lines.source), Writer.nullWriter());
+    }
+}
@@ -0,0 +1,56 @@
+package bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// SimulatorBenchmark for the stage-by-stage datapath, which formats its
+// per-cycle log (into a null stream) as it goes and so runs far fewer
+// instructions per invocation. Scores are instructions per second and
+// gc.alloc.rate.norm is bytes per instruction.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class DatapathBenchmark {
+
+    static final int INSTRUCTIONS = 1 << 14;
+
+    @Param({"alu", "sort", "matrix", "calls"})
+    public String kernel;
+
+    private Targets targets;
+    private String listing;
+    private Targets.Machine machine;
+
+    @Setup
+    public void assemble() throws IOException {
+        targets = Targets.get();
+        listing = SimulatorBenchmark.assemble(targets, kernel);
+    }
+
+    @Setup(Level.Invocation)
+    public void load() throws IOException {
+        machine = targets.load(listing, "stage");
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(INSTRUCTIONS)
+    public long run() {
+        return SimulatorBenchmark.checkRetired(machine.run(INSTRUCTIONS), INSTRUCTIONS);
+    }
+}
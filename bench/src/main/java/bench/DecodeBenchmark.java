@@ -0,0 +1,58 @@
+package bench;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// Decoder throughput: instruction words per second through
+// DecodedInstruction.decode(), over the words of an assembled generated
+// program so the mix of formats is a realistic one.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DecodeBenchmark {
+
+    private static final int WORDS = 4096;
+
+    private Targets targets;
+    private final int[] words = new int[WORDS];
+
+    @Setup
+    public void setup() throws IOException {
+        targets = Targets.get();
+        StringWriter listing = new StringWriter();
+        targets.assemble(new StringReader(Sources.generate(WORDS * 2)), listing);
+        // Text lines are "0xADDRESS 0xWORD , source # fields"
+        int[] text = listing.toString().lines()
+                .filter(line -> line.startsWith("0x") && line.contains(","))
+                .mapToInt(line -> Integer.parseUnsignedInt(line.split(" ")[1].substring(2), 16))
+                .toArray();
+        for (int i = 0; i < WORDS; i++) {
+            words[i] = text[i % text.length];
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(WORDS)
+    public void decode(Blackhole blackhole) {
+        for (int word : words) {
+            blackhole.consume(targets.decode(word));
+        }
+    }
+}
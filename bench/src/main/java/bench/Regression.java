@@ -0,0 +1,379 @@
+package bench;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Runs the corpus under src/main/resources/corpus on the fast engines and
+// compares it with a stored baseline:
+//
+//   java -cp target/benchmarks.jar bench.Regression [--baseline <file>]
+//           [--threshold <fraction>] [--runs <n>] [--update]
+//
+// Every program and engine is measured in FORKS JVMs of its own, so what the
+// JVM compiled for one program cannot speed up or slow down the next. In each
+// the program is assembled, run for WARMUP_NANOS, then run at least runs
+// times (default 9) and for at least MEASURE_NANOS, on a new machine each
+// time. The median of all those runs gives its MIPS, and their interquartile
+// range as a percentage of the median shows how noisy that was; the JVM's own
+// compiler decisions make that noticeably more than machine noise, which is
+// why a fork is not enough on its own.
+//
+// A program fails if its result differs from the "# expect x10 0x..." line in
+// its source, if it retires a different number of instructions than the
+// baseline says (a behaviour change), or if its MIPS fell below the baseline
+// by more than threshold (default 0.15) and by more than the spreads of both
+// measurements together, so a program that measures noisily on this machine
+// needs a larger drop to fail. Peak heap is reported but not checked, as it
+// mostly reflects the collector. --update writes this run as the new baseline.
+//
+// Each program's full memory dump, which the web page's memory view shows, is
+// also checked: every data byte the run did not change must still show its
+// value from the listing. So is pooling: run POOL_CYCLES times on one
+// pooled machine, a program must leave as many free pages behind each time
+// from the second run on, or the pool is losing pages.
+//
+// Baselines are only comparable on one machine: for a before/after, run
+// with --update on the tree before the change and without it after.
+public final class Regression {
+
+    static final String[] CORPUS = {
+        "bubble_sort", "quick_sort", "matmul", "fib", "memcpy", "strings", "linked_list"
+    };
+    static final String[] ENGINES = {"jit", "interpreter"};
+    static final int FORKS = 3;
+    static final long WARMUP_NANOS = 1_000_000_000L;
+    static final long MEASURE_NANOS = 2_000_000_000L;
+    // A run that gets this far did not halt
+    static final long MAX_INSTRUCTIONS = 1L << 32;
+    static final int POOL_CYCLES = 6;
+    static final int POOL_RESERVED_PAGES = 16;
+
+    private static final Pattern EXPECT = Pattern.compile("^# expect x10 0x([0-9A-Fa-f]{1,8})$", Pattern.MULTILINE);
+    // A data byte of a listing, "0x10000000 0x54", and of a memory dump, "0x10000000: 54"
+    private static final Pattern DATA_BYTE =
+            Pattern.compile("^0x([0-9A-Fa-f]+) 0x([0-9A-Fa-f]{2})$", Pattern.MULTILINE);
+    private static final Pattern DUMP_BYTE =
+            Pattern.compile("^0x([0-9A-Fa-f]+): ([0-9A-Fa-f]{2})$", Pattern.MULTILINE);
+    private static final String FAIL = "FAIL ";
+    private static final String TIMES = "TIMES ";
+
+    private Regression() {
+    }
+
+    // One program on one engine
+    record Result(String program, String engine, long instructions, double mips, double spreadPercent,
+            double peakHeapMiB) {
+
+        String key() {
+            return program + " " + engine;
+        }
+
+        String toLine() {
+            return String.format(Locale.ROOT, "%s %s %d %.2f %.1f %.1f", program, engine, instructions, mips,
+                    spreadPercent, peakHeapMiB);
+        }
+
+        static Result parse(String line) {
+            String[] fields = line.trim().split("\\s+");
+            if (fields.length != 6) {
+                throw new IllegalArgumentException("Bad result line: " + line);
+            }
+            return new Result(fields[0], fields[1], Long.parseLong(fields[2]), Double.parseDouble(fields[3]),
+                    Double.parseDouble(fields[4]), Double.parseDouble(fields[5]));
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length == 4 && args[0].equals("--measure")) {
+            measure(args[1], args[2], Integer.parseInt(args[3]));
+            return;
+        }
+
+        Path baselinePath = Path.of("corpus-baseline.txt");
+        double threshold = 0.15;
+        int runs = 9;
+        boolean update = false;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--baseline":
+                    baselinePath = Path.of(args[++i]);
+                    break;
+                case "--threshold":
+                    threshold = Double.parseDouble(args[++i]);
+                    break;
+                case "--runs":
+                    runs = Integer.parseInt(args[++i]);
+                    break;
+                case "--update":
+                    update = true;
+                    break;
+                default:
+                    System.err.println("Usage: bench.Regression [--baseline <file>] [--threshold <fraction>]"
+                            + " [--runs <n>] [--update]");
+                    System.exit(2);
+                    return;
+            }
+        }
+
+        Map<String, Result> baseline = new HashMap<>();
+        if (!update && Files.exists(baselinePath)) {
+            for (String line : Files.readAllLines(baselinePath)) {
+                if (!line.isBlank() && !line.startsWith("#")) {
+                    Result result = Result.parse(line);
+                    baseline.put(result.key(), result);
+                }
+            }
+        }
+
+        List<Result> results = new ArrayList<>();
+        List<String> failures = new ArrayList<>();
+        System.out.printf("%-12s %-12s %12s %9s %7s %9s %8s %10s%n", "program", "engine", "instructions", "MIPS",
+                "spread", "baseline", "change", "peak heap");
+        for (String program : CORPUS) {
+            checkMemoryDump(program, failures);
+            checkPooledMemory(program, failures);
+            for (String engine : ENGINES) {
+                Result result = fork(program, engine, runs, failures);
+                if (result == null) {
+                    System.out.printf("%-12s %-12s failed%n", program, engine);
+                    continue;
+                }
+                results.add(result);
+                Result before = baseline.get(result.key());
+                String change = "";
+                if (before != null) {
+                    double ratio = result.mips() / before.mips() - 1;
+                    double allowed = Math.max(threshold, (result.spreadPercent() + before.spreadPercent()) / 100);
+                    change = String.format(Locale.ROOT, "%+.1f%%", 100 * ratio);
+                    if (result.instructions() != before.instructions()) {
+                        failures.add(result.key() + ": retired " + result.instructions() + " instructions, baseline "
+                                + before.instructions());
+                    } else if (ratio < -allowed) {
+                        failures.add(String.format(Locale.ROOT,
+                                "%s: %.2f MIPS is %.1f%% below the baseline %.2f (allowed %.1f%%)", result.key(),
+                                result.mips(), -100 * ratio, before.mips(), 100 * allowed));
+                    }
+                }
+                System.out.printf(Locale.ROOT, "%-12s %-12s %12d %9.2f %6.1f%% %9s %8s %6.1f MiB%n", program, engine,
+                        result.instructions(), result.mips(), result.spreadPercent(),
+                        before == null ? "-" : String.format(Locale.ROOT, "%.2f", before.mips()), change,
+                        result.peakHeapMiB());
+            }
+        }
+
+        if (update) {
+            List<String> lines = new ArrayList<>();
+            lines.add("# program engine instructions MIPS spread-% peak-heap-MiB, written by bench.Regression --update");
+            for (Result result : results) {
+                lines.add(result.toLine());
+            }
+            Files.write(baselinePath, lines);
+            System.out.println("Wrote " + baselinePath);
+        } else if (baseline.isEmpty()) {
+            System.out.println("No baseline at " + baselinePath + "; run with --update to record one");
+        }
+
+        if (!failures.isEmpty()) {
+            System.out.println();
+            for (String failure : failures) {
+                System.out.println(FAIL + failure);
+            }
+            System.exit(1);
+        }
+    }
+
+    // Adds a failure for each data byte of program that the run did not change
+    // but the full memory dump shows with another value than the listing's
+    private static void checkMemoryDump(String program, List<String> failures) throws IOException {
+        Targets targets = Targets.get();
+        String listing = assemble(targets, program);
+        Map<Long, String> changed = dumpBytes(targets.finalState(listing, false));
+        Map<Long, String> full = dumpBytes(targets.finalState(listing, true));
+
+        Matcher data = DATA_BYTE.matcher(listing);
+        while (data.find()) {
+            long address = Long.parseLong(data.group(1), 16);
+            String loaded = data.group(2).toUpperCase(Locale.ROOT);
+            String shown = full.get(address);
+            if (!changed.containsKey(address) && !loaded.equals(shown)) {
+                failures.add(String.format(Locale.ROOT, "%s: full memory dump shows 0x%08X as %s, loaded as %s",
+                        program, address, shown, loaded));
+                return;
+            }
+        }
+    }
+
+    // Adds a failure if the free pages of a pooled machine that runs program
+    // over and over change after the first run, which only grows the pool
+    private static void checkPooledMemory(String program, List<String> failures)
+            throws IOException, InterruptedException {
+        Targets targets = Targets.get();
+        int[] freePages = targets.pooledFreePages(assemble(targets, program), POOL_RESERVED_PAGES, POOL_CYCLES);
+        for (int i = 2; i < freePages.length; i++) {
+            if (freePages[i] != freePages[1]) {
+                failures.add(program + ": pooled machine's free pages went " + Arrays.toString(freePages));
+                return;
+            }
+        }
+    }
+
+    private static String assemble(Targets targets, String program) throws IOException {
+        StringWriter assembled = new StringWriter();
+        targets.assemble(new StringReader(Sources.corpus(program)), assembled);
+        return assembled.toString();
+    }
+
+    // The bytes after "Final Memory State:" in a run's output, by address
+    private static Map<Long, String> dumpBytes(String output) {
+        Map<Long, String> bytes = new HashMap<>();
+        Matcher dump = DUMP_BYTE.matcher(output.substring(output.indexOf("Final Memory State:")));
+        while (dump.find()) {
+            bytes.put(Long.parseLong(dump.group(1), 16), dump.group(2).toUpperCase(Locale.ROOT));
+        }
+        return bytes;
+    }
+
+    // Runs "--measure program engine runs" in FORKS new JVMs with this class
+    // path, one after another, and pools their run times; null if one of them
+    // reported no times
+    private static Result fork(String program, String engine, int runs, List<String> failures)
+            throws IOException, InterruptedException {
+        String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        String prefix = TIMES + program + " " + engine + " ";
+        long instructions = -1;
+        long peakBytes = 0;
+        long[] nanos = new long[0];
+        for (int fork = 0; fork < FORKS; fork++) {
+            Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                    Regression.class.getName(), "--measure", program, engine, Integer.toString(runs))
+                    .redirectErrorStream(true)
+                    .start();
+            String[] times = null;
+            try (BufferedReader out = new BufferedReader(
+                    new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = out.readLine()) != null) {
+                    if (line.startsWith(FAIL)) {
+                        failures.add(line.substring(FAIL.length()));
+                    } else if (line.startsWith(prefix)) {
+                        times = line.substring(prefix.length()).split(" ");
+                    } else {
+                        System.out.println(line);
+                    }
+                }
+            }
+            if (process.waitFor() != 0 || times == null) {
+                if (times == null) {
+                    failures.add(program + " " + engine + ": measuring JVM exited with " + process.exitValue());
+                }
+                return null;
+            }
+            // instructions, peak heap bytes, then one time per run
+            long retired = Long.parseLong(times[0]);
+            if (instructions != -1 && retired != instructions) {
+                failures.add(program + " " + engine + ": retired " + instructions + " instructions, then " + retired);
+                return null;
+            }
+            instructions = retired;
+            peakBytes = Math.max(peakBytes, Long.parseLong(times[1]));
+            int pooled = nanos.length;
+            nanos = Arrays.copyOf(nanos, pooled + times.length - 2);
+            for (int i = 2; i < times.length; i++) {
+                nanos[pooled + i - 2] = Long.parseLong(times[i]);
+            }
+        }
+
+        Arrays.sort(nanos);
+        long median = nanos[nanos.length / 2];
+        double spread = 100.0 * (nanos[nanos.length * 3 / 4] - nanos[nanos.length / 4]) / median;
+        return new Result(program, engine, instructions, instructions * 1e3 / median, spread,
+                peakBytes / (1024.0 * 1024.0));
+    }
+
+    // The forked side: prints "TIMES program engine instructions peak-heap-bytes
+    // nanos...", or a FAIL line
+    private static void measure(String program, String engine, int runs) throws IOException {
+        String key = program + " " + engine;
+        Targets targets = Targets.get();
+        String source = Sources.corpus(program);
+        Matcher expect = EXPECT.matcher(source);
+        if (!expect.find()) {
+            throw new IllegalStateException(program + " has no \"# expect x10\" line");
+        }
+        int expected = Integer.parseUnsignedInt(expect.group(1), 16);
+        StringWriter assembled = new StringWriter();
+        targets.assemble(new StringReader(source), assembled);
+        String listing = assembled.toString();
+
+        long warmupEnd = System.nanoTime() + WARMUP_NANOS;
+        while (System.nanoTime() < warmupEnd) {
+            targets.load(listing, engine).run(MAX_INSTRUCTIONS);
+        }
+
+        System.gc();
+        List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+                pool.resetPeakUsage();
+                heapPools.add(pool);
+            }
+        }
+
+        long[] nanos = new long[runs];
+        long instructions = -1;
+        long measureEnd = System.nanoTime() + MEASURE_NANOS;
+        int count = 0;
+        while (count < runs || System.nanoTime() < measureEnd) {
+            Targets.Machine machine = targets.load(listing, engine);
+            long start = System.nanoTime();
+            long retired = machine.run(MAX_INSTRUCTIONS);
+            long elapsed = System.nanoTime() - start;
+
+            if (machine.register(10) != expected) {
+                System.out.printf("%s%s: x10 is 0x%08X, expected 0x%08X%n", FAIL, key, machine.register(10), expected);
+                return;
+            }
+            if (retired == MAX_INSTRUCTIONS) {
+                System.out.println(FAIL + key + ": did not halt within " + MAX_INSTRUCTIONS + " instructions");
+                return;
+            }
+            if (instructions != -1 && retired != instructions) {
+                System.out.println(FAIL + key + ": retired " + instructions + " instructions, then " + retired);
+                return;
+            }
+            instructions = retired;
+            if (count == nanos.length) {
+                nanos = Arrays.copyOf(nanos, count * 2);
+            }
+            nanos[count++] = elapsed;
+        }
+
+        long peak = 0;
+        for (MemoryPoolMXBean pool : heapPools) {
+            peak += pool.getPeakUsage().getUsed();
+        }
+        StringBuilder line = new StringBuilder(TIMES).append(key).append(' ').append(instructions).append(' ')
+                .append(peak);
+        for (int i = 0; i < count; i++) {
+            line.append(' ').append(nanos[i]);
+        }
+        System.out.println(line);
+    }
+}
@@ -0,0 +1,77 @@
+package bench;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// End-to-end simulation speed on the kernels in src/main/resources/kernels,
+// each of which loops forever. Every invocation loads the kernel into a new
+// machine and runs exactly INSTRUCTIONS instructions, and one operation is
+// one instruction: the scores are instructions per second (divide by 10^6 for
+// MIPS) and -prof gc's gc.alloc.rate.norm is bytes allocated per instruction,
+// loading the listing included.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class SimulatorBenchmark {
+
+    static final int INSTRUCTIONS = 1 << 20;
+
+    @Param({"alu", "sort", "matrix", "calls"})
+    public String kernel;
+
+    @Param({"jit", "interpreter"})
+    public String engine;
+
+    private Targets targets;
+    private String listing;
+    private Targets.Machine machine;
+
+    @Setup
+    public void assemble() throws IOException {
+        targets = Targets.get();
+        listing = assemble(targets, kernel);
+    }
+
+    @Setup(Level.Invocation)
+    public void load() throws IOException {
+        machine = targets.load(listing, engine);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(INSTRUCTIONS)
+    public long run() {
+        return checkRetired(machine.run(INSTRUCTIONS), INSTRUCTIONS);
+    }
+
+    static String assemble(Targets targets, String kernel) throws IOException {
+        StringWriter listing = new StringWriter();
+        targets.assemble(new StringReader(Sources.kernel(kernel)), listing);
+        return listing.toString();
+    }
+
+    // The per-instruction scores are only right if the kernel did not halt
+    static long checkRetired(long retired, long expected) {
+        if (retired != expected) {
+            throw new IllegalStateException("Kernel stopped after " + retired + " of " + expected + " instructions");
+        }
+        return retired;
+    }
+}
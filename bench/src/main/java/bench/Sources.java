@@ -0,0 +1,111 @@
+package bench;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+// Assembly sources for the benchmarks: generated programs of any length for
+// the assembler, the kernels under src/main/resources/kernels for the
+// simulator and the programs under src/main/resources/corpus for Regression.
+final class Sources {
+
+    // Instructions between labels in generated programs
+    private static final int BLOCK = 16;
+
+    private Sources() {
+    }
+
+    // A program of exactly lines source lines: a .data section of .word
+    // directives, then blocks of BLOCK instructions under a label each, in a
+    // fixed mix of R, I, load, store, branch, U and jump instructions. Branches
+    // and jumps go back to the block's own label or the one before it, so every
+    // target is in range however long the program is. The same lines always
+    // give the same program.
+    static String generate(int lines) {
+        Random random = new Random(lines);
+        StringBuilder source = new StringBuilder(lines * 20);
+        int dataLines = Math.max(1, lines / 64);
+        source.append(".data\n");
+        for (int i = 0; i < dataLines; i++) {
+            source.append("d").append(i).append(": .word");
+            for (int j = 0; j < 8; j++) {
+                source.append(' ').append(random.nextInt(2000) - 1000);
+            }
+            source.append('\n');
+        }
+        source.append(".text\n");
+
+        int remaining = lines - dataLines - 2;
+        int label = 0;
+        for (int i = 0; i < remaining; i++) {
+            if (i % (BLOCK + 1) == 0) {
+                source.append("L").append(label++).append(":\n");
+                continue;
+            }
+            String target = "L" + Math.max(0, label - 1 - random.nextInt(2));
+            int rd = 5 + random.nextInt(24);
+            int rs1 = 5 + random.nextInt(24);
+            int rs2 = 5 + random.nextInt(24);
+            switch (random.nextInt(12)) {
+                case 0:
+                    source.append("add x").append(rd).append(" x").append(rs1).append(" x").append(rs2);
+                    break;
+                case 1:
+                    source.append("sub x").append(rd).append(" x").append(rs1).append(" x").append(rs2);
+                    break;
+                case 2:
+                    source.append("mul x").append(rd).append(" x").append(rs1).append(" x").append(rs2);
+                    break;
+                case 3:
+                case 4:
+                    source.append("addi x").append(rd).append(" x").append(rs1).append(' ')
+                            .append(random.nextInt(4096) - 2048);
+                    break;
+                case 5:
+                    source.append("andi x").append(rd).append(" x").append(rs1).append(' ').append(random.nextInt(2048));
+                    break;
+                case 6:
+                    source.append("lw x").append(rd).append(' ').append(4 * random.nextInt(64)).append("(x").append(rs1)
+                            .append(')');
+                    break;
+                case 7:
+                    source.append("sw x").append(rs2).append(' ').append(4 * random.nextInt(64)).append(" x").append(rs1);
+                    break;
+                case 8:
+                    source.append("bne x").append(rs1).append(" x").append(rs2).append(' ').append(target);
+                    break;
+                case 9:
+                    source.append("blt x").append(rs1).append(" x").append(rs2).append(' ').append(target);
+                    break;
+                case 10:
+                    source.append("lui x").append(rd).append(' ').append(random.nextInt(1 << 20));
+                    break;
+                default:
+                    source.append("jal x1 ").append(target);
+                    break;
+            }
+            source.append('\n');
+        }
+        return source.toString();
+    }
+
+    // The source of kernels/<name>.s
+    static String kernel(String name) throws IOException {
+        return resource("kernels", name);
+    }
+
+    // The source of corpus/<name>.s
+    static String corpus(String name) throws IOException {
+        return resource("corpus", name);
+    }
+
+    private static String resource(String directory, String name) throws IOException {
+        try (InputStream in = Sources.class.getResourceAsStream("/" + directory + "/" + name + ".s")) {
+            if (in == null) {
+                throw new IllegalArgumentException("No " + directory + "/" + name + ".s");
+            }
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package bench;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+
+// What the benchmarks measure. The assembler and simulator classes are in the
+// default package, which code in a named package (as JMH requires benchmarks
+// to be) cannot refer to, so BenchTargets implements this from the default
+// package and is looked up by name once per trial; the calls being measured
+// are ordinary interface calls.
+public interface Targets {
+
+    // RiscVParser.assemble() with a new parser
+    void assemble(Reader source, Writer listing) throws IOException;
+
+    // DecodedInstruction.decode()
+    Object decode(int word);
+
+    // A machine with listing loaded, run by engine: "jit" (the fast interpreter
+    // with block compilation), "interpreter" (without it) or "stage" (the
+    // stage-by-stage datapath with its per-cycle log, written nowhere)
+    Machine load(String listing, String engine) throws IOException;
+
+    // The text a fast run of listing prints, ending with its final state;
+    // fullMemory lists every mapped byte rather than those the run changed
+    String finalState(String listing, boolean fullMemory) throws IOException;
+
+    // Runs listing cycles times on a one-machine MachinePool that reserved
+    // reservedPages pages, acquiring and releasing the machine each time;
+    // returns the machine's free page count after each acquire
+    int[] pooledFreePages(String listing, int reservedPages, int cycles) throws IOException, InterruptedException;
+
+    interface Machine {
+        // Runs until maxInstructions more have retired or the program halts;
+        // returns how many retired
+        long run(long maxInstructions);
+
+        int register(int index);
+    }
+
+    static Targets get() {
+        try {
+            return (Targets) Class.forName("BenchTargets").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("BenchTargets is not on the class path", e);
+        }
+    }
+}
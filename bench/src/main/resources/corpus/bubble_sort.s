@@ -0,0 +1,66 @@
+# Bubble sort of 64 words from a linear congruential generator, 250 times
+# over with fresh numbers each time. x10 ends as a hash of every sorted array.
+# expect x10 0xF7942771
+.text
+lui x18 65536
+addi x19 x0 64
+addi x22 x0 250
+addi x9 x0 1
+lui x20 269413
+addi x20 x20 -403
+lui x21 3
+addi x21 x21 57
+addi x23 x0 2
+addi x24 x0 8
+addi x25 x0 5
+addi x10 x0 0
+rep:
+addi x5 x0 0
+fill:
+bge x5 x19 sort
+mul x9 x9 x20
+add x9 x9 x21
+sra x7 x9 x24
+sll x6 x5 x23
+add x6 x6 x18
+sw x7 0 x6
+addi x5 x5 1
+jal x0 fill
+sort:
+addi x5 x0 0
+outer:
+addi x6 x19 -1
+bge x5 x6 hash
+addi x7 x0 0
+sub x8 x6 x5
+inner:
+bge x7 x8 next_outer
+sll x13 x7 x23
+add x13 x13 x18
+lw x14 0(x13)
+lw x15 4(x13)
+blt x14 x15 noswap
+beq x14 x15 noswap
+sw x15 0 x13
+sw x14 4 x13
+noswap:
+addi x7 x7 1
+jal x0 inner
+next_outer:
+addi x5 x5 1
+jal x0 outer
+hash:
+addi x5 x0 0
+addi x13 x18 0
+hash_loop:
+bge x5 x19 next_rep
+lw x14 0(x13)
+sll x11 x10 x25
+sub x10 x11 x10
+add x10 x10 x14
+addi x13 x13 4
+addi x5 x5 1
+jal x0 hash_loop
+next_rep:
+addi x22 x22 -1
+bne x22 x0 rep
@@ -0,0 +1,45 @@
+# Recursive Fibonacci of 0 to 22, 3 times over, called through a function
+# pointer formed with auipc and jalr. x10 ends as a hash of the results.
+# expect x10 0x9F3B3D01
+.text
+addi x20 x0 3
+addi x21 x0 23
+addi x25 x0 5
+addi x10 x0 0
+rep:
+addi x19 x0 0
+next_n:
+bge x19 x21 next_rep
+addi x11 x19 0
+auipc x5 0
+jalr x1 x5 12
+jal x0 called
+fib:
+addi x6 x0 2
+blt x11 x6 fib_base
+addi x2 x2 -12
+sw x1 8 x2
+sw x11 4 x2
+addi x11 x11 -1
+jal x1 fib
+sw x12 0 x2
+lw x11 4(x2)
+addi x11 x11 -2
+jal x1 fib
+lw x6 0(x2)
+add x12 x12 x6
+lw x1 8(x2)
+addi x2 x2 12
+jalr x0 x1 0
+fib_base:
+addi x12 x11 0
+jalr x0 x1 0
+called:
+sll x26 x10 x25
+sub x10 x26 x10
+add x10 x10 x12
+addi x19 x19 1
+jal x0 next_n
+next_rep:
+addi x20 x20 -1
+bne x20 x0 rep
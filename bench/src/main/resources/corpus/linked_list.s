@@ -0,0 +1,70 @@
+# Builds a 1024-node singly linked list whose nodes are scattered over 8 KiB,
+# then walks it 800 times, summing the values and incrementing each one. The
+# instructions retired during every walk are read through instret. x10 ends
+# as a hash of the sums and walk lengths. The CSR instructions at the end run
+# once so the corpus covers every form.
+# expect x10 0x6229B200
+.text
+lui x18 65536
+addi x19 x0 1024
+addi x20 x0 389
+addi x21 x0 1023
+addi x23 x0 3
+addi x24 x0 4
+addi x25 x0 5
+addi x22 x0 800
+addi x9 x0 5
+lui x26 269413
+addi x26 x26 -403
+lui x27 3
+addi x27 x27 57
+addi x10 x0 0
+addi x5 x0 0
+addi x16 x0 0
+build:
+mul x6 x5 x20
+and x6 x6 x21
+sll x6 x6 x23
+add x6 x6 x18
+mul x9 x9 x26
+add x9 x9 x27
+srl x7 x9 x24
+sw x7 0 x6
+beq x16 x0 first
+sw x6 4 x16
+jal x0 linked
+first:
+addi x17 x6 0
+linked:
+addi x16 x6 0
+addi x5 x5 1
+blt x5 x19 build
+rep:
+addi x12 x17 0
+addi x14 x0 0
+rdinstret x5
+walk:
+lw x13 0(x12)
+add x14 x14 x13
+addi x13 x13 1
+sw x13 0 x12
+lw x12 4(x12)
+bne x12 x0 walk
+csrr x6 instret
+sub x6 x6 x5
+sll x7 x10 x25
+sub x10 x7 x10
+add x10 x10 x14
+add x10 x10 x6
+addi x22 x22 -1
+bne x22 x0 rep
+csrrw x7 mcycle x0
+csrrs x7 mcycle x0
+csrrc x7 mcycle x0
+csrrwi x7 mcycle 0
+csrrsi x7 minstret 0
+csrrci x7 minstret 0
+csrw minstret x0
+csrwi mcycle 0
+rdcycle x7
+rdtime x7
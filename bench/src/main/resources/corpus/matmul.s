@@ -0,0 +1,90 @@
+# 16x16 integer matrix multiply C = A x B, 100 times over. After each product
+# A becomes C / 3 masked to 10 bits, and x10 hashes C mod 65521 row by row.
+# expect x10 0x17052A36
+.text
+lui x18 65536
+addi x19 x18 1024
+addi x20 x18 2047
+addi x20 x20 1
+addi x21 x0 16
+addi x22 x0 100
+addi x23 x0 2
+addi x24 x0 6
+addi x25 x0 5
+addi x26 x0 3
+lui x27 16
+addi x27 x27 -15
+addi x9 x0 11
+lui x28 269413
+addi x28 x28 -403
+lui x29 3
+addi x29 x29 57
+addi x10 x0 0
+addi x5 x0 0
+addi x6 x0 512
+fill:
+bge x5 x6 rep
+mul x9 x9 x28
+add x9 x9 x29
+srl x7 x9 x21
+andi x7 x7 1023
+sll x8 x5 x23
+add x8 x8 x18
+sw x7 0 x8
+addi x5 x5 1
+jal x0 fill
+rep:
+addi x5 x0 0
+row:
+bge x5 x21 update
+addi x6 x0 0
+column:
+bge x6 x21 next_row
+addi x7 x0 0
+addi x8 x0 0
+sll x11 x5 x24
+add x11 x11 x18
+sll x12 x6 x23
+add x12 x12 x19
+dot:
+bge x7 x21 store
+lw x13 0(x11)
+lw x14 0(x12)
+mul x15 x13 x14
+add x8 x8 x15
+addi x11 x11 4
+addi x12 x12 64
+addi x7 x7 1
+jal x0 dot
+store:
+sll x11 x5 x24
+sll x12 x6 x23
+add x11 x11 x12
+add x11 x11 x20
+sw x8 0 x11
+rem x15 x8 x27
+sll x16 x10 x25
+sub x10 x16 x10
+add x10 x10 x15
+addi x6 x6 1
+jal x0 column
+next_row:
+addi x5 x5 1
+jal x0 row
+update:
+addi x5 x0 0
+addi x6 x0 256
+update_loop:
+bge x5 x6 next_rep
+sll x11 x5 x23
+add x12 x11 x20
+lw x13 0(x12)
+div x13 x13 x26
+andi x13 x13 1023
+add x12 x11 x18
+sw x13 0 x12
+addi x5 x5 1
+jal x0 update_loop
+next_rep:
+addi x22 x22 -1
+bne x22 x0 rep
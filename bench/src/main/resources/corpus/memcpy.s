@@ -0,0 +1,70 @@
+# Copies a 4 KiB buffer of generated words four ways (by byte, half, word and
+# double word), 70 times over with fresh data each time. Registers are 32 bits,
+# so the double word copy keeps the low word of each pair and fills the high
+# word with its sign. x10 ends as a hash of all four copies.
+# expect x10 0xF86FD900
+.text
+lui x18 65536
+lui x17 65537
+lui x28 65538
+lui x29 65539
+lui x30 65540
+lui x31 65541
+addi x22 x0 70
+addi x9 x0 3
+lui x20 269413
+addi x20 x20 -403
+lui x21 3
+addi x21 x21 57
+addi x25 x0 5
+addi x10 x0 0
+rep:
+addi x11 x18 0
+fill:
+mul x9 x9 x20
+add x9 x9 x21
+sw x9 0 x11
+addi x11 x11 4
+bne x11 x17 fill
+addi x11 x18 0
+addi x12 x17 0
+bytes:
+lb x13 0(x11)
+sb x13 0 x12
+addi x11 x11 1
+addi x12 x12 1
+bne x11 x17 bytes
+addi x11 x18 0
+addi x12 x28 0
+halves:
+lh x13 0(x11)
+sh x13 0 x12
+addi x11 x11 2
+addi x12 x12 2
+bne x11 x17 halves
+addi x11 x18 0
+addi x12 x29 0
+words:
+lw x13 0(x11)
+sw x13 0 x12
+addi x11 x11 4
+addi x12 x12 4
+bne x11 x17 words
+addi x11 x18 0
+addi x12 x30 0
+doubles:
+ld x13 0(x11)
+sd x13 0 x12
+addi x11 x11 8
+addi x12 x12 8
+bne x11 x17 doubles
+addi x11 x17 0
+hash:
+lw x13 0(x11)
+sll x14 x10 x25
+sub x10 x14 x10
+add x10 x10 x13
+addi x11 x11 4
+bne x11 x31 hash
+addi x22 x22 -1
+bne x22 x0 rep
@@ -0,0 +1,90 @@
+# Recursive quicksort (Lomuto partition) of 512 words from a linear
+# congruential generator, 100 times over. Each call keeps ra and its bounds in
+# a stack frame. x10 ends as a hash of every sorted array.
+# expect x10 0x7291CCF2
+.text
+lui x18 65536
+addi x19 x0 512
+addi x22 x0 100
+addi x9 x0 7
+lui x20 269413
+addi x20 x20 -403
+lui x21 3
+addi x21 x21 57
+addi x23 x0 2
+addi x24 x0 12
+addi x25 x0 5
+addi x10 x0 0
+rep:
+addi x5 x0 0
+fill:
+bge x5 x19 sort
+mul x9 x9 x20
+add x9 x9 x21
+srl x7 x9 x24
+sll x6 x5 x23
+add x6 x6 x18
+sw x7 0 x6
+addi x5 x5 1
+jal x0 fill
+sort:
+addi x11 x18 0
+addi x12 x19 -1
+sll x12 x12 x23
+add x12 x12 x18
+jal x1 qsort
+addi x5 x0 0
+addi x13 x18 0
+hash_loop:
+bge x5 x19 next_rep
+lw x14 0(x13)
+sll x26 x10 x25
+sub x10 x26 x10
+add x10 x10 x14
+addi x13 x13 4
+addi x5 x5 1
+jal x0 hash_loop
+next_rep:
+addi x22 x22 -1
+bne x22 x0 rep
+beq x0 x0 end
+
+# qsort(x11 = address of the first word, x12 = address of the last word)
+qsort:
+bge x11 x12 qsort_return
+addi x2 x2 -16
+sw x1 12 x2
+sw x11 8 x2
+sw x12 4 x2
+lw x13 0(x12)
+addi x14 x11 -4
+addi x15 x11 0
+partition:
+bge x15 x12 partition_done
+lw x16 0(x15)
+bge x16 x13 no_move
+addi x14 x14 4
+lw x17 0(x14)
+sw x16 0 x14
+sw x17 0 x15
+no_move:
+addi x15 x15 4
+jal x0 partition
+partition_done:
+addi x14 x14 4
+lw x17 0(x14)
+sw x13 0 x14
+sw x17 0 x12
+sw x14 0 x2
+addi x12 x14 -4
+jal x1 qsort
+lw x14 0(x2)
+addi x11 x14 4
+lw x12 4(x2)
+jal x1 qsort
+lw x1 12(x2)
+addi x2 x2 16
+qsort_return:
+jalr x0 x1 0
+end:
+addi x0 x0 0
@@ -0,0 +1,96 @@
+# String routines over a list of NUL-terminated strings, 2000 times over:
+# strlen, an upper-case copy, reversing the copy in place, a case-folded hash
+# of it and strcmp against the next string. x10 ends as a hash of the results.
+# expect x10 0xD862C8A0
+.data
+s0: .asciz "The quick brown fox jumps over the lazy dog"
+s1: .asciz "RISC-V assembly, one step at a time"
+s2: .asciz "hello world"
+s3: .asciz "Hello World"
+s4: .asciz "zebra"
+s5: .asciz "apple"
+last: .asciz ""
+.text
+lui x18 65536
+lui x19 65537
+addi x22 x0 2000
+addi x25 x0 5
+addi x27 x0 26
+addi x28 x0 32
+addi x29 x0 127
+addi x10 x0 0
+rep:
+addi x11 x18 0
+string:
+lb x13 0(x11)
+beq x13 x0 next_rep
+addi x12 x11 0
+strlen:
+lb x13 0(x12)
+addi x12 x12 1
+bne x13 x0 strlen
+sub x14 x12 x11
+addi x14 x14 -1
+add x10 x10 x14
+addi x15 x11 0
+addi x16 x19 0
+upper:
+lb x13 0(x15)
+addi x6 x13 -97
+blt x6 x0 keep
+slt x7 x6 x27
+beq x7 x0 keep
+xor x13 x13 x28
+keep:
+sb x13 0 x16
+addi x15 x15 1
+addi x16 x16 1
+bne x13 x0 upper
+addi x15 x19 0
+add x16 x19 x14
+addi x16 x16 -1
+reverse:
+bge x15 x16 reversed
+lb x6 0(x15)
+lb x7 0(x16)
+sb x7 0 x15
+sb x6 0 x16
+addi x15 x15 1
+addi x16 x16 -1
+jal x0 reverse
+reversed:
+addi x15 x19 0
+hash:
+lb x13 0(x15)
+beq x13 x0 compare
+or x8 x13 x28
+and x8 x8 x29
+ori x8 x8 256
+sll x6 x10 x25
+sub x10 x6 x10
+add x10 x10 x8
+addi x15 x15 1
+jal x0 hash
+compare:
+addi x15 x11 0
+add x16 x11 x14
+addi x16 x16 1
+strcmp:
+lb x6 0(x15)
+lb x7 0(x16)
+bne x6 x7 compared
+beq x6 x0 compared
+addi x15 x15 1
+addi x16 x16 1
+jal x0 strcmp
+compared:
+sub x8 x6 x7
+slt x7 x8 x0
+add x10 x10 x7
+add x10 x10 x8
+add x11 x11 x14
+addi x11 x11 1
+jal x0 string
+next_rep:
+addi x22 x22 -1
+bne x22 x0 rep
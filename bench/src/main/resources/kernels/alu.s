@@ -0,0 +1,17 @@
+# Arithmetic in a counted loop: R and I type ALU work, a multiply and one
+# taken branch per nine instructions
+.text
+restart:
+lui x5 2441
+addi x6 x0 0
+loop:
+addi x6 x6 3
+add x7 x6 x5
+sub x8 x7 x5
+mul x9 x8 x6
+sra x10 x9 x6
+srl x11 x9 x6
+add x12 x10 x11
+addi x5 x5 -1
+bne x5 x0 loop
+jal x0 restart
@@ -0,0 +1,23 @@
+# A loop calling a function that saves ra on the stack and calls a leaf:
+# JAL and JALR through ra, stack loads and stores
+.text
+loop:
+addi x11 x0 100
+call_loop:
+jal x1 func
+addi x11 x11 -1
+bne x11 x0 call_loop
+jal x0 loop
+func:
+addi x2 x2 -8
+sw x1 4 x2
+sw x11 0 x2
+jal x1 leaf
+lw x11 0(x2)
+lw x1 4(x2)
+addi x2 x2 8
+jalr x0 x1 0
+leaf:
+add x10 x10 x11
+addi x10 x10 3
+jalr x0 x1 0
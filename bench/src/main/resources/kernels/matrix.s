@@ -0,0 +1,27 @@
+# Row-major sum over a 16x16 word matrix, repeated: address arithmetic with
+# multiplies and a load in the inner loop
+.data
+mat: .word 1 2 3 4 5 6 7 8 9 10 11 12 13 14 15 16
+.text
+lui x10 65536
+addi x20 x0 16
+repeat:
+addi x5 x0 0
+outer:
+bge x5 x20 repeat
+addi x6 x0 0
+inner:
+bge x6 x20 next
+addi x11 x0 64
+mul x12 x5 x11
+addi x11 x0 4
+mul x13 x6 x11
+add x12 x12 x13
+add x12 x12 x10
+lw x14 0(x12)
+add x15 x15 x14
+addi x6 x6 1
+jal x0 inner
+next:
+addi x5 x5 1
+jal x0 outer
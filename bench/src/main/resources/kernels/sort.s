@@ -0,0 +1,42 @@
+# Bubble sort of 16 words, then the array is reversed so the next pass is the
+# worst case again: loads, stores and data-dependent branches
+.data
+arr: .word 9 -3 7 1 0 22 -8 5 3 3 100 -1000 4 6 2 11
+.text
+lui x10 65536
+addi x11 x0 16
+pass:
+addi x5 x0 0
+outer:
+addi x6 x11 -1
+bge x5 x6 reverse
+addi x7 x0 0
+sub x8 x6 x5
+inner:
+bge x7 x8 next_outer
+addi x12 x0 4
+mul x13 x7 x12
+add x13 x13 x10
+lw x14 0(x13)
+lw x15 4(x13)
+bge x15 x14 noswap
+sw x15 0 x13
+sw x14 4 x13
+noswap:
+addi x7 x7 1
+jal x0 inner
+next_outer:
+addi x5 x5 1
+jal x0 outer
+reverse:
+addi x13 x10 0
+addi x16 x10 60
+swap:
+bge x13 x16 pass
+lw x14 0(x13)
+lw x15 0(x16)
+sw x15 0 x13
+sw x14 0 x16
+addi x13 x13 4
+addi x16 x16 -4
+jal x0 swap
@@ -64,7 +64,9 @@ export default function AssemblyPage() {
       setAssemblyCode(instructionList);
       setAssemblyDone(true)
 
-      const codeResponse = await axios.post(`/api/runCode/${fileId}`)
+      // The memory view shows every address, so ask for every mapped byte
+      // rather than only those the run changed
+      const codeResponse = await axios.post(`/api/runCode/${fileId}?fullMemory=1`)
       setCodeOutputResponse(codeResponse.data.outputArray)
       console.log(codeResponse.data.outputArray)
       setTempMemoryFile(codeResponse.data.memoryState)
@@ -0,0 +1,400 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// Splits assembly source into tokens for RiscVParser, one line at a time.
+// The lexer is a cursor rather than a stream of token objects: nextLine()
+// moves to the next source line, next() to the next token on it, and the
+// getters describe that token. Lines are read into a char buffer that is
+// reused, numbers and registers are decoded in place, and names (mnemonics,
+// labels, directives, CSR names) are interned, so a name used many times is
+// one String. Operands may be separated by whitespace, commas or both, and
+// "#" starts a comment outside a string literal.
+public class Lexer {
+
+    enum Token {
+        // The first name of a statement, after any labels
+        MNEMONIC,
+        // A name starting with "." in that place: .text, .word, ...
+        DIRECTIVE,
+        // A label definition, "loop:"; getName() is the label
+        LABEL,
+        // Any other name: a branch target or a CSR
+        SYMBOL,
+        // x0..x31 or an ABI name; getRegister() is its number
+        REGISTER,
+        // A decimal, 0x hex or 0b binary number, optionally signed; getValue()
+        IMMEDIATE,
+        // "imm(reg)" or "(reg)"; getValue() is imm and getRegister() reg
+        MEMORY,
+        // A double-quoted string; getString() is its contents
+        STRING,
+        END_OF_LINE
+    }
+
+    // Register numbers by name
+    static final Map<String, Integer> registerNames = new HashMap<>();
+
+    static {
+        String[] abiNames = { "zero", "ra", "sp", "gp", "tp", "t0", "t1", "t2", "s0", "s1", "a0", "a1", "a2", "a3",
+                "a4", "a5", "a6", "a7", "s2", "s3", "s4", "s5", "s6", "s7", "s8", "s9", "s10", "s11", "t3", "t4",
+                "t5", "t6" };
+        for (int i = 0; i < 32; i++) {
+            registerNames.put("x" + i, i);
+            registerNames.put(abiNames[i], i);
+        }
+        registerNames.put("fp", 8);
+    }
+
+    private final Reader in;
+    private final char[] input = new char[8192];
+    private int inputPosition = 0;
+    private int inputLimit = 0;
+
+    // The current line, without its line terminator
+    private char[] line = new char[256];
+    private int lineLength = 0;
+    private int lineNumber = 0;
+
+    // The current token, from start to end in line, and what it decodes to
+    private Token token = Token.END_OF_LINE;
+    private int start = 0;
+    private int end = 0;
+    private String name;
+    private int register;
+    private long value;
+    // Where the last token before END_OF_LINE ended
+    private int lastEnd = 0;
+    // Whether the next name is a statement's mnemonic or directive
+    private boolean atStatementStart = true;
+
+    // Interned names in an open-addressing table, and each one's register
+    // number or -1
+    private String[] names = new String[1024];
+    private int[] nameRegisters = new int[1024];
+    private int nameCount = 0;
+
+    public Lexer(Reader in) {
+        this.in = in;
+    }
+
+    // Moves to the next source line; false at the end of the input
+    public boolean nextLine() throws IOException {
+        lineLength = 0;
+        boolean read = false;
+        while (true) {
+            if (inputPosition == inputLimit) {
+                inputLimit = in.read(input, 0, input.length);
+                inputPosition = 0;
+                if (inputLimit <= 0) {
+                    inputLimit = 0;
+                    if (!read) {
+                        return false;
+                    }
+                    break;
+                }
+            }
+            read = true;
+            int newline = inputPosition;
+            while (newline < inputLimit && input[newline] != '\n') {
+                newline++;
+            }
+            int length = newline - inputPosition;
+            if (lineLength + length > line.length) {
+                line = Arrays.copyOf(line, Math.max(line.length * 2, lineLength + length));
+            }
+            System.arraycopy(input, inputPosition, line, lineLength, length);
+            lineLength += length;
+            if (newline < inputLimit) {
+                inputPosition = newline + 1;
+                break;
+            }
+            inputPosition = newline;
+        }
+        if (lineLength > 0 && line[lineLength - 1] == '\r') {
+            lineLength--;
+        }
+        lineNumber++;
+        token = Token.END_OF_LINE;
+        start = end = lastEnd = 0;
+        atStatementStart = true;
+        return true;
+    }
+
+    // Moves to the next token on the line; END_OF_LINE once there is none
+    public Token next() {
+        int i = end;
+        while (i < lineLength && (line[i] <= ' ' || line[i] == ',')) {
+            i++;
+        }
+        start = end = i;
+        if (i == lineLength || line[i] == '#') {
+            return token = Token.END_OF_LINE;
+        }
+
+        char c = line[i];
+        if (c == '"') {
+            token = string();
+        } else if (isDigit(c) || ((c == '-' || c == '+') && i + 1 < lineLength && isDigit(line[i + 1]))) {
+            token = number();
+        } else if (c == '(') {
+            value = 0;
+            token = memory();
+        } else if (isNameStart(c)) {
+            token = name();
+        } else {
+            end = i + 1;
+            throw error("Unexpected character '" + c + "'");
+        }
+        lastEnd = end;
+        return token;
+    }
+
+    private Token number() {
+        int i = start;
+        boolean negative = line[i] == '-';
+        if (line[i] == '-' || line[i] == '+') {
+            i++;
+        }
+        int radix = 10;
+        if (line[i] == '0' && i + 1 < lineLength && (line[i + 1] == 'x' || line[i + 1] == 'X')) {
+            radix = 16;
+            i += 2;
+        } else if (line[i] == '0' && i + 1 < lineLength && (line[i + 1] == 'b' || line[i + 1] == 'B')) {
+            radix = 2;
+            i += 2;
+        }
+
+        int digits = i;
+        long magnitude = 0;
+        boolean valid = true;
+        for (; i < lineLength && isNamePart(line[i]); i++) {
+            int digit = Character.digit(line[i], radix);
+            if (digit < 0 || magnitude > (Long.MAX_VALUE - digit) / radix) {
+                valid = false;
+            } else {
+                magnitude = magnitude * radix + digit;
+            }
+        }
+        end = i;
+        if (!valid || i == digits) {
+            throw error("Invalid immediate format: " + getText());
+        }
+        value = negative ? -magnitude : magnitude;
+        return i < lineLength && line[i] == '(' ? memory() : Token.IMMEDIATE;
+    }
+
+    // The "(reg)" at end, after the offset in value
+    private Token memory() {
+        int open = end;
+        int close = open + 1;
+        while (close < lineLength && line[close] != ')') {
+            close++;
+        }
+        if (close == lineLength) {
+            end = lineLength;
+            throw error("Missing ) in " + getText());
+        }
+        end = close + 1;
+        int slot = close > open + 1 ? intern(open + 1, close) : -1;
+        if (slot < 0 || nameRegisters[slot] < 0) {
+            throw error("Invalid register format: " + new String(line, open + 1, close - open - 1));
+        }
+        register = nameRegisters[slot];
+        return Token.MEMORY;
+    }
+
+    private Token name() {
+        int i = start + 1;
+        while (i < lineLength && isNamePart(line[i])) {
+            i++;
+        }
+        end = i;
+        int slot = intern(start, i);
+        name = names[slot];
+        if (i < lineLength && line[i] == ':') {
+            end = i + 1;
+            return Token.LABEL;
+        }
+        if (atStatementStart) {
+            atStatementStart = false;
+            return line[start] == '.' ? Token.DIRECTIVE : Token.MNEMONIC;
+        }
+        register = nameRegisters[slot];
+        return register >= 0 ? Token.REGISTER : Token.SYMBOL;
+    }
+
+    private Token string() {
+        int i = start + 1;
+        while (i < lineLength && line[i] != '"') {
+            i += line[i] == '\\' ? 2 : 1;
+        }
+        if (i >= lineLength) {
+            end = lineLength;
+            throw error("Unterminated string");
+        }
+        end = i + 1;
+        return Token.STRING;
+    }
+
+    // The slot of the name in line from from to to, added if new
+    private int intern(int from, int to) {
+        int hash = 0;
+        for (int i = from; i < to; i++) {
+            hash = 31 * hash + line[i];
+        }
+        int mask = names.length - 1;
+        for (int slot = (hash ^ hash >>> 16) & mask;; slot = (slot + 1) & mask) {
+            String candidate = names[slot];
+            if (candidate == null) {
+                if (2 * (nameCount + 1) > names.length) {
+                    grow();
+                    return intern(from, to);
+                }
+                candidate = new String(line, from, to - from);
+                names[slot] = candidate;
+                Integer number = registerNames.get(candidate);
+                nameRegisters[slot] = number == null ? -1 : number;
+                nameCount++;
+                return slot;
+            }
+            if (candidate.hashCode() == hash && candidate.length() == to - from) {
+                int i = 0;
+                while (i < to - from && candidate.charAt(i) == line[from + i]) {
+                    i++;
+                }
+                if (i == to - from) {
+                    return slot;
+                }
+            }
+        }
+    }
+
+    private void grow() {
+        String[] oldNames = names;
+        int[] oldRegisters = nameRegisters;
+        names = new String[oldNames.length * 2];
+        nameRegisters = new int[oldNames.length * 2];
+        int mask = names.length - 1;
+        for (int i = 0; i < oldNames.length; i++) {
+            if (oldNames[i] != null) {
+                int hash = oldNames[i].hashCode();
+                int slot = (hash ^ hash >>> 16) & mask;
+                while (names[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                names[slot] = oldNames[i];
+                nameRegisters[slot] = oldRegisters[i];
+            }
+        }
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isNameStart(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || c == '.' || c == '$';
+    }
+
+    private static boolean isNamePart(char c) {
+        return isNameStart(c) || isDigit(c);
+    }
+
+    public Token getToken() {
+        return token;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getRegister() {
+        return register;
+    }
+
+    public long getValue() {
+        return value;
+    }
+
+    // The contents of a STRING token, with \n, \t, \r, \0 and \<char> escapes
+    // resolved
+    public String getString() {
+        StringBuilder s = new StringBuilder(end - start);
+        for (int i = start + 1; i < end - 1; i++) {
+            char c = line[i];
+            if (c == '\\') {
+                c = line[++i];
+                switch (c) {
+                    case 'n':
+                        c = '\n';
+                        break;
+                    case 't':
+                        c = '\t';
+                        break;
+                    case 'r':
+                        c = '\r';
+                        break;
+                    case '0':
+                        c = '\0';
+                        break;
+                    default:
+                        break;
+                }
+            }
+            s.append(c);
+        }
+        return s.toString();
+    }
+
+    // The token as written, for messages
+    public String getText() {
+        return token == Token.END_OF_LINE && start == end ? "end of line" : new String(line, start, end - start);
+    }
+
+    public String getLineText() {
+        return new String(line, 0, lineLength).trim();
+    }
+
+    public int getLine() {
+        return lineNumber;
+    }
+
+    public int getColumn() {
+        return start + 1;
+    }
+
+    // Where the token starts in the line, for appendSource()
+    public int getStart() {
+        return start;
+    }
+
+    // Appends the line from from to the end of the last token read, with the
+    // whitespace and commas between tokens written as one space each
+    public void appendSource(int from, StringBuilder out) {
+        boolean separator = false;
+        for (int i = from; i < lastEnd; i++) {
+            char c = line[i];
+            if (c <= ' ' || c == ',') {
+                separator = true;
+            } else {
+                if (separator) {
+                    out.append(' ');
+                    separator = false;
+                }
+                out.append(c);
+            }
+        }
+    }
+
+    // An error at the current token
+    public IllegalArgumentException error(String message) {
+        return error(lineNumber, start + 1, message);
+    }
+
+    public static IllegalArgumentException error(int line, int column, String message) {
+        return new IllegalArgumentException("Line " + line + ", column " + column + ": " + message);
+    }
+}
@@ -3,50 +3,120 @@ import java.io.BufferedWriter;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public class RiscVParser {
 
-    static Map<String, String> opcodeMap = Map.ofEntries(
-            Map.entry("add", "0110011"), Map.entry("sub", "0110011"), Map.entry("and", "0110011"),
-            Map.entry("or", "0110011"), Map.entry("sll", "0110011"), Map.entry("slt", "0110011"),
-            Map.entry("sra", "0110011"), Map.entry("srl", "0110011"), Map.entry("xor", "0110011"),
-            Map.entry("mul", "0110011"), Map.entry("div", "0110011"), Map.entry("rem", "0110011"),
-            Map.entry("addi", "0010011"), Map.entry("andi", "0010011"), Map.entry("ori", "0010011"),
-            Map.entry("jalr", "1100111"), Map.entry("lb", "0000011"), Map.entry("ld", "0000011"),
-            Map.entry("lh", "0000011"), Map.entry("lw", "0000011"), Map.entry("sb", "0100011"),
-            Map.entry("sw", "0100011"), Map.entry("sd", "0100011"), Map.entry("sh", "0100011"),
-            Map.entry("beq", "1100011"), Map.entry("bne", "1100011"), Map.entry("bge", "1100011"),
-            Map.entry("blt", "1100011"), Map.entry("auipc", "0010111"), Map.entry("lui", "0110111"),
-            Map.entry("jal", "1101111"));
-
-    static Map<String, String> funct3Map = Map.ofEntries(
-            Map.entry("add", "000"), Map.entry("sub", "000"), Map.entry("and", "111"),
-            Map.entry("or", "110"), Map.entry("sll", "001"), Map.entry("slt", "010"),
-            Map.entry("sra", "101"), Map.entry("srl", "101"), Map.entry("xor", "100"),
-            Map.entry("mul", "000"), Map.entry("div", "100"), Map.entry("rem", "110"),
-            Map.entry("addi", "000"), Map.entry("andi", "111"), Map.entry("ori", "110"),
-            Map.entry("jalr", "000"), Map.entry("lb", "000"), Map.entry("ld", "011"),
-            Map.entry("lh", "001"), Map.entry("lw", "010"), Map.entry("sb", "000"),
-            Map.entry("sw", "010"), Map.entry("sd", "011"), Map.entry("sh", "001"),
-            Map.entry("beq", "000"), Map.entry("bne", "001"), Map.entry("bge", "101"),
-            Map.entry("blt", "100"));
-
-    static Map<String, String> funct7Map = Map.ofEntries(
-            Map.entry("add", "0000000"), Map.entry("sub", "0100000"),
-            Map.entry("sra", "0100000"), Map.entry("srl", "0000000"),
-            Map.entry("mul", "0000001"), Map.entry("div", "0000001"),
-            Map.entry("rem", "0000001"));
+    static Map<String, Integer> opcodeMap = Map.ofEntries(
+            Map.entry("add", 0b0110011), Map.entry("sub", 0b0110011), Map.entry("and", 0b0110011),
+            Map.entry("or", 0b0110011), Map.entry("sll", 0b0110011), Map.entry("slt", 0b0110011),
+            Map.entry("sra", 0b0110011), Map.entry("srl", 0b0110011), Map.entry("xor", 0b0110011),
+            Map.entry("mul", 0b0110011), Map.entry("div", 0b0110011), Map.entry("rem", 0b0110011),
+            Map.entry("addi", 0b0010011), Map.entry("andi", 0b0010011), Map.entry("ori", 0b0010011),
+            Map.entry("jalr", 0b1100111), Map.entry("lb", 0b0000011), Map.entry("ld", 0b0000011),
+            Map.entry("lh", 0b0000011), Map.entry("lw", 0b0000011), Map.entry("sb", 0b0100011),
+            Map.entry("sw", 0b0100011), Map.entry("sd", 0b0100011), Map.entry("sh", 0b0100011),
+            Map.entry("beq", 0b1100011), Map.entry("bne", 0b1100011), Map.entry("bge", 0b1100011),
+            Map.entry("blt", 0b1100011), Map.entry("auipc", 0b0010111), Map.entry("lui", 0b0110111),
+            Map.entry("jal", 0b1101111), Map.entry("csrrw", 0b1110011), Map.entry("csrrs", 0b1110011),
+            Map.entry("csrrc", 0b1110011), Map.entry("csrrwi", 0b1110011), Map.entry("csrrsi", 0b1110011),
+            Map.entry("csrrci", 0b1110011));
+
+    static Map<String, Integer> funct3Map = Map.ofEntries(
+            Map.entry("add", 0b000), Map.entry("sub", 0b000), Map.entry("and", 0b111),
+            Map.entry("or", 0b110), Map.entry("sll", 0b001), Map.entry("slt", 0b010),
+            Map.entry("sra", 0b101), Map.entry("srl", 0b101), Map.entry("xor", 0b100),
+            Map.entry("mul", 0b000), Map.entry("div", 0b100), Map.entry("rem", 0b110),
+            Map.entry("addi", 0b000), Map.entry("andi", 0b111), Map.entry("ori", 0b110),
+            Map.entry("jalr", 0b000), Map.entry("lb", 0b000), Map.entry("ld", 0b011),
+            Map.entry("lh", 0b001), Map.entry("lw", 0b010), Map.entry("sb", 0b000),
+            Map.entry("sw", 0b010), Map.entry("sd", 0b011), Map.entry("sh", 0b001),
+            Map.entry("beq", 0b000), Map.entry("bne", 0b001), Map.entry("bge", 0b101),
+            Map.entry("blt", 0b100), Map.entry("csrrw", 0b001), Map.entry("csrrs", 0b010),
+            Map.entry("csrrc", 0b011), Map.entry("csrrwi", 0b101), Map.entry("csrrsi", 0b110),
+            Map.entry("csrrci", 0b111));
+
+    static Map<String, Integer> funct7Map = Map.ofEntries(
+            Map.entry("add", 0b0000000), Map.entry("sub", 0b0100000), Map.entry("and", 0b0000000),
+            Map.entry("or", 0b0000000), Map.entry("sll", 0b0000000), Map.entry("slt", 0b0000000),
+            Map.entry("sra", 0b0100000), Map.entry("srl", 0b0000000), Map.entry("xor", 0b0000000),
+            Map.entry("mul", 0b0000001), Map.entry("div", 0b0000001),
+            Map.entry("rem", 0b0000001));
 
     static Set<String> iFormatInstructions = Set.of("addi", "andi", "ori", "lb", "ld", "lh", "lw", "jalr");
     static Set<String> sFormatInstructions = Set.of("sw", "sh", "sb", "sd");
     static Set<String> sbFormatInstructions = Set.of("beq", "bne", "bge", "blt");
     static Set<String> uFormatInstructions = Set.of("auipc", "lui");
     static Set<String> ujFormatInstructions = Set.of("jal");
+    static Set<String> csrFormatInstructions = Set.of("csrrw", "csrrs", "csrrc", "csrrwi", "csrrsi", "csrrci");
+
+    // Counter CSRs by name; hpmcounter3..31 and the machine-mode names are
+    // resolved in csrNumber()
+    static Map<String, Integer> csrNames = Map.ofEntries(
+            Map.entry("cycle", 0xC00), Map.entry("time", 0xC01), Map.entry("instret", 0xC02),
+            Map.entry("cycleh", 0xC80), Map.entry("timeh", 0xC81), Map.entry("instreth", 0xC82),
+            Map.entry("mcycle", 0xB00), Map.entry("minstret", 0xB02),
+            Map.entry("mcycleh", 0xB80), Map.entry("minstreth", 0xB82));
+    static Pattern hpmCounterName = Pattern.compile("(m?)hpmcounter(\\d+)(h?)");
+
+    // Where the data segment starts
+    static final int DATA_START = 0x10000000;
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+    private static final String HEX_DIGITS = "0123456789ABCDEF";
+
+    // A branch or jump at address to a label that was not defined yet, and
+    // where the label is used in the source
+    record Fixup(int address, int line, int column) {
+    }
+
+    // Per-program state; reset() clears it so one parser can assemble many programs
+    private final Map<String, Integer> labelAddress = new HashMap<>();
+    // Labels of each segment, in source order, and where each segment ends
+    private final Map<String, Integer> textLabels = new LinkedHashMap<>();
+    private final Map<String, Integer> dataLabels = new LinkedHashMap<>();
+    private int textEnd = 0;
+    private int dataEnd = DATA_START;
+    // The data segment's bytes, from DATA_START to dataEnd
+    private byte[] data = new byte[256];
+    // Fixups by the label they wait for, in the order first used
+    private final Map<String, List<Fixup>> fixups = new LinkedHashMap<>();
+    // Instructions from bufferStart on that are not written yet, because one
+    // of them waits for a label: their words, and their source text one after
+    // the other, instruction i's ending at pendingTextEnds[i]
+    private int[] pendingWords = new int[64];
+    private int[] pendingTextEnds = new int[64];
+    private final StringBuilder pendingText = new StringBuilder();
+    private int pendingCount = 0;
+    private int bufferStart = 0;
+    // Whether listing lines end with the instruction's fields in binary
+    private boolean fieldBreakdown = false;
+    // Scratch space for writeHex() and writePending()
+    private final char[] hexBuffer = new char[8];
+    private char[] textBuffer = new char[1024];
+
+    public void reset() {
+        labelAddress.clear();
+        textLabels.clear();
+        dataLabels.clear();
+        textEnd = 0;
+        dataEnd = DATA_START;
+        fixups.clear();
+        pendingText.setLength(0);
+        pendingCount = 0;
+        bufferStart = 0;
+    }
 
-    static Map<String, Integer> labelAddress = new HashMap<>();
-    static Map<Long, Long> dataSegment = new HashMap<>();
-    static List<Map.Entry<Long, Long>> sortedDataSegment = new ArrayList<>();
+    // Ends every listing line with "# " and the instruction's fields in
+    // binary (see formatBinaryInstruction()), for reading the listing; off by
+    // default, as the simulator and the web routes ignore them
+    public void setFieldBreakdown(boolean fieldBreakdown) {
+        this.fieldBreakdown = fieldBreakdown;
+    }
 
     static boolean isIFormatInstruction(String inst) {
         return iFormatInstructions.contains(inst);
@@ -68,493 +138,577 @@ public class RiscVParser {
         return ujFormatInstructions.contains(inst);
     }
 
-    static int computeOffset(String label, int currentPC) {
-        if (!labelAddress.containsKey(label)) {
-            System.err.println("Error: Undefined label " + label);
-            System.exit(1);
-        }
-        return labelAddress.get(label) - currentPC;
+    static boolean isCsrFormatInstruction(String inst) {
+        return csrFormatInstructions.contains(inst);
     }
 
-    static String registerToBinary(String reg) {
-        try {
-            int regNum = Integer.parseInt(reg.substring(1));
-            if (regNum < 0 || regNum > 31) {
-                throw new IllegalArgumentException("Register out of range");
-            }
-            return String.format("%5s", Integer.toBinaryString(regNum)).replace(' ', '0');
-        } catch (Exception e) {
-            System.err.println("Error: Invalid register format!");
-            System.exit(1);
+    // The instruction each CSR pseudo-instruction with a CSR and a source
+    // operand (csrw csr rs, csrwi csr uimm, ...) stands for, with rd x0
+    static Map<String, String> csrPseudoInstructions = Map.of(
+            "csrw", "csrrw", "csrs", "csrrs", "csrc", "csrrc",
+            "csrwi", "csrrwi", "csrsi", "csrrsi", "csrci", "csrrci");
+
+    // CSR number from a name (cycle, hpmcounter4, mcycleh, ...), or -1 if
+    // there is no such CSR
+    static int csrNumber(String csr) {
+        if (csrNames.containsKey(csr)) {
+            return csrNames.get(csr);
+        }
+        Matcher counter = hpmCounterName.matcher(csr);
+        if (!counter.matches() || counter.group(2).length() > 2) {
+            return -1;
         }
-        return null;
+        int index = Integer.parseInt(counter.group(2));
+        if (index < 3 || index > 31) {
+            return -1;
+        }
+        return (counter.group(1).isEmpty() ? 0xC00 : 0xB00) + (counter.group(3).isEmpty() ? 0 : 0x80) + index;
     }
 
-    public static String parseImmediate(String immStr, int bits) {
-        int value;
-        try {
-            if (immStr.startsWith("0x") || immStr.startsWith("0X")) {
-                // Hexadecimal
-                value = Integer.parseInt(immStr.substring(2), 16);
-            } else if (immStr.startsWith("0b") || immStr.startsWith("0B")) {
-                // Binary
-                value = Integer.parseInt(immStr.substring(2), 2);
-            } else {
-                // Decimal
-                value = Integer.parseInt(immStr);
-            }
-        } catch (Exception e) {
-            System.err.println("Error: Invalid immediate format!");
-            System.exit(1); // Exit on error
-            return null;
-        }
+    // csr rs1/uimm funct3 rd opcode; source is a register, or a 0..31
+    // immediate for the csrr*i forms
+    static int parseCsrFormat(String inst, int rd, int csr, int source) {
+        return (csr << 20) | (source << 15) | (funct3Map.get(inst) << 12) | (rd << 7) | opcodeMap.get(inst);
+    }
 
-        // Range checking for signed and unsigned values based on the number of bits
-        if ((bits == 12 && (value < -2048 || value > 2047)) || (bits == 20 && (value < 0 || value > 1048575))) {
-            System.err.println("Error: Immediate value out of range!");
-            System.exit(1);
+    static int parseRFormat(String inst, int rd, int rs1, int rs2) {
+        return (funct7Map.get(inst) << 25) | (rs2 << 20) | (rs1 << 15) | (funct3Map.get(inst) << 12) | (rd << 7)
+                | opcodeMap.get(inst);
+    }
+
+    static int parseIFormat(String inst, int rd, int rs1, int imm) {
+        return (imm << 20) | (rs1 << 15) | (funct3Map.get(inst) << 12) | (rd << 7) | opcodeMap.get(inst);
+    }
+
+    // imm[11:5] rs2 rs1 funct3 imm[4:0] opcode
+    static int parseSFormat(String inst, int rs1, int rs2, int imm) {
+        return ((imm >> 5) << 25) | (rs2 << 20) | (rs1 << 15) | (funct3Map.get(inst) << 12) | ((imm & 0x1F) << 7)
+                | opcodeMap.get(inst);
+    }
+
+    // imm[12|10:5] rs2 rs1 funct3 imm[4:1|11] opcode
+    static int parseSBFormat(String inst, int rs1, int rs2, int offset) {
+        if (offset < -4096 || offset > 4095) {
+            throw new IllegalArgumentException("Branch offset out of range: " + offset);
         }
+        return sbImmediate(offset) | (rs2 << 20) | (rs1 << 15) | (funct3Map.get(inst) << 12) | opcodeMap.get(inst);
+    }
 
-        // Convert to binary with padding
-        String binary;
+    // The bits of a branch instruction that hold offset
+    static int sbImmediate(int offset) {
+        return ((offset >> 12 & 0x1) << 31) | ((offset >> 5 & 0x3F) << 25) | ((offset >> 1 & 0xF) << 8)
+                | ((offset >> 11 & 0x1) << 7);
+    }
 
-        if (value < 0) {
-            // If negative, calculate two's complement representation for the given number
-            // of bits
-            binary = Integer.toBinaryString((1 << bits) + value); // Two's complement trick
-        } else {
-            // If positive, just format as a binary string
-            binary = Integer.toBinaryString(value);
+    static int parseUFormat(String inst, int rd, int imm) {
+        return (imm << 12) | (rd << 7) | opcodeMap.get(inst);
+    }
+
+    // imm[20|10:1|11|19:12] rd opcode
+    static int parseUJFormat(String inst, int rd, int offset) {
+        if (offset < -(1 << 20) || offset >= 1 << 20) {
+            throw new IllegalArgumentException("Jump offset out of range: " + offset);
         }
+        return ujImmediate(offset) | (rd << 7) | opcodeMap.get(inst);
+    }
 
-        // Ensure the result is the correct length by padding with leading zeros
-        binary = String.format("%" + bits + "s", binary).replace(' ', '0');
-        return binary;
+    // The bits of a jal instruction that hold offset
+    static int ujImmediate(int offset) {
+        return ((offset >> 20 & 0x1) << 31) | ((offset >> 1 & 0x3FF) << 21) | ((offset >> 11 & 0x1) << 20)
+                | ((offset >> 12 & 0xFF) << 12);
     }
 
-    static String parseRFormat(String inst, String rd, String rs1, String rs2) {
-        return funct7Map.get(inst) + registerToBinary(rs2) + registerToBinary(rs1) +
-                funct3Map.get(inst) + registerToBinary(rd) + opcodeMap.get(inst);
+    // The fields of an encoded instruction in binary, as
+    // opcode-funct3-funct7-rd-rs1-rs2-imm with NULL for those its format does
+    // not have. Immediates are shown as the value written in the source: 13
+    // bits for branch offsets, 21 for jal, 20 for lui/auipc, else 12; for CSR
+    // instructions rs1 is the source and imm the CSR number.
+    static String formatBinaryInstruction(int word) {
+        int opcode = word & 0x7F;
+        int funct3 = word >>> 12 & 0x7;
+        int rd = word >>> 7 & 0x1F;
+        int rs1 = word >>> 15 & 0x1F;
+        int rs2 = word >>> 20 & 0x1F;
+        StringBuilder s = new StringBuilder(64);
+        appendBinary(s, opcode, 7).append('-');
+        switch (opcode) {
+            case 0b0110011: // R
+                appendBinary(s, funct3, 3).append('-');
+                appendBinary(s, word >>> 25, 7).append('-');
+                appendBinary(s, rd, 5).append('-');
+                appendBinary(s, rs1, 5).append('-');
+                appendBinary(s, rs2, 5).append("-NULL");
+                break;
+            case 0b0100011: // S
+                appendBinary(s, funct3, 3).append("-NULL-NULL-");
+                appendBinary(s, rs1, 5).append('-');
+                appendBinary(s, rs2, 5).append('-');
+                appendBinary(s, (word >>> 25) << 5 | rd, 12);
+                break;
+            case 0b1100011: // SB
+                appendBinary(s, funct3, 3).append("-NULL-NULL-");
+                appendBinary(s, rs1, 5).append('-');
+                appendBinary(s, rs2, 5).append('-');
+                appendBinary(s, (word >>> 31) << 12 | (word >>> 7 & 0x1) << 11 | (word >>> 25 & 0x3F) << 5
+                        | (word >>> 8 & 0xF) << 1, 13);
+                break;
+            case 0b0110111: // U
+            case 0b0010111:
+                s.append("NULL-NULL-");
+                appendBinary(s, rd, 5).append("-NULL-NULL-");
+                appendBinary(s, word >>> 12, 20);
+                break;
+            case 0b1101111: // UJ
+                s.append("NULL-NULL-");
+                appendBinary(s, rd, 5).append("-NULL-NULL-");
+                appendBinary(s, (word >>> 31) << 20 | (word >>> 12 & 0xFF) << 12 | (word >>> 20 & 0x1) << 11
+                        | (word >>> 21 & 0x3FF) << 1, 21);
+                break;
+            default: // I and CSR
+                appendBinary(s, funct3, 3).append("-NULL-");
+                appendBinary(s, rd, 5).append('-');
+                appendBinary(s, rs1, 5).append("-NULL-");
+                appendBinary(s, word >>> 20, 12);
+                break;
+        }
+        return s.toString();
     }
 
-    static String parseIFormat(String inst, String rd, String rs1, String imm) {
-        return parseImmediate(imm, 12) + registerToBinary(rs1) + funct3Map.get(inst) +
-                registerToBinary(rd) + opcodeMap.get(inst);
+    private static StringBuilder appendBinary(StringBuilder s, int value, int bits) {
+        for (int i = bits - 1; i >= 0; i--) {
+            s.append((char) ('0' + (value >>> i & 1)));
+        }
+        return s;
     }
 
-    static String parseSFormat(String inst, String rs1, String rs2, String imm) {
-        String immBin = parseImmediate(imm, 12);
-        return immBin.substring(0, 7) + registerToBinary(rs2) + registerToBinary(rs1) +
-                funct3Map.get(inst) + immBin.substring(7) + opcodeMap.get(inst);
+    // Stores the values of the data directive at lexer's current token at
+    // dataEnd, little endian
+    void storeData(Lexer lexer) {
+        String directive = lexer.getToken() == Lexer.Token.DIRECTIVE ? lexer.getName() : lexer.getText();
+
+        switch (directive) {
+            case ".byte":
+                storeValues(lexer, 1, "byte");
+                break;
+
+            case ".half":
+                storeValues(lexer, 2, "half");
+                break;
+
+            case ".word":
+                storeValues(lexer, 4, "word");
+                break;
+
+            case ".dword":
+                storeValues(lexer, 8, "dword");
+                break;
+
+            case ".asciz":
+                Lexer.Token token = lexer.next();
+                if (token != Lexer.Token.STRING) {
+                    System.err.println("Invalid .asciz format in line: " + lexer.getLineText());
+                }
+                while (token == Lexer.Token.STRING) {
+                    for (byte b : lexer.getString().getBytes(StandardCharsets.UTF_8)) {
+                        storeBytes(b, 1);
+                    }
+                    storeBytes(0, 1); // Null terminator
+                    token = lexer.next();
+                }
+                break;
+
+            default:
+                System.err.println("Unknown directive: " + directive);
+        }
     }
 
-    static String parseSBFormat(String inst, String rs1, String rs2, String offset) {
-        String off = parseImmediate(offset, 13);
-        return off.charAt(0) + off.substring(2, 8) + registerToBinary(rs2) +
-                registerToBinary(rs1) + funct3Map.get(inst) + off.substring(8, 12) +
-                off.substring(1, 2) + opcodeMap.get(inst);
+    private void storeValues(Lexer lexer, int size, String type) {
+        for (Lexer.Token token = lexer.next(); token != Lexer.Token.END_OF_LINE; token = lexer.next()) {
+            if (token == Lexer.Token.IMMEDIATE) {
+                storeBytes(lexer.getValue(), size);
+            } else {
+                System.err.println("Invalid " + type + " value: " + lexer.getText());
+            }
+        }
     }
 
-    static String parseUFormat(String inst, String rd, String imm) {
-        return parseImmediate(imm, 20) + registerToBinary(rd) + opcodeMap.get(inst);
+    private void storeBytes(long value, int count) {
+        int offset = dataEnd - DATA_START;
+        if (offset + count > data.length) {
+            data = Arrays.copyOf(data, Math.max(data.length * 2, offset + count));
+        }
+        for (int i = 0; i < count; i++) {
+            data[offset + i] = (byte) (value >> (i * 8));
+        }
+        dataEnd += count;
     }
 
-    static String parseUJFormat(String inst, String rd, String imm) {
-        String bin = parseImmediate(imm, 21);
-        return bin.charAt(0) + bin.substring(10, 20) + bin.charAt(9) +
-                bin.substring(1, 9) + registerToBinary(rd) + opcodeMap.get(inst);
+    void defineLabel(String label, boolean inTextSegment) {
+        int address = inTextSegment ? textEnd : dataEnd;
+        labelAddress.put(label, address);
+        (inTextSegment ? textLabels : dataLabels).put(label, address);
+
+        // Patch the branches and jumps that were waiting for it
+        List<Fixup> waiting = fixups.remove(label);
+        if (waiting != null) {
+            for (Fixup fixup : waiting) {
+                int index = (fixup.address() - bufferStart) / 4;
+                boolean jump = (pendingWords[index] & 0x7F) == opcodeMap.get("jal");
+                int offset = address - fixup.address();
+                checkOffset(offset, jump, fixup.line(), fixup.column());
+                pendingWords[index] |= jump ? ujImmediate(offset) : sbImmediate(offset);
+            }
+        }
     }
 
-    static String formatBinaryInstruction(String opcode, String funct3, String funct7,
-            String rd, String rs1, String rs2, String imm) {
-        String s = "";
-        s += opcode + "-";
-        if (funct3.length() != 0) {
-            s += funct3 + "-";
-        } else {
-            s += "NULL-";
+    private static void checkOffset(long offset, boolean jump, int line, int column) {
+        if (jump ? offset < -(1 << 20) || offset >= 1 << 20 : offset < -4096 || offset > 4095) {
+            throw Lexer.error(line, column, (jump ? "Jump" : "Branch") + " offset out of range: " + offset);
         }
-        if (funct7.length() != 0) {
-            s += funct7 + "-";
+    }
+
+    // The offset operand of a branch or jump at address, read from lexer: as
+    // written, or the distance to a label. A label that is not defined yet
+    // gets a fixup, and 0 until defineLabel() patches the instruction.
+    private int branchOffset(Lexer lexer, int address, boolean jump) {
+        long offset;
+        Lexer.Token token = lexer.next();
+        if (token == Lexer.Token.IMMEDIATE) {
+            offset = lexer.getValue();
+        } else if (token == Lexer.Token.SYMBOL) {
+            Integer target = labelAddress.get(lexer.getName());
+            if (target == null) {
+                fixups.computeIfAbsent(lexer.getName(), label -> new ArrayList<>())
+                        .add(new Fixup(address, lexer.getLine(), lexer.getColumn()));
+                return 0;
+            }
+            offset = target - address;
         } else {
-            s += "NULL-";
+            throw expected(lexer, "a label or offset");
         }
+        checkOffset(offset, jump, lexer.getLine(), lexer.getColumn());
+        return (int) offset;
+    }
 
-        if (rd.length() != 0) {
-            s += rd + "-";
-        } else {
-            s += "NULL-";
+    private static IllegalArgumentException expected(Lexer lexer, String operand) {
+        return lexer.error(lexer.getToken() == Lexer.Token.END_OF_LINE ? "Missing operand, expected " + operand
+                : "Expected " + operand + ", found " + lexer.getText());
+    }
+
+    private static int register(Lexer lexer) {
+        lexer.next();
+        return currentRegister(lexer);
+    }
+
+    private static int currentRegister(Lexer lexer) {
+        if (lexer.getToken() == Lexer.Token.SYMBOL && lexer.getName().matches("x\\d+")) {
+            throw lexer.error("Register out of range: " + lexer.getName());
         }
+        if (lexer.getToken() != Lexer.Token.REGISTER) {
+            throw expected(lexer, "a register");
+        }
+        return lexer.getRegister();
+    }
 
-        if (rs1.length() != 0) {
-            s += rs1 + "-";
-        } else {
-            s += "NULL-";
+    // The next operand as an immediate of the given bits: 12-bit immediates
+    // must fit signed, others unsigned; the encoders keep the low bits
+    private static int immediate(Lexer lexer, int bits) {
+        if (lexer.next() != Lexer.Token.IMMEDIATE) {
+            throw expected(lexer, "an immediate");
         }
+        return checkedImmediate(lexer, bits);
+    }
 
-        if (rs2.length() != 0) {
-            s += rs2 + "-";
-        } else {
-            s += "NULL-";
+    private static int checkedImmediate(Lexer lexer, int bits) {
+        long value = lexer.getValue();
+        if (bits == 12 ? value < -2048 || value > 2047 : value < 0 || value >= 1L << bits) {
+            throw lexer.error("Immediate value out of range: " + lexer.getText());
         }
+        return (int) value;
+    }
 
-        if (imm.length() != 0) {
-            s += imm;
-        } else {
-            s += "NULL";
+    // The offset of a load or store, "imm(rs1)" or "imm rs1"; baseRegister()
+    // then reads rs1
+    private static int memoryOffset(Lexer lexer) {
+        Lexer.Token token = lexer.next();
+        if (token != Lexer.Token.IMMEDIATE && token != Lexer.Token.MEMORY) {
+            throw expected(lexer, "an offset");
         }
-        return s;
+        return checkedImmediate(lexer, 12);
     }
 
-    static void firstPass(BufferedReader inFile) throws IOException {
-        String line;
-        int address = 0;
-        int dataAddress = 0x10000000;
-        boolean inTextSegment = true;
+    private static int baseRegister(Lexer lexer) {
+        return lexer.getToken() == Lexer.Token.MEMORY ? lexer.getRegister() : register(lexer);
+    }
 
-        while ((line = inFile.readLine()) != null) {
-            // Remove comments
-            int commentPos = line.indexOf('#');
-            if (commentPos != -1) {
-                line = line.substring(0, commentPos);
+    // A CSR by name or number
+    private static int csr(Lexer lexer) {
+        Lexer.Token token = lexer.next();
+        if (token == Lexer.Token.IMMEDIATE) {
+            if (lexer.getValue() < 0 || lexer.getValue() > 0xFFF) {
+                throw lexer.error("CSR number out of range: " + lexer.getText());
             }
+            return (int) lexer.getValue();
+        }
+        if (token != Lexer.Token.SYMBOL) {
+            throw expected(lexer, "a CSR");
+        }
+        int number = csrNumber(lexer.getName());
+        if (number < 0) {
+            throw lexer.error("Unknown CSR: " + lexer.getName());
+        }
+        return number;
+    }
 
-            // Skip empty or whitespace-only lines
-            if (line.trim().isEmpty())
-                continue;
+    private static int csrSource(Lexer lexer, String inst) {
+        return inst.endsWith("i") ? immediate(lexer, 5) : register(lexer);
+    }
 
-            // Split the line into words
-            String[] words = line.trim().split("\\s+");
-            if (words.length == 0)
-                continue;
+    // Encodes the instruction inst for address, reading its operands from
+    // lexer. The CSR pseudo-instructions (rdcycle, rdtime, rdinstret and their
+    // h forms, csrr, csrw, csrs, csrc, csrwi, csrsi, csrci) are encoded as the
+    // instruction they stand for.
+    int encode(Lexer lexer, String inst, int address) {
+        int rd, rs1, rs2, imm;
+
+        switch (inst) {
+            case "rdcycle":
+            case "rdcycleh":
+            case "rdtime":
+            case "rdtimeh":
+            case "rdinstret":
+            case "rdinstreth":
+                return parseCsrFormat("csrrs", register(lexer), csrNames.get(inst.substring(2)), 0);
+            case "csrr":
+                rd = register(lexer);
+                return parseCsrFormat("csrrs", rd, csr(lexer), 0);
+            default:
+                break;
+        }
+        if (csrPseudoInstructions.containsKey(inst)) {
+            String csrInst = csrPseudoInstructions.get(inst);
+            int csr = csr(lexer);
+            return parseCsrFormat(csrInst, 0, csr, csrSource(lexer, csrInst));
+        }
 
-            String firstWord = words[0];
+        if (!opcodeMap.containsKey(inst)) {
+            throw lexer.error("Unknown instruction: " + inst);
+        }
 
-            // Segment directives
-            if (firstWord.equals(".text")) {
-                inTextSegment = true;
-                continue;
-            } else if (firstWord.equals(".data")) {
-                inTextSegment = false;
-                continue;
+        // R-Type Instruction (like ADD, SUB)
+        if (funct3Map.containsKey(inst) && funct7Map.containsKey(inst)) {
+            rd = register(lexer);
+            rs1 = register(lexer);
+            rs2 = register(lexer);
+            return parseRFormat(inst, rd, rs1, rs2);
+
+        } else if (isSFormatInstruction(inst)) {
+            // S-Type: "sw rs2 imm(rs1)" or "sw rs2 imm rs1"
+            rs2 = register(lexer);
+            imm = memoryOffset(lexer);
+            rs1 = baseRegister(lexer);
+            return parseSFormat(inst, rs1, rs2, imm);
+
+        } else if (isSBFormatInstruction(inst)) {
+            // SB-Type (e.g., BEQ, BNE)
+            rs1 = register(lexer);
+            rs2 = register(lexer);
+            return parseSBFormat(inst, rs1, rs2, branchOffset(lexer, address, false));
+
+        } else if (isIFormatInstruction(inst)) {
+            // I-type instruction
+            rd = register(lexer);
+            if (inst.equals("lw") || inst.equals("lb") || inst.equals("ld") || inst.equals("lh")) {
+                // "lw rd imm(rs1)" or "lw rd imm rs1"
+                imm = memoryOffset(lexer);
+                rs1 = baseRegister(lexer);
+            } else if (inst.equals("jalr") && lexer.next() == Lexer.Token.MEMORY) {
+                // "jalr rd imm(rs1)"
+                imm = checkedImmediate(lexer, 12);
+                rs1 = lexer.getRegister();
+            } else if (inst.equals("jalr")) {
+                // "jalr rd rs1 imm"
+                rs1 = currentRegister(lexer);
+                imm = immediate(lexer, 12);
+            } else {
+                // Generic I-format: addi rd rs1 imm
+                rs1 = register(lexer);
+                imm = immediate(lexer, 12);
             }
+            return parseIFormat(inst, rd, rs1, imm);
 
-            // Handle labels (both .text and .data)
-            if (firstWord.endsWith(":")) {
-                String label = firstWord.substring(0, firstWord.length() - 1);
-                if (inTextSegment) {
-                    labelAddress.put(label, address);
-                } else {
-                    labelAddress.put(label, dataAddress);
-                }
+        } else if (isUFormatInstruction(inst)) {
+            // U-Type (e.g., LUI)
+            rd = register(lexer);
+            return parseUFormat(inst, rd, immediate(lexer, 20));
 
-                // Remove label from words for further processing
-                words = Arrays.copyOfRange(words, 1, words.length);
-                if (words.length == 0)
-                    continue;
-                firstWord = words[0];
-            }
+        } else if (isUJFormatInstruction(inst)) {
+            // UJ-Type (e.g., JAL)
+            rd = register(lexer);
+            return parseUJFormat(inst, rd, branchOffset(lexer, address, true));
+        }
 
-            if (inTextSegment) {
-                if (firstWord.endsWith(":")) {
-                    // Label found, remove the trailing colon and store the label address
-                    String label = firstWord.substring(0, firstWord.length() - 1);
-                    labelAddress.put(label, address);
+        // CSR (e.g., CSRRS)
+        rd = register(lexer);
+        int csr = csr(lexer);
+        return parseCsrFormat(inst, rd, csr, csrSource(lexer, inst));
+    }
 
-                    // Check if it's a valid opcode and increment the address if valid
-                    if (opcodeMap.containsKey(firstWord)) {
-                        address += 4;
-                    }
-                } else {
-                    address += 4;
-                }
-            } else {
-                // Handle data directives
-                String directive = firstWord;
-
-                switch (directive) {
-                    case ".byte":
-                        for (int i = 1; i < words.length; i++) {
-                            try {
-                                long value = Long.decode(words[i]);
-                                dataSegment.put((long) dataAddress, value);
-                                dataAddress += 1;
-                            } catch (NumberFormatException e) {
-                                System.err.println("Invalid byte value: " + words[i]);
-                            }
-                        }
-                        break;
-
-                    case ".half":
-                        for (int i = 1; i < words.length; i++) {
-                            try {
-                                long value = Long.decode(words[i]);
-                                dataSegment.put((long) dataAddress, value);
-                                dataAddress += 2;
-                            } catch (NumberFormatException e) {
-                                System.err.println("Invalid half value: " + words[i]);
-                            }
-                        }
-                        break;
-
-                    case ".word":
-                        for (int i = 1; i < words.length; i++) {
-                            try {
-                                int value = Integer.decode(words[i]);
-                                // Store in little-endian (LSB first)
-                                for (int j = 0; j < 4; j++) {
-                                    long byteVal = (value >> (j * 8)) & 0xFF;
-                                    dataSegment.put((long) dataAddress++, byteVal);
-                                }
-                            } catch (NumberFormatException e) {
-                                System.err.println("Invalid word value: " + words[i]);
-                            }
-                        }
-                        break;
-
-                    case ".dword":
-                        for (int i = 1; i < words.length; i++) {
-                            try {
-                                long value = Long.decode(words[i]);
-                                // Store in little-endian (LSB first)
-                                for (int j = 0; j < 8; j++) {
-                                    long byteVal = (value >> (j * 8)) & 0xFF;
-                                    dataSegment.put((long) dataAddress++, byteVal);
-                                }
-                            } catch (NumberFormatException e) {
-                                System.err.println("Invalid dword value: " + words[i]);
-                            }
-                        }
-                        break;
-
-                    case ".asciz":
-                        int startIdx = line.indexOf('"');
-                        int endIdx = line.lastIndexOf('"');
-                        if (startIdx != -1 && endIdx > startIdx) {
-                            String str = line.substring(startIdx + 1, endIdx);
-                            for (char c : str.toCharArray()) {
-                                dataSegment.put((long) dataAddress++, (long) c);
-                            }
-                            dataSegment.put((long) dataAddress++, 0L); // Null terminator
-                        } else {
-                            System.err.println("Invalid .asciz format in line: " + line);
-                        }
-                        break;
-
-                    default:
-                        System.err.println("Unknown directive: " + directive);
-                }
+    // Writes the instructions held back so far and empties the buffer
+    private void writePending(Writer outFile) throws IOException {
+        if (textBuffer.length < pendingText.length()) {
+            textBuffer = new char[Math.max(textBuffer.length * 2, pendingText.length())];
+        }
+        pendingText.getChars(0, pendingText.length(), textBuffer, 0);
+        int textStart = 0;
+        for (int i = 0; i < pendingCount; i++) {
+            outFile.write("0x");
+            writeHex(outFile, bufferStart + 4 * i, 1);
+            outFile.write(" 0x");
+            writeHex(outFile, pendingWords[i], 8);
+            outFile.write(" , ");
+            outFile.write(textBuffer, textStart, pendingTextEnds[i] - textStart);
+            textStart = pendingTextEnds[i];
+            if (fieldBreakdown) {
+                outFile.write(" # ");
+                outFile.write(formatBinaryInstruction(pendingWords[i]));
             }
+            outFile.write(LINE_SEPARATOR);
         }
+        pendingText.setLength(0);
+        pendingCount = 0;
+        bufferStart = textEnd;
+    }
 
+    // Writes value as unsigned upper-case hex, zero-padded to at least digits
+    private void writeHex(Writer outFile, int value, int digits) throws IOException {
+        int length = Math.max(digits, (35 - Integer.numberOfLeadingZeros(value)) / 4);
+        for (int i = 0; i < length; i++) {
+            hexBuffer[7 - i] = HEX_DIGITS.charAt(value >>> (4 * i) & 0xF);
+        }
+        outFile.write(hexBuffer, 8 - length, length);
     }
 
-    public static void assemble(String inputFile, String outputFile) {
+    public void assemble(String inputFile, String outputFile) throws IOException {
         try (BufferedReader inFile = new BufferedReader(new FileReader(inputFile));
                 BufferedWriter outFile = new BufferedWriter(new FileWriter(outputFile))) {
+            assemble(inFile, outFile);
+        }
+    }
 
-            // First pass for parsing and setting up labels
-            BufferedReader inFile2 = new BufferedReader(new FileReader(inputFile));
-            firstPass(inFile2);
-
-            String line;
-            int address = 0;
-            boolean inTextSegment = true;
-
-            while ((line = inFile.readLine()) != null) {
-                line = line.trim();
-
-                // Remove comments
-                int commentPos = line.indexOf('#');
-                if (commentPos != -1) {
-                    line = line.substring(0, commentPos).trim();
-                }
+    // Assembles the source read from in and writes the machine code listing to
+    // outFile, in one pass: each instruction is encoded as it is read, and a
+    // branch or jump to a label further on is patched when the label turns up.
+    // Instructions are written as soon as none before them is waiting for a
+    // label, so only the data segment is held to the end. Errors in the source
+    // are reported as IllegalArgumentException. Not thread-safe: use one
+    // parser per thread.
+    public void assemble(Reader in, Writer outFile) throws IOException {
+        reset();
+        Lexer lexer = new Lexer(in);
+        boolean inTextSegment = true;
 
-                if (line.isEmpty()) {
-                    continue;
-                }
+        while (lexer.nextLine()) {
+            Lexer.Token token = lexer.next();
 
-                String[] words = line.split("\\s+");
-                String inst = words[0];
+            // Labels (both .text and .data), which an instruction or directive
+            // may follow on the same line
+            while (token == Lexer.Token.LABEL) {
+                defineLabel(lexer.getName(), inTextSegment);
+                token = lexer.next();
+            }
 
-                // Handle sections
-                if (inst.equals(".text")) {
-                    inTextSegment = true;
-                    continue;
-                } else if (inst.equals(".data")) {
-                    inTextSegment = false;
-                    continue;
+            if (token == Lexer.Token.END_OF_LINE) {
+                // Blank, comment or label only
+            } else if (token == Lexer.Token.DIRECTIVE && lexer.getName().equals(".text")) {
+                inTextSegment = true;
+            } else if (token == Lexer.Token.DIRECTIVE && lexer.getName().equals(".data")) {
+                inTextSegment = false;
+            } else if (!inTextSegment) {
+                storeData(lexer);
+            } else if (token == Lexer.Token.DIRECTIVE) {
+                System.err.println("Unknown directive: " + lexer.getName());
+            } else if (token == Lexer.Token.MNEMONIC) {
+                if (pendingCount == pendingWords.length) {
+                    pendingWords = Arrays.copyOf(pendingWords, pendingCount * 2);
+                    pendingTextEnds = Arrays.copyOf(pendingTextEnds, pendingCount * 2);
                 }
-
-                if (!inTextSegment) {
-                    continue; // Skip data segment
-                }
-
-                String rs1, rs2, rd, imm, offsetOrLabel;
-                String formattedInstruction;
-
-                if (opcodeMap.containsKey(inst)) {
-
-                    // R-Type Instruction (like ADD, SUB)
-                    if (funct3Map.containsKey(inst) && funct7Map.containsKey(inst)) {
-                        // R-Type
-                        rd = words[1];
-                        rs1 = words[2];
-                        rs2 = words[3];
-                        String machineCode = parseRFormat(inst, rd, rs1, rs2);
-                        formattedInstruction = formatBinaryInstruction(
-                                opcodeMap.get(inst), funct3Map.get(inst), funct7Map.get(inst),
-                                registerToBinary(rd), registerToBinary(rs1), registerToBinary(rs2), "");
-                        outFile.write(String.format("0x%X 0x%08X , %s # %s%n", address,
-                                Long.parseLong(machineCode, 2), line, formattedInstruction));
-
-                    } else if (isSFormatInstruction(inst)) {
-                        // S-Type
-                        rs2 = words[1];
-                        imm = words[2];
-                        rs1 = words[3];
-
-                        String machineCode = parseSFormat(inst, rs1, rs2, imm);
-                        formattedInstruction = formatBinaryInstruction(
-                                opcodeMap.get(inst), funct3Map.get(inst), "", "", registerToBinary(rs1),
-                                registerToBinary(rs2), parseImmediate(imm, 12));
-
-                        outFile.write(String.format("0x%X 0x%08X , %s # %s%n", address,
-                                Long.parseLong(machineCode, 2), line, formattedInstruction));
-
-                    } else if (isSBFormatInstruction(inst)) {
-                        // SB-Type (e.g., BEQ, BNE)
-                        rs1 = words[1];
-                        rs2 = words[2];
-                        offsetOrLabel = words[3];
-                        String offset = offsetOrLabel.matches("-?\\d+") ? offsetOrLabel
-                                : String.valueOf(computeOffset(offsetOrLabel, address));
-
-                        String machineCode = parseSBFormat(inst, rs1, rs2, offset);
-                        formattedInstruction = formatBinaryInstruction(
-                                opcodeMap.get(inst), funct3Map.get(inst), "", "", registerToBinary(rs1),
-                                registerToBinary(rs2), parseImmediate(offset, 13));
-
-                        outFile.write(String.format("0x%X 0x%08X , %s # %s%n", address,
-                                Long.parseLong(machineCode, 2), line, formattedInstruction));
-
-                    } else if (isIFormatInstruction(inst)) {
-                        // I-Type instruction
-
-                        if (inst.equals("lw") || inst.equals("lb") || inst.equals("ld") || inst.equals("lh")) {
-                            // Support both "lw rd, imm(rs1)" and "lw rd imm rs1"
-                            rd = words[1];
-                            String immWithReg = words[2];
-
-                            if (immWithReg.contains("(")) {
-                                // Handle "lw rd, imm(rs1)"
-                                int openParen = immWithReg.indexOf('(');
-                                int closeParen = immWithReg.indexOf(')');
-                                imm = immWithReg.substring(0, openParen);
-                                rs1 = immWithReg.substring(openParen + 1, closeParen);
-                            } else {
-                                // Handle "lw rd imm rs1"
-                                imm = immWithReg;
-                                rs1 = words[3];
-                            }
-
-                        } else if (inst.equals("jalr")) {
-                            // Support both "jalr rd, imm(rs1)" and "jalr rd, rs1, imm"
-                            rd = words[1];
-                            String immOrRs1 = words[2];
-
-                            if (immOrRs1.contains("(")) {
-                                // Handle "jalr rd, imm(rs1)"
-                                int openParen = immOrRs1.indexOf('(');
-                                int closeParen = immOrRs1.indexOf(')');
-                                imm = immOrRs1.substring(0, openParen);
-                                rs1 = immOrRs1.substring(openParen + 1, closeParen);
-                            } else {
-                                // Handle "jalr rd, rs1, imm"
-                                rs1 = immOrRs1;
-                                imm = words[3];
-                            }
-
-                        } else {
-                            // Handle generic I-format: addi rd, rs1, imm
-                            rd = words[1];
-                            rs1 = words[2];
-                            imm = words[3];
-                        }
-
-                        // Convert imm to 12-bit binary string, handle sign extension if needed
-                        String immBinary = parseImmediate(imm, 12); // Assume parseImmediate returns 12-bit binary
-                                                                    // string
-                        String machineCode = parseIFormat(inst, rd, rs1, imm);
-
-                        formattedInstruction = formatBinaryInstruction(
-                                opcodeMap.get(inst), funct3Map.get(inst), "",
-                                registerToBinary(rd), registerToBinary(rs1), "",
-                                immBinary);
-
-                        outFile.write(String.format(
-                                "0x%X 0x%08X , %s # %s%n",
-                                address,
-                                Long.parseLong(machineCode, 2),
-                                line,
-                                formattedInstruction));
-                    } else if (isUFormatInstruction(inst)) {
-                        // U-Type (e.g., LUI)
-                        rd = words[1];
-                        imm = words[2];
-                        String machineCode = parseUFormat(inst, rd, imm);
-                        formattedInstruction = formatBinaryInstruction(
-                                opcodeMap.get(inst), "", "", registerToBinary(rd), "", "", parseImmediate(imm, 20));
-
-                        outFile.write(String.format("0x%X 0x%08X , %s # %s%n", address,
-                                Long.parseLong(machineCode, 2), line, formattedInstruction));
-
-                    } else if (isUJFormatInstruction(inst)) {
-                        // UJ-Type (e.g., JAL)
-                        rd = words[1];
-                        offsetOrLabel = words[2];
-
-                        String offset = offsetOrLabel.matches("-?\\d+") ? offsetOrLabel
-                                : String.valueOf(computeOffset(offsetOrLabel, address));
-
-                        String machineCode = parseUJFormat(inst, rd, offset);
-                        formattedInstruction = formatBinaryInstruction(
-                                opcodeMap.get(inst), "", "", registerToBinary(rd), "", "", parseImmediate(offset, 13));
-
-                        outFile.write(String.format("0x%X 0x%08X , %s # %s%n", address,
-                                Long.parseLong(machineCode, 2), line, formattedInstruction));
-                    }
-
-                    address += 4; // Increment address by 4 for each instruction
+                int start = lexer.getStart();
+                pendingWords[pendingCount] = encode(lexer, lexer.getName(), textEnd);
+                if (lexer.next() != Lexer.Token.END_OF_LINE) {
+                    throw lexer.error("Unexpected operand " + lexer.getText());
                 }
+                // The listing shows the instruction with its operands separated
+                // by spaces, so readers can split its lines on the first comma
+                lexer.appendSource(start, pendingText);
+                pendingTextEnds[pendingCount++] = pendingText.length();
+                textEnd += 4;
+            } else {
+                throw lexer.error("Expected an instruction, found " + lexer.getText());
             }
+            if (fixups.isEmpty()) {
+                writePending(outFile);
+            }
+        }
 
-            // Write the "end" marker at the end of the output file
-            outFile.write(String.format("0x%08X 0xdeadbeef , ends%n", address));
-            List<Map.Entry<Long, Long>> sortedDataSegment = new ArrayList<>(dataSegment.entrySet());
-
-            // Sort by key (address)
-            sortedDataSegment.sort(Map.Entry.comparingByKey());
+        if (!fixups.isEmpty()) {
+            Map.Entry<String, List<Fixup>> undefined = fixups.entrySet().iterator().next();
+            Fixup first = undefined.getValue().get(0);
+            throw Lexer.error(first.line(), first.column(), "Undefined label " + undefined.getKey());
+        }
+        writePending(outFile);
+
+        // Write the "end" marker at the end of the output file
+        outFile.write("0x");
+        writeHex(outFile, textEnd, 8);
+        outFile.write(" 0xdeadbeef , ends" + LINE_SEPARATOR);
+
+        // Output formatted: address in hex, value in hex (2-digit)
+        for (int address = DATA_START; address < dataEnd; address++) {
+            outFile.write("0x");
+            writeHex(outFile, address, 1);
+            outFile.write(" 0x");
+            writeHex(outFile, data[address - DATA_START] & 0xFF, 2);
+            outFile.write(LINE_SEPARATOR);
+        }
 
-            // Output formatted: address in hex, value in hex (2-digit)
-            for (Map.Entry<Long, Long> entry : sortedDataSegment) {
-                outFile.write(String.format("0x%X 0x%02X%n", entry.getKey(), entry.getValue()));
-            }
+        writeSymbols(outFile, "text", textLabels, textEnd);
+        writeSymbols(outFile, "data", dataLabels, dataEnd);
+        outFile.flush();
+    }
 
-        } catch (IOException e) {
-            e.printStackTrace();
+    // Writes each label's address and extent (up to the next label or the end
+    // of the segment) as "# <segment> <label> 0x<address> <size>" comments,
+    // which the simulator reads for its per-label statistics
+    private static void writeSymbols(Writer outFile, String segment, Map<String, Integer> labels, int end)
+            throws IOException {
+        List<Map.Entry<String, Integer>> sortedLabels = new ArrayList<>(labels.entrySet());
+        sortedLabels.sort(Map.Entry.comparingByValue());
+        for (int i = 0; i < sortedLabels.size(); i++) {
+            int start = sortedLabels.get(i).getValue();
+            int next = i + 1 < sortedLabels.size() ? sortedLabels.get(i + 1).getValue() : end;
+            outFile.write(String.format("# %s %s 0x%X %d%n", segment, sortedLabels.get(i).getKey(), start,
+                    next - start));
         }
     }
 
     public static void main(String[] args) throws IOException {
-        if (args.length != 2) {
-            System.out.println("Usage: java Assembler <input file> <output file>");
+        boolean fields = args.length == 3 && args[0].equals("--fields");
+        if (args.length != (fields ? 3 : 2)) {
+            System.out.println("Usage: java Assembler [--fields] <input file> <output file>");
             return;
         }
 
-        String inputFile = args[0];
-        String outputFile = args[1];
+        String inputFile = args[args.length - 2];
+        String outputFile = args[args.length - 1];
 
-        assemble(inputFile, outputFile);
+        try {
+            RiscVParser parser = new RiscVParser();
+            parser.setFieldBreakdown(fields);
+            parser.assemble(inputFile, outputFile);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.exit(1);
+        }
     }
 }
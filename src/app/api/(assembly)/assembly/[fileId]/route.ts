@@ -5,6 +5,7 @@ import { stdout } from "process";
 import { spawn } from 'child_process';
 import { exec as execCallback } from "child_process";
 import { promisify } from "util";
+import { callSimulator } from "@/lib/simulator";
 
 const exec = promisify(execCallback)
 
@@ -39,7 +40,13 @@ export async function POST(req: NextRequest, { params }: { params: { fileId: str
 
 
     try {
-        await exec(command)
+        const source = await fs.promises.readFile(filePath, "utf8")
+        const listing = await callSimulator("/assemble", source, req.signal)
+        if (listing !== null) {
+            await fs.promises.writeFile(outputFilePath, listing)
+        } else {
+            await exec(command)
+        }
         return NextResponse.json({
             success: true,
             message: "Code Assembled Successfully"
@@ -0,0 +1,20 @@
+// Operation selected by the decoder for the execute stage
+public enum AluOp {
+    ADD, SUB, MUL, DIV, REM, AND, OR, XOR, SLL, SRL, SRA, SLT,
+    LUI, AUIPC,
+    LOAD, STORE,
+    JAL, JALR,
+    BEQ, BNE, BLT, BGE,
+    CSRRW, CSRRS, CSRRC,
+    INVALID;
+
+    // Jumps and branches compute the next PC themselves
+    public boolean isControlTransfer() {
+        return this == JAL || this == JALR || this == BEQ || this == BNE || this == BLT || this == BGE;
+    }
+
+    // Zicsr read-modify-write of a control and status register
+    public boolean isCsr() {
+        return this == CSRRW || this == CSRRS || this == CSRRC;
+    }
+}
@@ -0,0 +1,53 @@
+// Straight-line run of decoded instructions starting at startPc. Only the last
+// instruction may be a jump or branch; every other one falls through to the
+// next word, so the PC only has to be computed when the block exits.
+public final class BasicBlock {
+
+    private final int startPc;
+    private final DecodedInstruction[] instructions;
+    private final boolean endsWithControlTransfer;
+
+    // Tiering state used by FastInterpreter
+    private int executionCount = 0;
+    private CompiledBlock compiled = null;
+
+    BasicBlock(int startPc, DecodedInstruction[] instructions) {
+        this.startPc = startPc;
+        this.instructions = instructions;
+        this.endsWithControlTransfer = instructions[instructions.length - 1].aluOp().isControlTransfer();
+    }
+
+    public int getStartPc() {
+        return startPc;
+    }
+
+    public DecodedInstruction[] getInstructions() {
+        return instructions;
+    }
+
+    public int length() {
+        return instructions.length;
+    }
+
+    public boolean endsWithControlTransfer() {
+        return endsWithControlTransfer;
+    }
+
+    // Counts an interpreted execution and returns the new total
+    int countExecution() {
+        return ++executionCount;
+    }
+
+    CompiledBlock getCompiled() {
+        return compiled;
+    }
+
+    void setCompiled(CompiledBlock compiled) {
+        this.compiled = compiled;
+    }
+
+    // PC after the last instruction when it does not transfer control
+    public int getFallThroughPc() {
+        return startPc + 4 * instructions.length;
+    }
+}
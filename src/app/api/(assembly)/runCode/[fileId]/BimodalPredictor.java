@@ -0,0 +1,61 @@
+import java.util.Arrays;
+
+// Table of saturating counters indexed by branch PC. With one bit per counter
+// it predicts whatever the branch did last time; with two bits a branch has
+// to go the other way twice before the prediction flips.
+public class BimodalPredictor implements BranchPredictor {
+
+    private final int counterBits;
+    private final int max;
+    private final int threshold;
+    private final byte[] counters;
+    private final int mask;
+
+    public BimodalPredictor(int counterBits, int indexBits) {
+        if (counterBits < 1 || counterBits > 7) {
+            throw new IllegalArgumentException("Counters must have 1 to 7 bits");
+        }
+        if (indexBits < 1 || indexBits > 24) {
+            throw new IllegalArgumentException("Predictor tables must have 2^1 to 2^24 counters");
+        }
+        this.counterBits = counterBits;
+        this.max = (1 << counterBits) - 1;
+        this.threshold = 1 << (counterBits - 1);
+        this.counters = new byte[1 << indexBits];
+        this.mask = counters.length - 1;
+        Arrays.fill(counters, (byte) (threshold - 1)); // Weakly not taken
+    }
+
+    int index(int pc) {
+        return (pc >>> 2) & mask;
+    }
+
+    // Prediction of the counter at index, for predictors that pick the index themselves
+    boolean predictAt(int index) {
+        return counters[index] >= threshold;
+    }
+
+    void updateAt(int index, boolean taken) {
+        int counter = counters[index];
+        if (taken && counter < max) {
+            counters[index] = (byte) (counter + 1);
+        } else if (!taken && counter > 0) {
+            counters[index] = (byte) (counter - 1);
+        }
+    }
+
+    @Override
+    public boolean predict(int pc, int target) {
+        return predictAt(index(pc));
+    }
+
+    @Override
+    public void update(int pc, boolean taken) {
+        updateAt(index(pc), taken);
+    }
+
+    @Override
+    public String describe() {
+        return counterBits + "-bit (" + counters.length + " counters)";
+    }
+}
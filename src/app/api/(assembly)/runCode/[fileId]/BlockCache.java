@@ -0,0 +1,117 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+
+// Basic blocks of the text segment indexed by entry pc / 4. discover() builds
+// the blocks reachable from the static leaders (entry point, branch and jump
+// targets, fall-through after control transfers) when a program is loaded;
+// other entry points, such as computed JALR targets, are built on first use.
+// A CSR instruction gets a block of its own, so the instructions before it
+// have been counted as retired by the time it reads the counters.
+// Any change to the text drops every block, since a single store can split or
+// merge blocks.
+public class BlockCache {
+
+    // Upper bound on block length so one block never overshoots a run budget by much
+    public static final int MAX_BLOCK_LENGTH = 64;
+
+    private final DecodeCache decodeCache;
+    private BasicBlock[] blocks = new BasicBlock[0];
+    private boolean[] leaders = new boolean[0];
+    private int count = 0;
+    private int builtForVersion = -1;
+
+    BlockCache(DecodeCache decodeCache) {
+        this.decodeCache = decodeCache;
+    }
+
+    public void discover() {
+        count = decodeCache.getTextLength() >>> 2;
+        // Arrays are reused across programs and only grow, so a pooled
+        // machine stops allocating them once it has seen its largest program
+        if (blocks.length < count) {
+            blocks = new BasicBlock[count];
+            leaders = new boolean[count];
+        } else {
+            Arrays.fill(blocks, null);
+            Arrays.fill(leaders, false);
+        }
+        builtForVersion = decodeCache.getVersion();
+        if (count == 0) {
+            return;
+        }
+
+        leaders[0] = true;
+        for (int i = 0; i < count; i++) {
+            int pc = i * 4;
+            DecodedInstruction insn = decodeCache.lookup(pc);
+            AluOp op = insn.aluOp();
+            if (op.isControlTransfer() && !FastInterpreter.isHalt(insn.word())) {
+                markLeader(i + 1);
+                if (op != AluOp.JALR) {
+                    markLeader((pc + insn.imm()) >>> 2);
+                }
+            } else if (op.isCsr()) {
+                markLeader(i);
+                markLeader(i + 1);
+            }
+        }
+
+        for (int i = 0; i < count; i++) {
+            if (leaders[i]) {
+                blocks[i] = build(i * 4);
+            }
+        }
+    }
+
+    private void markLeader(int index) {
+        if (index >= 0 && index < count) {
+            leaders[index] = true;
+        }
+    }
+
+    // Block starting at pc, or null if pc does not hold an instruction
+    public BasicBlock lookup(int pc) {
+        if (builtForVersion != decodeCache.getVersion()) {
+            discover();
+        }
+        if (!decodeCache.isText(pc)) {
+            return null;
+        }
+        int index = pc >>> 2;
+        BasicBlock block = blocks[index];
+        if (block == null) {
+            block = build(pc);
+            blocks[index] = block;
+        }
+        return block;
+    }
+
+    private BasicBlock build(int startPc) {
+        ArrayList<DecodedInstruction> body = new ArrayList<>();
+        int pc = startPc;
+        while (body.size() < MAX_BLOCK_LENGTH && decodeCache.isText(pc)) {
+            DecodedInstruction insn = decodeCache.lookup(pc);
+            if (FastInterpreter.isHalt(insn.word()) || (insn.aluOp().isCsr() && !body.isEmpty())) {
+                break;
+            }
+            body.add(insn);
+            if (insn.aluOp().isControlTransfer() || insn.aluOp().isCsr()) {
+                break;
+            }
+            pc += 4;
+            int next = pc >>> 2;
+            if (next < count && leaders[next]) {
+                break; // Keep the next leader's block as the only copy of its code
+            }
+        }
+        if (body.isEmpty()) {
+            return null;
+        }
+        return new BasicBlock(startPc, body.toArray(new DecodedInstruction[0]));
+    }
+
+    public void clear() {
+        Arrays.fill(blocks, null);
+        builtForVersion = -1;
+    }
+}
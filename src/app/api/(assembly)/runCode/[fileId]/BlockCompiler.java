@@ -0,0 +1,361 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.HashMap;
+
+// Translates a BasicBlock into a hidden class implementing CompiledBlock, so
+// HotSpot can compile guest code to native code like any other Java method.
+//
+// The generated run(int[] regs, JitRuntime rt) reads and writes the register
+// array directly and calls JitRuntime for memory. It contains no jumps (the
+// conditional operations are JitRuntime helpers), which keeps the class file
+// valid without a StackMapTable.
+public class BlockCompiler {
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private static final String RUNTIME = "JitRuntime";
+    private static final String RUN_DESCRIPTOR = "([IL" + RUNTIME + ";)I";
+
+    // Locals of run(): 0 = this, 1 = regs, 2 = runtime, 3 = scratch
+    private static final int MAX_LOCALS = 4;
+    private static final int MAX_STACK = 8;
+
+    public CompiledBlock compile(BasicBlock block) {
+        if (block.getInstructions()[0].aluOp().isCsr()) {
+            return null; // CSR blocks read counters that only the interpreter keeps current
+        }
+        try {
+            byte[] classBytes = new ClassBuilder(block).build();
+            MethodHandles.Lookup hidden = LOOKUP.defineHiddenClass(classBytes, true);
+            return (CompiledBlock) hidden.findConstructor(hidden.lookupClass(), MethodType.methodType(void.class))
+                    .invoke();
+        } catch (Throwable e) {
+            return null; // Leave the block to the interpreter
+        }
+    }
+
+    private static final class ClassBuilder {
+
+        private final BasicBlock block;
+        private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+        private final DataOutputStream poolOut = new DataOutputStream(pool);
+        private final HashMap<String, Integer> poolIndex = new HashMap<>();
+        private int poolCount = 1;
+        private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+
+        ClassBuilder(BasicBlock block) {
+            this.block = block;
+        }
+
+        byte[] build() throws IOException {
+            int thisClass = classRef("JitBlock");
+            int superClass = classRef("java/lang/Object");
+            int iface = classRef("CompiledBlock");
+            int objectInit = methodRef(10, "java/lang/Object", "<init>", "()V");
+            int codeName = utf8("Code");
+            int initName = utf8("<init>");
+            int initDescriptor = utf8("()V");
+            int runName = utf8("run");
+            int runDescriptor = utf8(RUN_DESCRIPTOR);
+
+            byte[] initCode = {0x2a, (byte) 0xb7, (byte) (objectInit >> 8), (byte) objectInit, (byte) 0xb1};
+            byte[] runCode = emitRun();
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(61); // Java 17
+            out.writeShort(poolCount);
+            poolOut.flush();
+            pool.writeTo(out);
+            out.writeShort(0x0031); // public final super
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(1);
+            out.writeShort(iface);
+            out.writeShort(0); // fields
+            out.writeShort(2); // methods
+            writeMethod(out, initName, initDescriptor, codeName, 1, 1, initCode);
+            writeMethod(out, runName, runDescriptor, codeName, MAX_STACK, MAX_LOCALS, runCode);
+            out.writeShort(0); // attributes
+            out.flush();
+            return bytes.toByteArray();
+        }
+
+        private static void writeMethod(DataOutputStream out, int name, int descriptor, int codeName,
+                int maxStack, int maxLocals, byte[] code) throws IOException {
+            out.writeShort(0x0001); // public
+            out.writeShort(name);
+            out.writeShort(descriptor);
+            out.writeShort(1);
+            out.writeShort(codeName);
+            out.writeInt(12 + code.length);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(code.length);
+            out.write(code);
+            out.writeShort(0); // exception table
+            out.writeShort(0); // attributes
+        }
+
+        private byte[] emitRun() {
+            DecodedInstruction[] body = block.getInstructions();
+            int pc = block.getStartPc();
+            for (int i = 0; i < body.length; i++, pc += 4) {
+                if (!emitInstruction(body[i], pc)) {
+                    return code.toByteArray(); // The terminator already returned
+                }
+            }
+            pushInt(block.getFallThroughPc());
+            op(0xac); // ireturn
+            return code.toByteArray();
+        }
+
+        // Emits one instruction; returns false if it ended the method with a return
+        private boolean emitInstruction(DecodedInstruction insn, int pc) {
+            int rd = insn.rd();
+            int imm = insn.imm();
+            boolean register = insn.opcode() == DecodedInstruction.OP_R;
+
+            switch (insn.aluOp()) {
+                case ADD:
+                case SUB:
+                case MUL:
+                case AND:
+                case OR:
+                case XOR:
+                case SLL:
+                case SRL:
+                case SRA:
+                    if (rd != 0) {
+                        beginWrite(rd);
+                        pushRegister(insn.rs1());
+                        if (register) {
+                            pushRegister(insn.rs2());
+                        } else {
+                            pushInt(imm);
+                        }
+                        op(arithmeticOpcode(insn.aluOp()));
+                        op(0x4f); // iastore
+                    }
+                    return true;
+                case DIV:
+                case REM:
+                case SLT:
+                    if (rd != 0) {
+                        beginWrite(rd);
+                        pushRegister(insn.rs1());
+                        pushRegister(insn.rs2());
+                        invokeStatic(insn.aluOp().name().toLowerCase(), "(II)I");
+                        op(0x4f);
+                    }
+                    return true;
+                case LUI:
+                case AUIPC:
+                    if (rd != 0) {
+                        beginWrite(rd);
+                        pushInt(insn.aluOp() == AluOp.LUI ? imm : pc + imm);
+                        op(0x4f);
+                    }
+                    return true;
+                case LOAD:
+                    if (rd != 0) {
+                        beginWrite(rd);
+                        op(0x2c); // aload_2
+                        pushAddress(insn);
+                        invokeRuntime("load" + accessName(insn.size()), "(I)I");
+                        op(0x4f);
+                    }
+                    return true;
+                case STORE:
+                    op(0x2c);
+                    pushAddress(insn);
+                    pushRegister(insn.rs2());
+                    pushInt(pc);
+                    invokeRuntime("store" + accessName(insn.size()), "(III)V");
+                    return true;
+                case JAL:
+                    if (rd != 0) {
+                        beginWrite(rd);
+                        pushInt(pc + 4);
+                        op(0x4f);
+                    }
+                    pushInt(pc + imm);
+                    op(0xac);
+                    return false;
+                case JALR:
+                    // Read rs1 before rd is written, since they may be the same register
+                    pushRegister(insn.rs1());
+                    pushInt(imm);
+                    op(0x60); // iadd
+                    pushInt(~1);
+                    op(0x7e); // iand
+                    op(0x3e); // istore_3
+                    if (rd != 0) {
+                        beginWrite(rd);
+                        pushInt(pc + 4);
+                        op(0x4f);
+                    }
+                    op(0x1d); // iload_3
+                    op(0xac);
+                    return false;
+                case BEQ:
+                case BNE:
+                case BLT:
+                case BGE:
+                    pushRegister(insn.rs1());
+                    pushRegister(insn.rs2());
+                    pushInt(pc + imm);
+                    pushInt(pc + 4);
+                    invokeStatic(insn.aluOp().name().toLowerCase(), "(IIII)I");
+                    op(0xac);
+                    return false;
+                default: // INVALID is skipped, as in the interpreter
+                    return true;
+            }
+        }
+
+        private static int arithmeticOpcode(AluOp aluOp) {
+            switch (aluOp) {
+                case ADD: return 0x60; // iadd
+                case SUB: return 0x64; // isub
+                case MUL: return 0x68; // imul
+                case AND: return 0x7e; // iand
+                case OR: return 0x80;  // ior
+                case XOR: return 0x82; // ixor
+                case SLL: return 0x78; // ishl (masks the shift amount to 5 bits itself)
+                case SRL: return 0x7c; // iushr
+                default: return 0x7a;  // ishr
+            }
+        }
+
+        private static String accessName(int size) {
+            switch (size) {
+                case 1: return "Byte";
+                case 2: return "Half";
+                case 4: return "Word";
+                default: return "Double";
+            }
+        }
+
+        // regs, rd: the value pushed next is stored with iastore
+        private void beginWrite(int rd) {
+            op(0x2b); // aload_1
+            pushInt(rd);
+        }
+
+        private void pushRegister(int index) {
+            if (index == 0) {
+                op(0x03); // iconst_0
+                return;
+            }
+            op(0x2b);
+            pushInt(index);
+            op(0x2e); // iaload
+        }
+
+        private void pushAddress(DecodedInstruction insn) {
+            pushRegister(insn.rs1());
+            pushInt(insn.imm());
+            op(0x60);
+        }
+
+        private void pushInt(int value) {
+            if (value >= -1 && value <= 5) {
+                op(0x03 + value); // iconst_<n>
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                op(0x10); // bipush
+                op(value);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                op(0x11); // sipush
+                op(value >> 8);
+                op(value);
+            } else {
+                int index = integer(value);
+                op(0x13); // ldc_w
+                op(index >> 8);
+                op(index);
+            }
+        }
+
+        private void invokeStatic(String name, String descriptor) {
+            int index = methodRef(10, RUNTIME, name, descriptor);
+            op(0xb8);
+            op(index >> 8);
+            op(index);
+        }
+
+        private void invokeRuntime(String name, String descriptor) {
+            int index = methodRef(10, RUNTIME, name, descriptor);
+            op(0xb6); // invokevirtual
+            op(index >> 8);
+            op(index);
+        }
+
+        private void op(int value) {
+            code.write(value);
+        }
+
+        // Constant pool, deduplicated by tag and contents
+
+        private int utf8(String value) {
+            return constant("1:" + value, out -> {
+                out.writeByte(1);
+                out.writeUTF(value);
+            });
+        }
+
+        private int integer(int value) {
+            return constant("3:" + value, out -> {
+                out.writeByte(3);
+                out.writeInt(value);
+            });
+        }
+
+        private int classRef(String name) {
+            int nameIndex = utf8(name);
+            return constant("7:" + name, out -> {
+                out.writeByte(7);
+                out.writeShort(nameIndex);
+            });
+        }
+
+        private int methodRef(int tag, String owner, String name, String descriptor) {
+            int ownerIndex = classRef(owner);
+            int nameIndex = utf8(name);
+            int descriptorIndex = utf8(descriptor);
+            int nameAndType = constant("12:" + name + ":" + descriptor, out -> {
+                out.writeByte(12);
+                out.writeShort(nameIndex);
+                out.writeShort(descriptorIndex);
+            });
+            return constant(tag + ":" + owner + "." + name + descriptor, out -> {
+                out.writeByte(tag);
+                out.writeShort(ownerIndex);
+                out.writeShort(nameAndType);
+            });
+        }
+
+        private interface Entry {
+            void write(DataOutputStream out) throws IOException;
+        }
+
+        private int constant(String key, Entry entry) {
+            Integer index = poolIndex.get(key);
+            if (index != null) {
+                return index;
+            }
+            try {
+                entry.write(poolOut);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            poolIndex.put(key, poolCount);
+            return poolCount++;
+        }
+    }
+}
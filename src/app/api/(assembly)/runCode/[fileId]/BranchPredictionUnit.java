@@ -0,0 +1,192 @@
+import java.io.PrintStream;
+import java.util.Arrays;
+
+// Front end of the modelled core: for every retired jump and branch it
+// works out which next PC fetch would have predicted and checks it against
+// the PC the program really went to.
+//
+//   conditional branch  direction from the BranchPredictor; a predicted-taken
+//                       branch also needs its target in the BTB, else fetch
+//                       falls through
+//   JAL                 always taken; target from the BTB
+//   JALR                returns (rd = x0, rs1 = ra or t0) pop the return
+//                       address stack; other indirect jumps use the BTB
+// Calls (JAL/JALR linking ra or t0) push their return address.
+//
+// When a PipelineModel is attached it charges flush penalties only for
+// mispredictions; otherwise the unit runs as a plain RetireListener.
+public class BranchPredictionUnit implements RetireListener, RunReport {
+
+    public static final int DEFAULT_INDEX_BITS = 10;
+    public static final int DEFAULT_BTB_ENTRIES = 256;
+    public static final int DEFAULT_RAS_DEPTH = 8;
+
+    private final BranchPredictor predictor;
+    private final BranchTargetBuffer btb;
+    private final ReturnAddressStack ras;
+
+    private long branches = 0;
+    private long branchesTaken = 0;
+    private long directionMisses = 0;
+    private long branchMisses = 0;
+    private long jumps = 0;
+    private long jumpMisses = 0;
+    private long returns = 0;
+    private long returnMisses = 0;
+    private long btbLookups = 0;
+    private long btbHits = 0;
+    private boolean lastMispredicted = false;
+
+    // Per conditional branch, indexed by pc / 4
+    private long[] executed = new long[0];
+    private long[] taken = new long[0];
+    private long[] missed = new long[0];
+
+    public BranchPredictionUnit(BranchPredictor predictor, int btbEntries, int rasDepth) {
+        this.predictor = predictor;
+        this.btb = new BranchTargetBuffer(btbEntries);
+        this.ras = new ReturnAddressStack(rasDepth);
+    }
+
+    @Override
+    public void retired(int pc, DecodedInstruction insn, int nextPc, int memAddress, int value) {
+        lastMispredicted = false;
+        if (!insn.aluOp().isControlTransfer()) {
+            return;
+        }
+
+        int fallThrough = pc + 4;
+        int predicted;
+        switch (insn.aluOp()) {
+            case JAL:
+                predicted = btbTarget(pc, fallThrough);
+                btb.update(pc, nextPc);
+                if (isLink(insn.rd())) {
+                    ras.push(fallThrough);
+                }
+                jumps++;
+                if (predicted != nextPc) {
+                    jumpMisses++;
+                }
+                break;
+            case JALR:
+                if (insn.rd() == 0 && isLink(insn.rs1())) {
+                    predicted = ras.isEmpty() ? fallThrough : ras.pop();
+                    returns++;
+                    if (predicted != nextPc) {
+                        returnMisses++;
+                    }
+                } else {
+                    predicted = btbTarget(pc, fallThrough);
+                    btb.update(pc, nextPc);
+                    jumps++;
+                    if (predicted != nextPc) {
+                        jumpMisses++;
+                    }
+                }
+                if (isLink(insn.rd())) {
+                    ras.push(fallThrough);
+                }
+                break;
+            default: { // Conditional branch
+                int target = pc + insn.imm();
+                boolean wasTaken = nextPc != fallThrough;
+                boolean predictTaken = predictor.predict(pc, target);
+                predicted = predictTaken ? btbTarget(pc, fallThrough) : fallThrough;
+                predictor.update(pc, wasTaken);
+                if (wasTaken) {
+                    btb.update(pc, target);
+                }
+                branches++;
+                if (wasTaken) {
+                    branchesTaken++;
+                }
+                if (predictTaken != wasTaken) {
+                    directionMisses++;
+                }
+                if (predicted != nextPc) {
+                    branchMisses++;
+                }
+                countBranch(pc, wasTaken, predicted != nextPc);
+                break;
+            }
+        }
+        lastMispredicted = predicted != nextPc;
+    }
+
+    // ra (x1) and t0 (x5) are the link registers by RISC-V convention
+    private static boolean isLink(int reg) {
+        return reg == 1 || reg == 5;
+    }
+
+    private int btbTarget(int pc, int fallThrough) {
+        btbLookups++;
+        if (btb.hit(pc)) {
+            btbHits++;
+            return btb.target(pc);
+        }
+        return fallThrough;
+    }
+
+    private void countBranch(int pc, boolean wasTaken, boolean mispredicted) {
+        int index = pc >>> 2;
+        if (index >= executed.length) {
+            int capacity = Math.max(index + 1, executed.length * 2);
+            executed = Arrays.copyOf(executed, capacity);
+            taken = Arrays.copyOf(taken, capacity);
+            missed = Arrays.copyOf(missed, capacity);
+        }
+        executed[index]++;
+        if (wasTaken) {
+            taken[index]++;
+        }
+        if (mispredicted) {
+            missed[index]++;
+        }
+    }
+
+    // Whether fetch went the wrong way after the last retired instruction
+    public boolean lastMispredicted() {
+        return lastMispredicted;
+    }
+
+    public long getBranches() {
+        return branches;
+    }
+
+    public long getBranchMisses() {
+        return branchMisses;
+    }
+
+    public long getMispredictions() {
+        return branchMisses + jumpMisses + returnMisses;
+    }
+
+    private static String percent(long part, long whole) {
+        return whole == 0 ? "n/a" : String.format("%.2f%%", 100.0 * part / whole);
+    }
+
+    @Override
+    public void printReport(PrintStream out) {
+        out.println("Branch Predictor: " + predictor.describe() + ", BTB " + btb.size()
+                + " entries, RAS " + ras.depth() + " entries");
+        out.println("Conditional Branches: " + branches + " executed, " + branchesTaken + " taken, "
+                + directionMisses + " direction mispredicts, " + branchMisses + " mispredicted, accuracy "
+                + percent(branches - branchMisses, branches));
+        out.println("Jumps: " + jumps + " executed, " + jumpMisses + " mispredicted, accuracy "
+                + percent(jumps - jumpMisses, jumps));
+        out.println("Returns: " + returns + " executed, " + returnMisses + " mispredicted, accuracy "
+                + percent(returns - returnMisses, returns));
+        out.println("BTB Hits: " + btbHits + " of " + btbLookups + " lookups");
+        long transfers = branches + jumps + returns;
+        out.println("Control Transfers: " + transfers + " executed, " + getMispredictions()
+                + " mispredicted, accuracy " + percent(transfers - getMispredictions(), transfers));
+        for (int index = 0; index < executed.length; index++) {
+            if (executed[index] != 0) {
+                out.println("Branch " + MachineState.toHex(index * 4) + ": " + executed[index] + " executed, "
+                        + taken[index] + " taken, " + missed[index] + " mispredicted, accuracy "
+                        + percent(executed[index] - missed[index], executed[index]));
+            }
+        }
+    }
+}
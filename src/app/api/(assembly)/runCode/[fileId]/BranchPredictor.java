@@ -0,0 +1,32 @@
+// Direction predictor for conditional branches. predict() and update() are
+// called in pairs, one pair per executed branch, in program order.
+public interface BranchPredictor {
+
+    // True if the branch at pc (whose taken target is target) is predicted taken
+    boolean predict(int pc, int target);
+
+    // Trains the predictor with the outcome of the branch last passed to predict()
+    void update(int pc, boolean taken);
+
+    // Name and size, for reports
+    String describe();
+
+    // Predictor by name: static, 1bit, 2bit, gshare or tournament. indexBits
+    // sizes the pattern tables (2^indexBits counters each).
+    static BranchPredictor create(String name, int indexBits) {
+        switch (name.toLowerCase()) {
+            case "static":
+                return new StaticPredictor();
+            case "1bit":
+                return new BimodalPredictor(1, indexBits);
+            case "2bit":
+                return new BimodalPredictor(2, indexBits);
+            case "gshare":
+                return new GsharePredictor(indexBits);
+            case "tournament":
+                return new TournamentPredictor(indexBits);
+            default:
+                throw new IllegalArgumentException("Unknown branch predictor: " + name);
+        }
+    }
+}
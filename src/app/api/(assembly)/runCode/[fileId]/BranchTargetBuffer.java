@@ -0,0 +1,40 @@
+// Direct-mapped cache of the targets of taken branches and jumps, indexed by
+// PC. Fetch can only redirect to a predicted-taken target it finds here.
+public class BranchTargetBuffer {
+
+    private final int[] tags;
+    private final int[] targets;
+    private final boolean[] valid;
+    private final int mask;
+
+    public BranchTargetBuffer(int entries) {
+        if (Integer.bitCount(entries) != 1) {
+            throw new IllegalArgumentException("BTB entries must be a power of two");
+        }
+        tags = new int[entries];
+        targets = new int[entries];
+        valid = new boolean[entries];
+        mask = entries - 1;
+    }
+
+    public boolean hit(int pc) {
+        int index = (pc >>> 2) & mask;
+        return valid[index] && tags[index] == pc;
+    }
+
+    // Target recorded for pc; only meaningful after hit(pc)
+    public int target(int pc) {
+        return targets[(pc >>> 2) & mask];
+    }
+
+    public void update(int pc, int target) {
+        int index = (pc >>> 2) & mask;
+        tags[index] = pc;
+        targets[index] = target;
+        valid[index] = true;
+    }
+
+    public int size() {
+        return tags.length;
+    }
+}
@@ -0,0 +1,162 @@
+// Set-associative cache model. Only tags are kept: the data itself always
+// comes from Memory, so the cache decides timing and never correctness.
+public class Cache {
+
+    private final CacheConfig config;
+    private final int setMask;
+    private final int lineShift;
+
+    // Per way, indexed by set * ways + way
+    private final int[] lines; // Line address (address >>> lineShift)
+    private final boolean[] valid;
+    private final boolean[] dirty;
+    private final long[] stamps; // Last use for LRU, fill time for FIFO
+    private long time = 0;
+    private int seed = 0x2545F491; // Xorshift state for RANDOM
+
+    private long reads = 0;
+    private long readMisses = 0;
+    private long writes = 0;
+    private long writeMisses = 0;
+    private long writeBacks = 0;
+    private long memoryWrites = 0;
+
+    public Cache(CacheConfig config) {
+        this.config = config;
+        this.setMask = config.sets() - 1;
+        this.lineShift = Integer.numberOfTrailingZeros(config.lineBytes());
+        int entries = config.sets() * config.ways();
+        lines = new int[entries];
+        valid = new boolean[entries];
+        dirty = new boolean[entries];
+        stamps = new long[entries];
+    }
+
+    public CacheConfig getConfig() {
+        return config;
+    }
+
+    // Accesses the bytes bytes at address and returns the cycles spent filling
+    // lines that missed. An access that straddles lines touches each of them
+    // and counts as a miss if any one missed.
+    public int access(int address, int bytes, boolean write) {
+        int line = address >>> lineShift;
+        int last = (address + bytes - 1) >>> lineShift;
+        int missedLines = 0;
+        while (true) {
+            if (!accessLine(line, write)) {
+                missedLines++;
+            }
+            if (line == last) {
+                break;
+            }
+            line++;
+        }
+
+        boolean writeThrough = config.writePolicy() == CacheConfig.WritePolicy.WRITE_THROUGH;
+        if (write) {
+            writes++;
+            if (missedLines != 0) {
+                writeMisses++;
+            }
+            if (writeThrough) {
+                memoryWrites++;
+                return 0; // Drained through a write buffer; misses do not allocate
+            }
+        } else {
+            reads++;
+            if (missedLines != 0) {
+                readMisses++;
+            }
+        }
+        return missedLines * config.missPenalty();
+    }
+
+    // Looks up one line, filling it on a miss unless this is a write that
+    // bypasses the cache; true on a hit
+    private boolean accessLine(int line, boolean write) {
+        int base = (line & setMask) * config.ways();
+        time++;
+        for (int i = base; i < base + config.ways(); i++) {
+            if (valid[i] && lines[i] == line) {
+                if (config.replacement() == CacheConfig.Replacement.LRU) {
+                    stamps[i] = time;
+                }
+                if (write && config.writePolicy() == CacheConfig.WritePolicy.WRITE_BACK) {
+                    dirty[i] = true;
+                }
+                return true;
+            }
+        }
+        if (write && config.writePolicy() == CacheConfig.WritePolicy.WRITE_THROUGH) {
+            return false;
+        }
+
+        int victim = victim(base);
+        if (valid[victim] && dirty[victim]) {
+            writeBacks++;
+            memoryWrites++;
+        }
+        lines[victim] = line;
+        valid[victim] = true;
+        dirty[victim] = write;
+        stamps[victim] = time;
+        return false;
+    }
+
+    private int victim(int base) {
+        int ways = config.ways();
+        for (int i = base; i < base + ways; i++) {
+            if (!valid[i]) {
+                return i;
+            }
+        }
+        if (config.replacement() == CacheConfig.Replacement.RANDOM) {
+            seed ^= seed << 13;
+            seed ^= seed >>> 17;
+            seed ^= seed << 5;
+            return base + (seed & (ways - 1));
+        }
+        int oldest = base;
+        for (int i = base + 1; i < base + ways; i++) {
+            if (stamps[i] < stamps[oldest]) {
+                oldest = i;
+            }
+        }
+        return oldest;
+    }
+
+    public long getAccesses() {
+        return reads + writes;
+    }
+
+    public long getMisses() {
+        return readMisses + writeMisses;
+    }
+
+    public long getReads() {
+        return reads;
+    }
+
+    public long getReadMisses() {
+        return readMisses;
+    }
+
+    public long getWrites() {
+        return writes;
+    }
+
+    public long getWriteMisses() {
+        return writeMisses;
+    }
+
+    // Dirty lines written back on eviction
+    public long getWriteBacks() {
+        return writeBacks;
+    }
+
+    // Write traffic to memory: write-backs plus write-through stores
+    public long getMemoryWrites() {
+        return memoryWrites;
+    }
+}
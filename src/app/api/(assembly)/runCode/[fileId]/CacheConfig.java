@@ -0,0 +1,99 @@
+// Geometry and policies of one Cache
+public record CacheConfig(int sizeBytes, int ways, int lineBytes, Replacement replacement,
+        WritePolicy writePolicy, int missPenalty) {
+
+    // Which line of a full set a miss evicts
+    public enum Replacement {
+        LRU,    // Least recently used
+        FIFO,   // Oldest fill
+        RANDOM  // Pseudo-random, from a fixed seed so runs are repeatable
+    }
+
+    public enum WritePolicy {
+        WRITE_BACK,    // Write-allocate; dirty lines are written out when evicted
+        WRITE_THROUGH  // No-write-allocate; every store also goes to memory
+    }
+
+    // Small teaching-sized L1: 4 KiB, 2-way, 32 byte lines, LRU, write-back,
+    // 20 cycles to fill a line from memory
+    public static final CacheConfig DEFAULT = new CacheConfig(4096, 2, 32, Replacement.LRU,
+            WritePolicy.WRITE_BACK, 20);
+
+    public CacheConfig {
+        if (Integer.bitCount(sizeBytes) != 1 || Integer.bitCount(ways) != 1 || Integer.bitCount(lineBytes) != 1) {
+            throw new IllegalArgumentException("Cache size, ways and line size must be powers of two");
+        }
+        if (lineBytes < 4 || (long) ways * lineBytes > sizeBytes) {
+            throw new IllegalArgumentException("Cache lines must be at least 4 bytes and fit the cache");
+        }
+        if (sizeBytes > 1 << 20) {
+            throw new IllegalArgumentException("Caches are limited to 1 MiB");
+        }
+        if (missPenalty < 0) {
+            throw new IllegalArgumentException("Miss penalty must not be negative");
+        }
+    }
+
+    // Reads "size[:ways[:line[:lru|fifo|random[:wb|wt[:penalty]]]]]", taking
+    // the remaining fields from DEFAULT, e.g. "1024:1:16" or "8192:4:64:fifo:wt"
+    public static CacheConfig parse(String spec) {
+        String[] fields = spec.split(":");
+        if (fields.length > 6) {
+            throw new IllegalArgumentException("Invalid cache: " + spec);
+        }
+        int sizeBytes = Integer.parseInt(fields[0]);
+        int ways = fields.length > 1 ? Integer.parseInt(fields[1]) : DEFAULT.ways;
+        int lineBytes = fields.length > 2 ? Integer.parseInt(fields[2]) : DEFAULT.lineBytes;
+        Replacement replacement = fields.length > 3 ? Replacement.valueOf(fields[3].toUpperCase())
+                : DEFAULT.replacement;
+        WritePolicy writePolicy = DEFAULT.writePolicy;
+        if (fields.length > 4) {
+            switch (fields[4].toLowerCase()) {
+                case "wb":
+                    writePolicy = WritePolicy.WRITE_BACK;
+                    break;
+                case "wt":
+                    writePolicy = WritePolicy.WRITE_THROUGH;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown write policy: " + fields[4]);
+            }
+        }
+        int missPenalty = fields.length > 5 ? Integer.parseInt(fields[5]) : DEFAULT.missPenalty;
+        return new CacheConfig(sizeBytes, ways, lineBytes, replacement, writePolicy, missPenalty);
+    }
+
+    public int sets() {
+        return sizeBytes / (ways * lineBytes);
+    }
+
+    public CacheConfig withSizeBytes(int sizeBytes) {
+        return new CacheConfig(sizeBytes, ways, lineBytes, replacement, writePolicy, missPenalty);
+    }
+
+    public CacheConfig withWays(int ways) {
+        return new CacheConfig(sizeBytes, ways, lineBytes, replacement, writePolicy, missPenalty);
+    }
+
+    public CacheConfig withLineBytes(int lineBytes) {
+        return new CacheConfig(sizeBytes, ways, lineBytes, replacement, writePolicy, missPenalty);
+    }
+
+    public CacheConfig withReplacement(Replacement replacement) {
+        return new CacheConfig(sizeBytes, ways, lineBytes, replacement, writePolicy, missPenalty);
+    }
+
+    public CacheConfig withWritePolicy(WritePolicy writePolicy) {
+        return new CacheConfig(sizeBytes, ways, lineBytes, replacement, writePolicy, missPenalty);
+    }
+
+    public CacheConfig withMissPenalty(int missPenalty) {
+        return new CacheConfig(sizeBytes, ways, lineBytes, replacement, writePolicy, missPenalty);
+    }
+
+    @Override
+    public String toString() {
+        return sizeBytes + " bytes, " + (ways == 1 ? "direct-mapped" : ways + "-way") + ", " + lineBytes
+                + " byte lines, " + replacement + ", " + writePolicy + ", " + missPenalty + " cycle miss penalty";
+    }
+}
@@ -0,0 +1,128 @@
+import java.io.PrintStream;
+import java.util.Arrays;
+
+// Split L1 instruction and data caches in front of memory, driven by the
+// stream of retired instructions: every retired instruction is fetched through
+// the I-cache and every load and store goes through the D-cache. Counts hits
+// and misses per cache, per instruction and per data label, and the cycles
+// lost filling lines, which the stage-by-stage clock and the PipelineModel
+// add to their cycle counts.
+public class CacheModel implements RetireListener, RunReport {
+
+    private final Cache icache;
+    private final Cache dcache;
+    private final LabelTable labels;
+
+    private int lastFetchPenalty = 0;
+    private int lastDataPenalty = 0;
+    private long stallCycles = 0;
+
+    // Per instruction, indexed by pc / 4
+    private long[] fetches = new long[0];
+    private long[] fetchMisses = new long[0];
+    private long[] dataAccesses = new long[0];
+    private long[] dataMisses = new long[0];
+
+    // Per data label, indexed as in labels; the extra last slot counts
+    // accesses outside every label
+    private long[] labelAccesses = new long[1];
+    private long[] labelMisses = new long[1];
+
+    public CacheModel(CacheConfig instructionCache, CacheConfig dataCache, LabelTable labels) {
+        this.icache = new Cache(instructionCache);
+        this.dcache = new Cache(dataCache);
+        this.labels = labels;
+    }
+
+    @Override
+    public void retired(int pc, DecodedInstruction insn, int nextPc, int memAddress, int value) {
+        lastFetchPenalty = icache.access(pc, 4, false);
+        lastDataPenalty = 0;
+        int index = pc >>> 2;
+        if (index >= fetches.length) {
+            int capacity = Math.max(index + 1, fetches.length * 2);
+            fetches = Arrays.copyOf(fetches, capacity);
+            fetchMisses = Arrays.copyOf(fetchMisses, capacity);
+            dataAccesses = Arrays.copyOf(dataAccesses, capacity);
+            dataMisses = Arrays.copyOf(dataMisses, capacity);
+        }
+        fetches[index]++;
+        if (lastFetchPenalty != 0) {
+            fetchMisses[index]++;
+        }
+
+        boolean load = insn.aluOp() == AluOp.LOAD;
+        if (load || insn.aluOp() == AluOp.STORE) {
+            long misses = dcache.getMisses();
+            lastDataPenalty = dcache.access(memAddress, insn.size(), !load);
+            boolean missed = dcache.getMisses() != misses;
+            dataAccesses[index]++;
+            int label = labels.find(memAddress);
+            if (labelAccesses.length <= labels.size()) {
+                labelAccesses = Arrays.copyOf(labelAccesses, labels.size() + 1);
+                labelMisses = Arrays.copyOf(labelMisses, labels.size() + 1);
+            }
+            int slot = label < 0 ? labels.size() : label;
+            labelAccesses[slot]++;
+            if (missed) {
+                dataMisses[index]++;
+                labelMisses[slot]++;
+            }
+        }
+        stallCycles += lastFetchPenalty + lastDataPenalty;
+    }
+
+    // Cycles the last retired instruction waited for its fetch to fill a line
+    public int lastFetchPenalty() {
+        return lastFetchPenalty;
+    }
+
+    // Cycles the last retired load or store waited for the D-cache
+    public int lastDataPenalty() {
+        return lastDataPenalty;
+    }
+
+    public long getStallCycles() {
+        return stallCycles;
+    }
+
+    public Cache getInstructionCache() {
+        return icache;
+    }
+
+    public Cache getDataCache() {
+        return dcache;
+    }
+
+    private static String hitRate(long accesses, long misses) {
+        return accesses == 0 ? "n/a" : String.format("%.2f%%", 100.0 * (accesses - misses) / accesses);
+    }
+
+    @Override
+    public void printReport(PrintStream out) {
+        out.println("I-Cache: " + icache.getConfig());
+        out.println("I-Cache Accesses: " + icache.getAccesses() + ", misses " + icache.getMisses() + ", hit rate "
+                + hitRate(icache.getAccesses(), icache.getMisses()));
+        out.println("D-Cache: " + dcache.getConfig());
+        out.println("D-Cache Accesses: " + dcache.getAccesses() + ", misses " + dcache.getMisses() + ", hit rate "
+                + hitRate(dcache.getAccesses(), dcache.getMisses()));
+        out.println("D-Cache Reads: " + dcache.getReads() + ", misses " + dcache.getReadMisses());
+        out.println("D-Cache Writes: " + dcache.getWrites() + ", misses " + dcache.getWriteMisses());
+        out.println("D-Cache Write-backs: " + dcache.getWriteBacks() + ", memory writes " + dcache.getMemoryWrites());
+        out.println("Cache Stall Cycles: " + stallCycles);
+        for (int index = 0; index < fetches.length; index++) {
+            if (fetchMisses[index] != 0 || dataAccesses[index] != 0) {
+                out.println("Cache PC " + MachineState.toHex(index * 4) + ": I-cache " + fetches[index]
+                        + " accesses, " + fetchMisses[index] + " misses; D-cache " + dataAccesses[index]
+                        + " accesses, " + dataMisses[index] + " misses");
+            }
+        }
+        for (int slot = 0; slot < labelAccesses.length; slot++) {
+            if (labelAccesses[slot] != 0) {
+                String name = slot < labels.size() ? labels.name(slot) : "(unlabelled)";
+                out.println("Cache Label " + name + ": " + labelAccesses[slot] + " accesses, " + labelMisses[slot]
+                        + " misses, hit rate " + hitRate(labelAccesses[slot], labelMisses[slot]));
+            }
+        }
+    }
+}
@@ -0,0 +1,6 @@
+// A basic block translated to JVM bytecode by BlockCompiler. run() applies the
+// whole block to the register file and memory and returns the next PC.
+public interface CompiledBlock {
+
+    int run(int[] regs, JitRuntime runtime);
+}
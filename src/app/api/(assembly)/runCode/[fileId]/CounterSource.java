@@ -0,0 +1,23 @@
+// Supplies the values behind the cycle and hardware event counter CSRs. The
+// default source, used when no timing model is attached, counts one cycle per
+// retired instruction and no events.
+public interface CounterSource {
+
+    CounterSource NONE = new CounterSource() {
+        @Override
+        public long cycles(long instret) {
+            return instret;
+        }
+
+        @Override
+        public long event(int counter) {
+            return 0;
+        }
+    };
+
+    // Cycles elapsed after instret instructions have retired
+    long cycles(long instret);
+
+    // Current value of hpmcounter3..31 (counter is 3..31)
+    long event(int counter);
+}
@@ -0,0 +1,126 @@
+import java.util.Arrays;
+
+// Zicsr control and status registers of the hart. Only the counters are
+// implemented, as 64-bit values read 32 bits at a time (RV32):
+//   0xC00 cycle, 0xC01 time, 0xC02 instret, 0xC03..0xC1F hpmcounter3..31
+//   0xC80..0xC9F the upper halves of the same counters
+//   0xB00 mcycle, 0xB02 minstret, 0xB03..0xB1F mhpmcounter3..31 and their
+//   upper halves at 0xB80..0xB9F, which can also be written
+// The modelled timer runs at the core clock, so time reads the same as cycle
+// and runs stay repeatable. Other CSRs read as zero and ignore writes, as do
+// writes to the read-only user counters (real hardware would trap).
+//
+// Counters are live: a CSR instruction sees every instruction retired before
+// it, but not itself.
+public class CsrFile {
+
+    private static final int COUNTERS = 32;
+    private static final int CYCLE = 0;
+    private static final int TIME = 1;
+    private static final int INSTRET = 2;
+
+    private long instret = 0;
+    // Added to each counter's raw value, so writing a machine counter does
+    // not disturb the models behind it
+    private final long[] offsets = new long[COUNTERS];
+    private CounterSource source = CounterSource.NONE;
+
+    public void reset() {
+        instret = 0;
+        for (int i = 0; i < COUNTERS; i++) {
+            offsets[i] = 0;
+        }
+    }
+
+    public void setCounterSource(CounterSource source) {
+        this.source = source;
+    }
+
+    // Called by the engines as instructions retire
+    public void retire(long count) {
+        instret += count;
+    }
+
+    public long getInstret() {
+        return instret;
+    }
+
+    // Counter state for a checkpoint: instret followed by the offsets
+    public long[] save() {
+        long[] saved = Arrays.copyOf(offsets, COUNTERS + 1);
+        saved[COUNTERS] = instret;
+        return saved;
+    }
+
+    public void restore(long[] saved) {
+        System.arraycopy(saved, 0, offsets, 0, COUNTERS);
+        instret = saved[COUNTERS];
+    }
+
+    // Executes a csrrw/csrrs/csrrc (or immediate form) whose rs1 register
+    // holds rs1Value and returns the old CSR value for rd
+    public int execute(DecodedInstruction insn, int rs1Value) {
+        int csr = insn.imm();
+        int operand = insn.csrImmediate() ? insn.csrOperand() : rs1Value;
+        int old = read(csr);
+        switch (insn.aluOp()) {
+            case CSRRW:
+                write(csr, operand);
+                break;
+            case CSRRS:
+                if (insn.csrOperand() != 0) {
+                    write(csr, old | operand);
+                }
+                break;
+            default: // CSRRC
+                if (insn.csrOperand() != 0) {
+                    write(csr, old & ~operand);
+                }
+                break;
+        }
+        return old;
+    }
+
+    public int read(int csr) {
+        int counter = csr & 0x1F;
+        int group = csr & ~0x9F;
+        if ((group != 0xC00 && group != 0xB00) || (group == 0xB00 && counter == TIME)) {
+            return 0;
+        }
+        long value = counter(counter);
+        return (csr & 0x80) != 0 ? (int) (value >>> 32) : (int) value;
+    }
+
+    public void write(int csr, int value) {
+        int counter = csr & 0x1F;
+        if ((csr & ~0x9F) != 0xB00 || counter == TIME) {
+            return;
+        }
+        long current = counter(counter);
+        long updated = (csr & 0x80) != 0
+                ? ((long) value << 32) | (current & 0xFFFFFFFFL)
+                : (current & 0xFFFFFFFF00000000L) | (value & 0xFFFFFFFFL);
+        offsets[counter] += updated - current;
+        if (counter == INSTRET) {
+            offsets[counter]--; // The writing instruction does not count itself
+        }
+    }
+
+    // Full 64-bit value of counter 0..31
+    public long counter(int counter) {
+        long raw;
+        switch (counter) {
+            case CYCLE:
+            case TIME:
+                raw = source.cycles(instret);
+                break;
+            case INSTRET:
+                raw = instret;
+                break;
+            default:
+                raw = source.event(counter);
+                break;
+        }
+        return raw + offsets[counter];
+    }
+}
@@ -0,0 +1,105 @@
+import java.util.Arrays;
+
+// Text segment words plus the decoded form of each one, indexed by pc / 4.
+// An instruction is decoded the first time its PC is fetched; stores that land
+// in the text segment refresh the word from memory and drop the stale decode.
+public class DecodeCache {
+
+    private int[] words = new int[16];
+    private DecodedInstruction[] decoded = new DecodedInstruction[16];
+    private int textLength = 0;
+    private int version = 0;
+
+    public void clear() {
+        Arrays.fill(words, 0);
+        Arrays.fill(decoded, null);
+        textLength = 0;
+        version++;
+    }
+
+    // Changes whenever a text word changes, so structures built from the text can tell they are stale
+    public int getVersion() {
+        return version;
+    }
+
+    public void putWord(int pc, int word) {
+        int index = pc >>> 2;
+        if (index >= words.length) {
+            int capacity = Math.max(words.length * 2, index + 1);
+            words = Arrays.copyOf(words, capacity);
+            decoded = Arrays.copyOf(decoded, capacity);
+        }
+        words[index] = word;
+        decoded[index] = null;
+        textLength = Math.max(textLength, (index + 1) * 4);
+        version++;
+    }
+
+    // Size of the text segment in bytes, starting at address 0
+    public int getTextLength() {
+        return textLength;
+    }
+
+    public boolean isText(int pc) {
+        return (pc & 3) == 0 && Integer.compareUnsigned(pc, textLength) < 0;
+    }
+
+    public int readWord(int pc) {
+        return isText(pc) ? words[pc >>> 2] : 0;
+    }
+
+    public DecodedInstruction lookup(int pc) {
+        if (!isText(pc)) {
+            return DecodedInstruction.NONE;
+        }
+        int index = pc >>> 2;
+        DecodedInstruction instruction = decoded[index];
+        if (instruction == null) {
+            instruction = DecodedInstruction.decode(words[index]);
+            decoded[index] = instruction;
+        }
+        return instruction;
+    }
+
+    // Called after memory was rolled back to an earlier state: re-reads every
+    // text word that no longer matches memory. The end-of-text marker is not
+    // mirrored into memory and is left alone.
+    public void refresh(Memory memory) {
+        boolean changed = false;
+        for (int index = 0; index < textLength >>> 2; index++) {
+            int word = memory.loadWord(index * 4);
+            if (words[index] != word && words[index] != Execution.END_OF_TEXT) {
+                words[index] = word;
+                decoded[index] = null;
+                changed = true;
+            }
+        }
+        if (changed) {
+            version++;
+        }
+    }
+
+    // Called after a store of length bytes at address; returns true if any text
+    // word changed. Like refresh(), it leaves the end-of-text marker alone.
+    public boolean invalidate(int address, int length, Memory memory) {
+        long start = Integer.toUnsignedLong(address) & ~3L;
+        long end = Integer.toUnsignedLong(address) + length;
+        if (start >= textLength) {
+            return false;
+        }
+        boolean changed = false;
+        for (long pc = start; pc < end && pc < textLength; pc += 4) {
+            int index = (int) (pc >>> 2);
+            int word = memory.loadWord((int) pc);
+            if (words[index] != word && words[index] != Execution.END_OF_TEXT) {
+                words[index] = word;
+                decoded[index] = null;
+                changed = true;
+            }
+        }
+        if (changed) {
+            version++;
+        }
+        return changed;
+    }
+}
@@ -0,0 +1,141 @@
+// Instruction word split into its fields once, so the datapath never has to
+// re-derive them from the raw word. Immediates are already sign-extended and
+// shifted into place; size is the memory access width in bytes. For the CSR
+// instructions imm is the CSR number and rs1 is 0 in the immediate forms,
+// whose 5-bit operand csrOperand() reads from the word.
+public record DecodedInstruction(int word, int opcode, AluOp aluOp, int rd, int rs1, int rs2, int imm, int size) {
+
+    public static final int OP_R = 0b0110011;
+    public static final int OP_IMM = 0b0010011;
+    public static final int OP_LOAD = 0b0000011;
+    public static final int OP_JALR = 0b1100111;
+    public static final int OP_STORE = 0b0100011;
+    public static final int OP_BRANCH = 0b1100011;
+    public static final int OP_LUI = 0b0110111;
+    public static final int OP_AUIPC = 0b0010111;
+    public static final int OP_JAL = 0b1101111;
+    public static final int OP_SYSTEM = 0b1110011;
+
+    public static final DecodedInstruction NONE = decode(0);
+
+    public static DecodedInstruction decode(int word) {
+        int opcode = word & 0x7F;
+        int rd = (word >>> 7) & 0x1F;
+        int funct3 = (word >>> 12) & 0x7;
+        int rs1 = (word >>> 15) & 0x1F;
+        int rs2 = (word >>> 20) & 0x1F;
+        int funct7 = word >>> 25;
+
+        switch (opcode) {
+            case OP_R:
+                return new DecodedInstruction(word, opcode, rTypeOp(funct3, funct7), rd, rs1, rs2, 0, 0);
+            case OP_IMM: {
+                AluOp op = funct3 == 0b000 ? AluOp.ADD
+                        : funct3 == 0b111 ? AluOp.AND
+                        : funct3 == 0b110 ? AluOp.OR : AluOp.INVALID;
+                return new DecodedInstruction(word, opcode, op, rd, rs1, 0, word >> 20, 0);
+            }
+            case OP_LOAD: {
+                int size = accessSize(funct3);
+                return new DecodedInstruction(word, opcode, size == 0 ? AluOp.INVALID : AluOp.LOAD,
+                        rd, rs1, 0, word >> 20, size);
+            }
+            case OP_JALR:
+                return new DecodedInstruction(word, opcode, AluOp.JALR, rd, rs1, 0, word >> 20, 0);
+            case OP_STORE: {
+                int size = accessSize(funct3);
+                int imm = ((word >> 25) << 5) | rd;
+                return new DecodedInstruction(word, opcode, size == 0 ? AluOp.INVALID : AluOp.STORE,
+                        0, rs1, rs2, imm, size);
+            }
+            case OP_BRANCH: {
+                AluOp op = funct3 == 0b000 ? AluOp.BEQ
+                        : funct3 == 0b001 ? AluOp.BNE
+                        : funct3 == 0b100 ? AluOp.BLT
+                        : funct3 == 0b101 ? AluOp.BGE : AluOp.INVALID;
+                int imm = ((word >> 31) << 12) | (((word >>> 7) & 0x1) << 11)
+                        | (((word >>> 25) & 0x3F) << 5) | (((word >>> 8) & 0xF) << 1);
+                return new DecodedInstruction(word, opcode, op, 0, rs1, rs2, imm, 0);
+            }
+            case OP_LUI:
+                return new DecodedInstruction(word, opcode, AluOp.LUI, rd, 0, 0, word & 0xFFFFF000, 0);
+            case OP_AUIPC:
+                return new DecodedInstruction(word, opcode, AluOp.AUIPC, rd, 0, 0, word & 0xFFFFF000, 0);
+            case OP_JAL: {
+                int imm = ((word >> 31) << 20) | (((word >>> 12) & 0xFF) << 12)
+                        | (((word >>> 20) & 0x1) << 11) | (((word >>> 21) & 0x3FF) << 1);
+                return new DecodedInstruction(word, opcode, AluOp.JAL, rd, 0, 0, imm, 0);
+            }
+            case OP_SYSTEM: {
+                AluOp op = (funct3 & 0b11) == 0b01 ? AluOp.CSRRW
+                        : (funct3 & 0b11) == 0b10 ? AluOp.CSRRS
+                        : (funct3 & 0b11) == 0b11 ? AluOp.CSRRC : AluOp.INVALID; // ecall/ebreak are not supported
+                boolean immediate = (funct3 & 0b100) != 0;
+                return new DecodedInstruction(word, opcode, op, rd, immediate ? 0 : rs1, 0, word >>> 20, 0);
+            }
+            default:
+                return new DecodedInstruction(word, opcode, AluOp.INVALID, 0, 0, 0, 0, 0);
+        }
+    }
+
+    // True for csrrwi/csrrsi/csrrci, whose operand is an immediate
+    public boolean csrImmediate() {
+        return (word & 0x4000) != 0;
+    }
+
+    // Register number or 5-bit immediate in the rs1 field of a CSR instruction.
+    // csrrs and csrrc with 0 here only read the CSR.
+    public int csrOperand() {
+        return (word >>> 15) & 0x1F;
+    }
+
+    private static AluOp rTypeOp(int funct3, int funct7) {
+        switch (funct3) {
+            case 0b000:
+                return funct7 == 0b0000000 ? AluOp.ADD
+                        : funct7 == 0b0100000 ? AluOp.SUB
+                        : funct7 == 0b0000001 ? AluOp.MUL : AluOp.INVALID;
+            case 0b111:
+                return AluOp.AND;
+            case 0b110:
+                return funct7 == 0b0000001 ? AluOp.REM : AluOp.OR;
+            case 0b001:
+                return AluOp.SLL;
+            case 0b010:
+                return AluOp.SLT;
+            case 0b101:
+                return funct7 == 0b0000000 ? AluOp.SRL
+                        : funct7 == 0b0100000 ? AluOp.SRA : AluOp.INVALID;
+            case 0b100:
+                return funct7 == 0b0000000 ? AluOp.XOR
+                        : funct7 == 0b0000001 ? AluOp.DIV : AluOp.INVALID;
+            default:
+                return AluOp.INVALID;
+        }
+    }
+
+    // Access width in bytes for loads and stores, 0 if funct3 is not a valid width
+    private static int accessSize(int funct3) {
+        switch (funct3) {
+            case 0b000: return 1; // byte
+            case 0b001: return 2; // half-word
+            case 0b010: return 4; // word
+            case 0b011: return 8; // double-word
+            default: return 0;
+        }
+    }
+
+    public boolean writesRegister() {
+        return rd != 0 && opcode != OP_STORE && opcode != OP_BRANCH && aluOp != AluOp.INVALID;
+    }
+
+    public static String sizeName(int size) {
+        switch (size) {
+            case 1: return "BYTE";
+            case 2: return "HALF";
+            case 4: return "WORD";
+            case 8: return "DOUBLE";
+            default: return null;
+        }
+    }
+}
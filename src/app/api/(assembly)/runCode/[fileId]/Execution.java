@@ -1,60 +1,141 @@
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
 
 public class Execution {
 
-    private HashMap<String, String> memory;
-    private HashMap<String, String> registerFile;
+    // Marker the assembler writes after the last instruction
+    public static final int END_OF_TEXT = 0xDEADBEEF;
+
+    // Safety limit to prevent infinite loops
+    public static final int MAX_CLOCK_CYCLES = 5000;
+
+    // Largest region printMemoryRange() prints
+    public static final int MAX_MEMORY_RANGE = 1 << 16;
+
+    private final MachineState state;
+    // Destination of the per-cycle log and the final state dump
+    private PrintStream out;
 
     Execution() {
-        memory = new HashMap<>();
-        registerFile = new HashMap<>();
-        for (int i = 0; i < 32; i++) {
-            String address = "x" + i;
-            registerFile.put(address, "0x00000000");
-        }
-        registerFile.put("x2", "0x7FFFFFDC");
+        this(System.out);
+    }
+
+    Execution(PrintStream out) {
+        this.out = out;
+        state = new MachineState();
+        state.getCsrs().setCounterSource(new ModelCounters());
+    }
+
+    // Returns the machine to its freshly constructed state so it can run another
+    // program, keeping memory pages and cache arrays for reuse, and sends further
+    // output to out
+    public void reset(PrintStream out) {
+        this.out = out;
+        // Before the memory is cleared, so the image's pages are recycled too
+        releaseLoadedImage();
+        state.reset();
+        decodeCache.clear();
+        blockCache.clear();
+        listeners.clear();
+        reports.clear();
+        pipelineModel = null;
+        branchUnit = null;
+        cacheModel = null;
+        profiler = null;
+        dataLabels.clear();
+        textLabels.clear();
+        fullMemoryDump = false;
+        current = DecodedInstruction.NONE;
+
+        mdr = pcTemp = size = ra = rb = immMuxInr = rz = mar = ir = 0;
+        rs1 = rs2 = rd = immMuxB = rm = ry = 0;
+        valueRegister = null;
+        clock = null;
+
+        muxMdr = muxMa = muxB = muxInr = muxPc = null;
+        branch = condition = memRead = memWrite = regWrite = null;
+        muxY = null;
+        aluOp = null;
     }
 
     public void addToMemory(String address, String value) {
-        memory.put(address, value);
+        state.getMemory().storeByte(Integer.parseUnsignedInt(address.substring(2), 16), Integer.parseInt(value, 16));
     }
 
+    public MachineState getState() {
+        return state;
+    }
+
+    // Hex view of every mapped byte, keyed by "0x%08X" address
     public HashMap<String, String> getMemory() {
-        return memory;
+        Memory memory = state.getMemory();
+        HashMap<String, String> view = new HashMap<>();
+        for (int address : memory.mappedAddresses()) {
+            view.put(MachineState.toHex(address), String.format("%02X", memory.loadByte(address)));
+        }
+        return view;
     }
 
+    // Hex view of the register file, keyed by "x0".."x31"
     public HashMap<String, String> getRegisterFile() {
-        return registerFile;
+        HashMap<String, String> view = new HashMap<>();
+        for (int i = 0; i < 32; i++) {
+            view.put("x" + i, MachineState.toHex(state.readRegister(i)));
+        }
+        return view;
     }
 
     // data path
-    private String mdr = null;
-    private String pcMuxPc = "0x00000000";
-    private String pcTemp = null;
-    private String size = null;
-    private String ra = null;
-    private String rb = null;
-    private String immMuxInr = null;
-    private String rz = null;
-    private String mar = null;
-    private String ir = null;
-    private String rs1 = null;
-    private String rs2 = null;
-    private String rd = null;
+    private int mdr = 0;
+    private int pcTemp = 0;
+    private int size = 0;
+    private int ra = 0;
+    private int rb = 0;
+    private int immMuxInr = 0;
+    private int rz = 0;
+    private int mar = 0;
+    private int ir = 0;
+    private int rs1 = 0;
+    private int rs2 = 0;
+    private int rd = 0;
     private String valueRegister = null;
     private Integer clock = null;
-    private String immMuxB = null;
-    private String rm = null;
-    private String ry = null;
-    private HashMap<String, String> textSegment = null;
+    private int immMuxB = 0;
+    private int rm = 0;
+    private int ry = 0;
+
+    // Text segment and its decoded instructions
+    private final DecodeCache decodeCache = new DecodeCache();
+    private final BlockCache blockCache = new BlockCache(decodeCache);
+    private DecodedInstruction current = DecodedInstruction.NONE;
+
+    private final ArrayList<RetireListener> listeners = new ArrayList<>();
+    private final ArrayList<RunReport> reports = new ArrayList<>();
+    private PipelineModel pipelineModel = null;
+    private BranchPredictionUnit branchUnit = null;
+    private CacheModel cacheModel = null;
+    private Profiler profiler = null;
+    private final LabelTable dataLabels = new LabelTable("data");
+    private final LabelTable textLabels = new LabelTable("text");
+    // Memory as the listing loaded it, which the final state is compared against
+    private Memory.Snapshot loadedImage = null;
+    private boolean fullMemoryDump = false;
 
     public void setTextSegment(HashMap<String, String> textSegment) {
-        this.textSegment = textSegment;
+        decodeCache.clear();
+        for (Map.Entry<String, String> entry : textSegment.entrySet()) {
+            decodeCache.putWord(Integer.parseUnsignedInt(entry.getKey().substring(2), 16),
+                    Integer.parseUnsignedInt(entry.getValue().substring(2), 16));
+        }
     }
 
     // Control Path
@@ -67,7 +148,7 @@ public class Execution {
     private Boolean branch = null;
     private Boolean condition = null;
     private Boolean memRead = null;
-    private String aluOp = null;
+    private AluOp aluOp = null;
     private Boolean memWrite = null;
     private Boolean regWrite = null;
 
@@ -76,11 +157,11 @@ public class Execution {
     }
 
     public String getMdr() {
-        return mdr;
+        return MachineState.toHex(mdr);
     }
 
     public String getSize() {
-        return size;
+        return DecodedInstruction.sizeName(size);
     }
 
     public Boolean getMuxMdr() {
@@ -96,7 +177,7 @@ public class Execution {
     }
 
     public String getRb() {
-        return rb;
+        return MachineState.toHex(rb);
     }
 
     public Boolean getMemWrite() {
@@ -108,11 +189,11 @@ public class Execution {
     }
 
     public String getAluOp() {
-        return aluOp;
+        return aluOp == null ? null : aluOp.name();
     }
 
     public String getPcTemp() {
-        return pcTemp;
+        return MachineState.toHex(pcTemp);
     }
 
     public Integer getClock() {
@@ -132,51 +213,51 @@ public class Execution {
     }
 
     public String getImmMuxB() {
-        return immMuxB;
+        return toBinary(immMuxB, 32);
     }
 
     public String getImmMuxInr() {
-        return immMuxInr;
+        return toBinary(immMuxInr, 32);
     }
 
     public String getIr() {
-        return ir;
+        return String.format("0X%08X", ir);
     }
 
     public String getMar() {
-        return mar;
+        return MachineState.toHex(mar);
     }
 
     public String getPcMuxPc() {
-        return pcMuxPc;
+        return MachineState.toHex(state.getPc());
     }
 
     public String getRa() {
-        return ra;
+        return MachineState.toHex(ra);
     }
 
     public String getRd() {
-        return rd;
+        return toBinary(rd, 5);
     }
 
     public String getRm() {
-        return rm;
+        return MachineState.toHex(rm);
     }
 
     public String getRs1() {
-        return rs1;
+        return toBinary(rs1, 5);
     }
 
     public String getRs2() {
-        return rs2;
+        return toBinary(rs2, 5);
     }
 
     public String getRy() {
-        return ry;
+        return MachineState.toHex(ry);
     }
 
     public String getRz() {
-        return rz;
+        return MachineState.toHex(rz);
     }
 
     public String getValueRegister() {
@@ -184,20 +265,17 @@ public class Execution {
     }
 
     public void fetch() {
-        if (textSegment == null) {
-            System.out.println("Error: Text Segment is not initialized!");
+        if (decodeCache.getTextLength() == 0) {
+            out.println("Error: Text Segment is not initialized!");
             return;
         }
 
-        // Fetch the instruction from memory using PC
+        // Fetch the instruction using PC; each PC is decoded only on its first fetch
+        int pc = state.getPc();
+        current = decodeCache.lookup(pc); // Default to NOP if no instruction found
+        ir = current.word();
 
-        String pcHex = pcMuxPc; // Get current PC value
-        ir = textSegment.getOrDefault(pcHex, "0x00000000"); // Default to NOP if no instruction found
-
-        // Convert PC from hex to integer, increment by 4, and store in pcTemp
-        int pcValue = (int) Long.parseUnsignedLong(pcHex.substring(2), 16); // Convert hex string to integer
-        pcValue += 4; // Increment PC by 4 (32-bit instruction size)
-        pcTemp = "0x" + String.format("%08X", pcValue); // Convert back to hex string
+        pcTemp = pc + 4; // Increment PC by 4 (32-bit instruction size)
 
         // Update the clock cycle
         if (clock == null) {
@@ -206,9 +284,9 @@ public class Execution {
         clock++;
 
         // Debugging output
-        System.out.println("PC: " + pcHex);
-        System.out.println("Clock Cycle: " + clock);
-        System.out.println("Instruction Register (IR): " + ir);
+        out.println("PC: " + MachineState.toHex(pc));
+        out.println("Clock Cycle: " + clock);
+        out.println("Instruction Register (IR): " + (ir == 0 ? "0x00000000" : getIr()));
     }
 
     public static int signExtend(String binary, int bitWidth) {
@@ -220,54 +298,33 @@ public class Execution {
         return value;
     }
 
+    // Zero-padded binary rendering of the low bits of value
+    static String toBinary(int value, int bits) {
+        String binary = Integer.toBinaryString(value);
+        if (binary.length() > bits) {
+            return binary.substring(binary.length() - bits);
+        }
+        return "0".repeat(bits - binary.length()) + binary;
+    }
+
     public void decode() {
-        if (ir == null || ir.length() != 10) { // Ensure IR is valid (0xXXXXXXXX format)
-            System.out.println("Error: Invalid instruction in IR");
+        if (ir == 0) { // Ensure an instruction was fetched
+            out.println("Error: Invalid instruction in IR");
             return;
         }
 
-        String func3 = null;
-        String func7 = null;
-        // Convert hex instruction to binary (excluding "0x" prefix)
-        String binary = String.format("%32s", Integer.toBinaryString(Integer.parseUnsignedInt(ir.substring(2), 16))).replace(' ', '0');
-
-        // Extract opcode (bits 0-6)
-        String opcode = binary.substring(25, 32);
-
-        // Decode based on opcode
-        switch (opcode) {
-            case "0110011": {// R-Type (add, sub, and, or, sll, slt, sra, srl, xor, mul, div, rem)
-                rd = binary.substring(20, 25);
-                rs1 = binary.substring(12, 17);
-                rs2 = binary.substring(7, 12);
-                func3 = binary.substring(17, 20);
-                func7 = binary.substring(0, 7);
-
-                ra = registerFile.getOrDefault("x" + Integer.parseInt(rs1, 2), "0x00000000");
-                rb = registerFile.getOrDefault("x" + Integer.parseInt(rs2, 2), "0x00000000");
-
-                // ALU operation lookup
-                if (func3.equals("000")) {
-                    aluOp = func7.equals("0000000") ? "ADD" :
-                            func7.equals("0100000") ? "SUB" :
-                                    func7.equals("0000001") ? "MUL" : "INVALID";
-                } else if (func3.equals("111")) {
-                    aluOp = "AND";
-                } else if (func3.equals("110")) {
-                    aluOp = func7.equals("0000001") ? "REM" : "OR";
-                } else if (func3.equals("001")) {
-                    aluOp = "SLL";
-                } else if (func3.equals("010")) {
-                    aluOp = "SLT";
-                } else if (func3.equals("101")) {
-                    aluOp = func7.equals("0000000") ? "SRL" :
-                            func7.equals("0100000") ? "SRA" : "INVALID";
-                } else if (func3.equals("100")) {
-                    aluOp = func7.equals("0000000") ? "XOR" :
-                            func7.equals("0000001") ? "DIV" : "INVALID";
-                } else {
-                    throw new IllegalArgumentException("Invalid R-type instruction");
-                }
+        DecodedInstruction insn = current;
+        aluOp = insn.aluOp();
+
+        switch (insn.opcode()) {
+            case DecodedInstruction.OP_R: { // R-Type (add, sub, and, or, sll, slt, sra, srl, xor, mul, div, rem)
+                rd = insn.rd();
+                rs1 = insn.rs1();
+                rs2 = insn.rs2();
+
+                ra = state.readRegister(rs1);
+                rb = state.readRegister(rs2);
+
                 muxPc = false;
                 muxInr = false;
                 muxMa = false; // selecting pc
@@ -280,35 +337,13 @@ public class Execution {
                 break;
             }
 
-            case "0010011": {// I-Type (addi, andi, ori)
-                rd = binary.substring(20, 25);
-                rs1 = binary.substring(12, 17);
-                func3 = binary.substring(17, 20);
-                immMuxB = binary.substring(0, 12);
+            case DecodedInstruction.OP_IMM: { // I-Type (addi, andi, ori)
+                rd = insn.rd();
+                rs1 = insn.rs1();
+                immMuxB = insn.imm();
 
-                ra = registerFile.getOrDefault("x" + Integer.parseInt(rs1, 2), "0x00000000");
+                ra = state.readRegister(rs1);
 
-                // Sign-extend immMuxB to 32-bit
-                int immValue = Integer.parseInt(immMuxB, 2);
-                if (immMuxB.charAt(0) == '1') { // Negative number (sign extend)
-                    immValue |= 0xFFFFF000;
-                }
-                immMuxB = String.format("%32s", Integer.toBinaryString(immValue)).replace(' ', '0');
-
-                // ALU operation lookup
-                switch (func3) {
-                    case "000":
-                        aluOp = "ADD";
-                        break; // addi, lb, lh, lw, ld
-                    case "111":
-                        aluOp = "AND";
-                        break; // andi
-                    case "110":
-                        aluOp = "OR";
-                        break;  // ori
-                    default:
-                        throw new IllegalArgumentException("Invalid I-type instruction");
-                }
                 muxPc = false;
                 muxInr = false;
                 muxMa = false; // selecting pc
@@ -319,35 +354,16 @@ public class Execution {
                 regWrite = true;
                 muxB = true;
                 break;
-
             }
-            case "0000011": {// Load (lb, lh, lw, ld)
-                rd = binary.substring(20, 25);
-                rs1 = binary.substring(12, 17);
-                func3 = binary.substring(17, 20);
-
-                // Fetch rs1 value from the register file
-                ra = registerFile.getOrDefault("x" + Integer.parseInt(rs1, 2), "0x00000000");
 
-                immMuxB = binary.substring(0, 12);
-                // Extract and sign-extend the 12-bit immediate
-                int immValue = Integer.parseInt(immMuxB, 2);
-                if (immMuxB.charAt(0) == '1') { // If negative, sign-extend
-                    immValue |= 0xFFFFF000;
-                }
-                immMuxB = String.format("%32s", Integer.toBinaryString(immValue)).replace(' ', '0');
-
-                // Determine memory access size based on func3
-                switch (func3) {
-                    case "000": size = "BYTE"; break;  // lb (load byte)
-                    case "001": size = "HALF"; break;  // lh (load half-word)
-                    case "010": size = "WORD"; break;  // lw (load word)
-                    case "011": size = "DOUBLE"; break; // ld (load double-word)
-                    default: throw new IllegalArgumentException("Invalid load instruction");
-                }
+            case DecodedInstruction.OP_LOAD: { // Load (lb, lh, lw, ld)
+                rd = insn.rd();
+                rs1 = insn.rs1();
+                immMuxB = insn.imm();
+                size = insn.size();
 
-                // Set ALU operation to perform address computation (ra + imm)
-                aluOp = "LOAD";
+                // Fetch rs1 value from the register file
+                ra = state.readRegister(rs1);
 
                 // Control signals
                 muxPc = false;
@@ -362,21 +378,12 @@ public class Execution {
                 break;
             }
 
-            case "1100111": {// JALR
-                rd = binary.substring(20, 25);
-                rs1 = binary.substring(12, 17);
-                func3 = binary.substring(17, 20);
-                immMuxInr = binary.substring(0, 12);
-                ra = registerFile.getOrDefault("x" + Integer.parseInt(rs1, 2), "0x00000000");
-
-                // Sign-extend immMuxB to 32-bit
-                int jalrImm = Integer.parseInt(immMuxInr, 2);
-                if (immMuxInr.charAt(0) == '1') {
-                    jalrImm |= 0xFFFFF000;
-                }
-                immMuxInr = String.format("%32s", Integer.toBinaryString(jalrImm)).replace(' ', '0');
+            case DecodedInstruction.OP_JALR: { // JALR
+                rd = insn.rd();
+                rs1 = insn.rs1();
+                immMuxInr = insn.imm();
+                ra = state.readRegister(rs1);
 
-                aluOp = "JALR";
                 muxPc = true; // selecting ra
                 muxInr = false;
                 muxMa = false; // selecting pc
@@ -388,32 +395,16 @@ public class Execution {
                 muxB = null;
                 break;
             }
-            case "0100011": { // S-Type (sb, sw, sd, sh)
-                rs1 = binary.substring(12, 17);
-                rs2 = binary.substring(7, 12);
-                func3 = binary.substring(17, 20);
-                immMuxB = binary.substring(0, 7) + binary.substring(20, 25); // Immediate field
-                ra = registerFile.getOrDefault("x" + Integer.parseInt(rs1, 2), "0x00000000");
-                rb = registerFile.getOrDefault("x" + Integer.parseInt(rs2, 2), "0x00000000");
-                rm = rb;
 
-                // Sign-extend immMuxB to 32-bit
-                int immValue = Integer.parseInt(immMuxB, 2);
-                if (immMuxB.charAt(0) == '1') { // Negative number (sign extend)
-                    immValue |= 0xFFFFF000;
-                }
-                immMuxB = String.format("%32s", Integer.toBinaryString(immValue)).replace(' ', '0');
-
-                // Determine size based on func3
-                switch (func3) {
-                    case "000": size = "BYTE"; break; // sb
-                    case "001": size = "HALF"; break; // sh
-                    case "010": size = "WORD"; break; // sw
-                    case "011": size = "DOUBLE"; break; // sd
-                    default: throw new IllegalArgumentException("Invalid S-type instruction");
-                }
+            case DecodedInstruction.OP_STORE: { // S-Type (sb, sw, sd, sh)
+                rs1 = insn.rs1();
+                rs2 = insn.rs2();
+                immMuxB = insn.imm();
+                size = insn.size();
+                ra = state.readRegister(rs1);
+                rb = state.readRegister(rs2);
+                rm = rb;
 
-                aluOp = "STORE";
                 // Control signals
                 muxPc = false;
                 muxInr = false;
@@ -424,34 +415,18 @@ public class Execution {
                 memWrite = true;
                 regWrite = false;
                 muxB = true;
-
                 break;
             }
-            case "1100011": { // SB-Type (beq, bne, bge, blt)
-                rs1 = binary.substring(12, 17);
-                rs2 = binary.substring(7, 12);
-                func3 = binary.substring(17, 20);
-                ra = registerFile.getOrDefault("x" + Integer.parseInt(rs1, 2), "0x00000000");
-                rb = registerFile.getOrDefault("x" + Integer.parseInt(rs2, 2), "0x00000000");
 
-                // Extract branch immediate & sign-extend it
-                String immRaw = binary.substring(0, 1) + binary.substring(24, 25) + binary.substring(1, 7) + binary.substring(20, 24) + "0";
-                System.out.println(immRaw);
-                int immValue = Integer.parseInt(immRaw, 2);
-                if (immRaw.charAt(0) == '1') { // Negative number (sign extend)
-                    immValue |= 0xFFFFF000;
-                }
-                immMuxInr = String.format("%32s", Integer.toBinaryString(immValue)).replace(' ', '0');
-                immMuxB = immMuxInr;
+            case DecodedInstruction.OP_BRANCH: { // SB-Type (beq, bne, bge, blt)
+                rs1 = insn.rs1();
+                rs2 = insn.rs2();
+                ra = state.readRegister(rs1);
+                rb = state.readRegister(rs2);
 
-                // Set ALU operation based on func3
-                switch (func3) {
-                    case "000": aluOp = "BEQ"; break; // beq
-                    case "001": aluOp = "BNE"; break; // bne
-                    case "100": aluOp = "BLT"; break; // blt
-                    case "101": aluOp = "BGE"; break; // bge
-                    default: throw new IllegalArgumentException("Invalid SB-type instruction");
-                }
+                immMuxInr = insn.imm();
+                immMuxB = immMuxInr;
+                out.println(toBinary(immMuxInr, 13));
 
                 // Control signals
                 muxPc = false;
@@ -463,25 +438,12 @@ public class Execution {
                 memWrite = false;
                 regWrite = false;
                 muxB = false;
-
                 break;
             }
 
-            case "0110111": { // U-Type (LUI)
-                rd = binary.substring(20, 25);
-
-                // Extract 20-bit immediate and shift left by 12 (LUI semantics)
-                int immValue = Integer.parseInt(binary.substring(0, 20), 2) << 12;
-
-                // Sign-extend to 32-bit
-                if (binary.charAt(0) == '1') { // If MSB is 1 (negative number)
-                    immValue |= 0xFFF00000; // Extend sign
-                }
-
-                immMuxB = String.format("%32s", Integer.toBinaryString(immValue)).replace(' ', '0');
-
-                // Set ALU operation
-                aluOp = "LUI";
+            case DecodedInstruction.OP_LUI: { // U-Type (LUI)
+                rd = insn.rd();
+                immMuxB = insn.imm();
 
                 // Control signals
                 muxPc = false;
@@ -493,25 +455,13 @@ public class Execution {
                 memWrite = false;
                 regWrite = true;
                 muxB = true;
-
                 break;
             }
 
-            case "0010111": { // U-Type (AUIPC)
-                rd = binary.substring(20, 25);
-                ra = pcMuxPc;
-                // Extract 20-bit immediate and shift left by 12 (AUIPC semantics)
-                int immValue = Integer.parseInt(binary.substring(0, 20), 2) << 12;
-
-                // Sign-extend to 32-bit
-                if (binary.charAt(0) == '1') { // If MSB is 1 (negative number)
-                    immValue |= 0xFFF00000; // Extend sign
-                }
-
-                immMuxB = String.format("%32s", Integer.toBinaryString(immValue)).replace(' ', '0');
-
-                // Set ALU operation
-                aluOp = "AUIPC";
+            case DecodedInstruction.OP_AUIPC: { // U-Type (AUIPC)
+                rd = insn.rd();
+                ra = state.getPc();
+                immMuxB = insn.imm();
 
                 // Control signals
                 muxPc = false;
@@ -523,28 +473,12 @@ public class Execution {
                 memWrite = false;
                 regWrite = true;
                 muxB = true;
-
                 break;
             }
 
-            case "1101111": { // UJ-Type (JAL)
-                rd = binary.substring(20, 25);
-
-                // Extract 20-bit JAL immediate and rearrange the bits correctly
-                String immBinary = binary.charAt(0) + binary.substring(12, 20) + binary.substring(11, 12) + binary.substring(1, 11) + "0";
-
-                // Convert to signed integer
-                int immValue = Integer.parseInt(immBinary, 2);
-
-                // Sign-extend to 32-bit
-                if (binary.charAt(0) == '1') { // If MSB is 1 (negative number)
-                    immValue |= 0xFFE00000; // Extend sign
-                }
-
-                immMuxInr = String.format("%32s", Integer.toBinaryString(immValue)).replace(' ', '0');
-
-                // Set ALU operation for JAL
-                aluOp = "JAL";
+            case DecodedInstruction.OP_JAL: { // UJ-Type (JAL)
+                rd = insn.rd();
+                immMuxInr = insn.imm();
 
                 // Control signals
                 muxPc = false;
@@ -556,168 +490,159 @@ public class Execution {
                 memWrite = false;
                 regWrite = true;
                 muxB = null;
+                break;
+            }
 
+            case DecodedInstruction.OP_SYSTEM: { // CSR (csrrw, csrrs, csrrc and their immediate forms)
+                rd = insn.rd();
+                rs1 = insn.rs1();
+                immMuxB = insn.imm(); // CSR number
+                ra = state.readRegister(rs1);
+
+                // Control signals
+                muxPc = false;
+                muxInr = false;
+                muxMa = false; // selecting PC
+                muxY = 0;
+                branch = false;
+                memRead = false;
+                memWrite = false;
+                regWrite = true;
+                muxB = true;
                 break;
             }
 
             default: {
-                System.out.println("Error: Unsupported opcode " + opcode);
-                return;
+                out.println("Error: Unsupported opcode " + toBinary(insn.opcode(), 7));
+                break;
             }
         }
+
+        if (aluOp == AluOp.INVALID) { // Nothing to write for an instruction we cannot execute
+            memRead = false;
+            memWrite = false;
+            regWrite = false;
+        }
     }
     
     public void execute() {
         if (aluOp == null) {
-            System.out.println("Error: ALU operation not set.");
+            out.println("Error: ALU operation not set.");
             return;
         }
 
-        // Convert ra and rb from hex to int, handling null cases
-        int op1 = (ra != null) ? Integer.parseInt(ra.substring(2), 16) : 0;
-        int op2 = 0;
+        int op1 = ra;
+        int op2;
 
-        // Choose operand based on instruction type (rb may be null for I-type and store
+        // Choose operand based on instruction type (rb may be stale for I-type and store
         // instructions)
         if (muxB != null && muxB) {
-            op2 = (immMuxB != null) ? (int) Long.parseLong(immMuxB, 2) : 0; // Immediate value for I-type & S-type
-        } else if (rb != null) {
-            op2 = (int) Long.parseLong(rb.substring(2), 16); // Register value for R-type & SB-type
+            op2 = immMuxB; // Immediate value for I-type & S-type
+        } else {
+            op2 = rb; // Register value for R-type & SB-type
         }
 
         int result = 0;
+        int currentPC = state.getPc();
 
         // Execute ALU operation
         switch (aluOp) {
-            case "ADD":
+            case ADD:
                 result = op1 + op2;
                 break;
-            case "SUB":
+            case SUB:
                 result = op1 - op2;
                 break;
-            case "MUL":
+            case MUL:
                 result = op1 * op2;
                 break;
-            case "DIV":
+            case DIV:
                 result = (op2 != 0) ? op1 / op2 : 0;
                 break;
-            case "REM":
+            case REM:
                 result = (op2 != 0) ? op1 % op2 : 0;
                 break;
-            case "AND":
+            case AND:
                 result = op1 & op2;
                 break;
-            case "OR":
+            case OR:
                 result = op1 | op2;
                 break;
-            case "XOR":
+            case XOR:
                 result = op1 ^ op2;
                 break;
-            case "SLL":
+            case SLL:
                 result = op1 << (op2 & 0x1F);
                 break; // Masking to 5 bits for shift amount
-            case "SRL":
+            case SRL:
                 result = op1 >>> (op2 & 0x1F);
                 break;
-            case "SRA":
+            case SRA:
                 result = op1 >> (op2 & 0x1F);
                 break;
-            case "SLT":
+            case SLT:
                 result = (op1 < op2) ? 1 : 0;
                 break;
-            case "LUI":
+            case LUI:
                 result = op2;
                 break; // LUI directly loads the immediate
-            case "AUIPC":
+            case AUIPC:
                 result = op1 + op2;
                 break; // AUIPC adds immediate to PC
-            case "JAL":
-                int currentPc = Integer.decode(pcMuxPc); // Get current PC value
-                int returnAddr = currentPc + 4;
-                rz = String.format("0x%08X", returnAddr);
-            
-                int imm = (int) Long.parseLong(immMuxInr, 2);
-                int targetAddress = currentPc + imm;
-                pcMuxPc = String.format("0x%08X", targetAddress);
-                System.out.println(pcMuxPc);
-            
+            case JAL: {
+                rz = currentPC + 4;
+
+                int imm = immMuxInr;
+                state.setPc(currentPC + imm);
+                out.println(MachineState.toHex(state.getPc()));
+
                 muxY = 2; // IMPORTANT: Forward return address to rd
                 condition = true;
                 break;
-            
-            case "JALR":
-                int raVal = Integer.decode(ra);
-                int currentPC = Integer.decode(pcMuxPc);
-                imm = Integer.parseInt(immMuxInr, 2);
-                targetAddress = (raVal + imm) & ~1;
-            
-                
-                returnAddr = currentPC + 4;
-                rz = String.format("0x%08X", returnAddr);
-                pcMuxPc = String.format("0x%08X", targetAddress);
-                
+            }
+            case JALR: {
+                int imm = immMuxInr;
+                int targetAddress = (ra + imm) & ~1;
+
+                rz = currentPC + 4;
+                state.setPc(targetAddress);
+
                 muxY = 2; // IMPORTANT: Forward return address to rd
                 condition = true;
                 break;
-            case "BEQ":
-                condition = (op1 == op2);
-                if (condition) {
-                    currentPC = Integer.decode(pcMuxPc);
-                    imm = (int) Long.parseLong(immMuxB,2);
-                    targetAddress = currentPC + imm;  // Update target address based on immediate
-                    pcMuxPc = String.format("0x%08X", targetAddress);
-                }else{
-                    pcMuxPc = pcTemp;
-                }
+            }
+            case BEQ:
+                takeBranch(op1 == op2);
                 break;
-            case "BNE":
-                condition = (op1 != op2);
-                if (condition) {
-                    currentPC = Integer.decode(pcMuxPc);
-                    imm = Integer.parseInt(immMuxB,2);
-                    targetAddress = currentPC + imm;  // Update target address based on immediate
-                    pcMuxPc = String.format("0x%08X", targetAddress);
-                }else{
-                    pcMuxPc = pcTemp;
-                }
+            case BNE:
+                takeBranch(op1 != op2);
                 break;
-            case "BLT":
-                condition = (op1 < op2);
-                if (condition) {
-                    currentPC = Integer.decode(pcMuxPc);
-                    imm = Integer.parseInt(immMuxB,2);
-                    targetAddress = currentPC + imm;  // Update target address based on immediate
-                    pcMuxPc = String.format("0x%08X", targetAddress);
-                }else{
-                    pcMuxPc = pcTemp;
-                }
+            case BLT:
+                takeBranch(op1 < op2);
                 break;
-            case "BGE":
-                condition = (op1 >= op2);
-                if (condition) {
-                    currentPC = Integer.decode(pcMuxPc);
-                    imm = Integer.parseInt(immMuxB,2);
-                    targetAddress = currentPC + imm;  // Update target address based on immediate
-                    pcMuxPc = String.format("0x%08X", targetAddress);
-                }else{
-                    pcMuxPc = pcTemp;
-                }
+            case BGE:
+                takeBranch(op1 >= op2);
                 break;
-            case "LOAD":
+            case LOAD:
                 result = op1 + op2;
                 break; // Compute effective address for load
-            case "STORE":
+            case STORE:
                 result = op1 + op2;
                 break; // Compute effective address for store
+            case CSRRW:
+            case CSRRS:
+            case CSRRC:
+                result = state.getCsrs().execute(current, op1);
+                break; // Old CSR value goes to rd
             default:
-                System.out.println("Error: Unsupported ALU operation " + aluOp);
+                out.println("Error: Unsupported ALU operation " + aluOp);
+                state.setPc(currentPC + 4); // Skip the instruction
                 return;
         }
 
-        if (aluOp != null && !aluOp.startsWith("J") && !aluOp.startsWith("B")) {
-            rz = "0x" + String.format("%08X", result);
-            int nextPc = Integer.decode(pcMuxPc) + 4; // Increment PC by 4 for regular instructions
-            pcMuxPc = String.format("0x%08X", nextPc); // Update pcMuxPc
+        if (!aluOp.isControlTransfer()) {
+            rz = result;
+            state.setPc(currentPC + 4); // Increment PC by 4 for regular instructions
         }
 
         // Handle branch condition (update PC if branch is taken)
@@ -727,99 +652,83 @@ public class Execution {
             }
         }
 
-        if ("LOAD".equals(aluOp) || "STORE".equals(aluOp)) {
+        if (aluOp == AluOp.LOAD || aluOp == AluOp.STORE) {
             mdr = rm;
             mar = rz;
-        } else {
-            mar = null;
         }
 
     }
 
-    public void memoryAccess() {
-        if(mar!=null) {
-            // Convert MAR to integer memory address
-            int address = Integer.parseUnsignedInt(mar.substring(2), 16);
-
-            if (memRead != null && memRead) { // Load instruction
-                StringBuilder loadedValue = new StringBuilder();
-
-                // Read memory byte-by-byte
-                switch (size) {
-                    case "BYTE":
-                        loadedValue.append(memory.getOrDefault(String.format("0x%08X", address), "00"));
-                        break;
-                    case "HALF":
-                        for (int i = 0; i < 2; i++) { // Read 2 bytes
-                            loadedValue.insert(0, memory.getOrDefault(String.format("0x%08X", address + i), "00"));
-                        }
-                        break;
-                    case "WORD":
-                        for (int i = 0; i < 4; i++) { // Read 4 bytes
-                            loadedValue.insert(0, memory.getOrDefault(String.format("0x%08X", address + i), "00"));
-                        }
-                        break;
-                    case "DOUBLE":
-                        for (int i = 0; i < 8; i++) { // Read 8 bytes
-                            loadedValue.insert(0, memory.getOrDefault(String.format("0x%08X", address + i), "00"));
-                        }
-                        break;
-                    default:
-                        System.out.println("Error: Invalid memory size for load.");
-                        return;
-                }
-
-                mdr = "0x" + loadedValue.toString().toUpperCase(); // Store value in MDR
-                System.out.println("Loaded Value (MDR): " + mdr + " from Address (MAR): " + mar);
-            }
+    private void takeBranch(boolean taken) {
+        condition = taken;
+        if (taken) {
+            int imm = immMuxB;
+            state.setPc(state.getPc() + imm); // Update target address based on immediate
+        } else {
+            state.setPc(pcTemp);
+        }
+    }
 
-            if (memWrite != null && memWrite) { // Store instruction
-                if (mdr == null) {
-                    System.out.println("Error: MDR (Memory Data Register) is null.");
+    public void memoryAccess() {
+        Memory memory = state.getMemory();
+        int address = mar;
+
+        if (memRead != null && memRead) { // Load instruction
+            switch (size) {
+                case 1: // byte
+                    mdr = memory.loadByte(address);
+                    break;
+                case 2: // half
+                    mdr = memory.loadHalf(address);
+                    break;
+                case 4: // word
+                    mdr = memory.loadWord(address);
+                    break;
+                case 8: // double
+                    mdr = (int) memory.loadDouble(address); // Registers are 32 bits wide
+                    break;
+                default:
+                    out.println("Error: Invalid memory size for load.");
                     return;
-                }
-
-                String value = mdr.substring(2); // Remove "0x" prefix
+            }
 
-                // Store memory byte-by-byte
-                switch (size) {
-                    case "BYTE":
-                        memory.put(String.format("0x%08X", address), value.substring(value.length() - 2)); // Last 2 chars
-                        break;
-                    case "HALF":
-                        for (int i = 0; i < 2; i++) { // Store 2 bytes
-                            memory.put(String.format("0x%08X", address + i), value.substring(value.length() - (2 * (i + 1)), value.length() - (2 * i)));
-                        }
-                        break;
-                    case "WORD":
-                        for (int i = 0; i < 4; i++) { // Store 4 bytes
-                            memory.put(String.format("0x%08X", address + i), value.substring(value.length() - (2 * (i + 1)), value.length() - (2 * i)));
-                        }
-                        break;
-                    case "DOUBLE":
-                        for (int i = 0; i < 8; i++) { // Store 8 bytes
-                            memory.put(String.format("0x%08X", address + i), value.substring(value.length() - (2 * (i + 1)), value.length() - (2 * i)));
-                        }
-                        break;
-                    default:
-                        System.out.println("Error: Invalid memory size for store.");
-                        return;
-                }
+            out.println("Loaded Value (MDR): " + getMdr() + " from Address (MAR): " + getMar());
+        }
 
-                System.out.println("Stored Value (MDR): " + mdr + " to Address (MAR): " + mar);
+        if (memWrite != null && memWrite) { // Store instruction
+            switch (size) {
+                case 1: // byte
+                    memory.storeByte(address, mdr);
+                    break;
+                case 2: // half
+                    memory.storeHalf(address, mdr);
+                    break;
+                case 4: // word
+                    memory.storeWord(address, mdr);
+                    break;
+                case 8: // double
+                    memory.storeDouble(address, mdr);
+                    break;
+                default:
+                    out.println("Error: Invalid memory size for store.");
+                    return;
             }
 
+            // Self-modifying code: refresh any text words the store overwrote
+            decodeCache.invalidate(address, size, memory);
+
+            out.println("Stored Value (MDR): " + getMdr() + " to Address (MAR): " + getMar());
         }
     }
 
     public void writeBack() {
         if (regWrite == null || !regWrite) {
-            System.out.println("Skipping WriteBack: regWrite is disabled.");
+            out.println("Skipping WriteBack: regWrite is disabled.");
             return;
         }
 
-        if (rd == null || rd.equals("00000")) { // x0 should not be modified
-            System.out.println("Skipping WriteBack: Destination register is x0.");
+        if (rd == 0) { // x0 should not be modified
+            out.println("Skipping WriteBack: Destination register is x0.");
             return;
         }
 
@@ -831,134 +740,594 @@ public class Execution {
             ry = pcTemp;
         }
 
-        String registerName = "x" + Integer.parseInt(rd, 2);
-        registerFile.put(registerName, ry);
-        System.out.println("WriteBack: Register " + registerName + " updated with " + ry);
+        state.writeRegister(rd, ry);
+        out.println("WriteBack: Register x" + rd + " updated with " + getRy());
     }
 
     public void completeExecution() {
-        
+        completeExecution(ExecutionBudget.STAGE_DEFAULT);
+    }
+
+    // Runs stage by stage until the program ends or the budget runs out, then
+    // prints the final state
+    public RunResult completeExecution(ExecutionBudget budget) {
+        long deadline = budget.deadlineNanos(System.nanoTime());
+        long retired = 0;
+        StopReason reason;
+
         while (true) {
-            // Fetch the instruction
-            fetch();
-            if (ir == null || ir.equals("0x00000000")) {
-                System.out.println("Terminating: No instruction (NOP or NULL) found.");
+            if (!stepStages()) {
+                reason = ir == END_OF_TEXT ? StopReason.END_OF_TEXT : StopReason.HALTED;
                 break;
             }
+            retired++;
 
-            // Decode the instruction
-            decode();
-
-            // Execute the instruction
-            execute();
-
-            // Memory access stage if needed
-            memoryAccess();
-
-            // Write back to register if needed
-            writeBack();
+            if (Thread.currentThread().isInterrupted()) {
+                throw new CancellationException("Execution interrupted");
+            }
 
             // Prompt user to continue to next step
-            System.out.println("--------------------------------------------------");
+            out.println("--------------------------------------------------");
+            out.flush(); // A streamed log goes out step by step
 
-            if (clock > 5000) { // Safety limit to prevent infinite loops
+            if (retired >= budget.maxInstructions()) { // Safety limit to prevent infinite loops
                 System.err.println("Error: Maximum clock cycles exceeded.");
+                reason = StopReason.INSTRUCTION_LIMIT;
+                break;
+            }
+            if (deadline != FastInterpreter.NO_DEADLINE && System.nanoTime() - deadline >= 0) {
+                System.err.println("Error: Time limit exceeded.");
+                reason = StopReason.TIME_LIMIT;
                 break;
             }
+            if (state.getMemory().getPageCount() > budget.maxPages()) {
+                System.err.println("Error: Memory limit exceeded.");
+                reason = StopReason.MEMORY_LIMIT;
+                break;
+            }
+        }
+
+        out.println("Stop Reason: " + reason);
+        printReports();
+        printFinalState();
+        return new RunResult(retired, state.getPc(), reason);
+    }
+
+    // Takes the instruction at PC through every stage, logging each, and
+    // retires it; returns false instead if the word there ends the program
+    public boolean stepStages() {
+        // Fetch the instruction
+        fetch();
+        if (ir == 0) {
+            out.println("Terminating: No instruction (NOP or NULL) found.");
+            return false;
+        }
+        if (ir == END_OF_TEXT) {
+            out.println("Terminating: End of text segment reached.");
+            return false;
+        }
+
+        // Decode the instruction
+        decode();
+
+        // Execute the instruction
+        execute();
+
+        // Memory access stage if needed
+        memoryAccess();
+
+        // Write back to register if needed
+        writeBack();
+
+        state.getCsrs().retire(1);
+        notifyRetired();
+        if (cacheModel != null) {
+            // Cycles spent filling cache lines count towards the next fetch's clock
+            clock += cacheModel.lastFetchPenalty() + cacheModel.lastDataPenalty();
+        }
+        return true;
+    }
+
+    private void notifyRetired() {
+        if (listeners.isEmpty() && profiler == null) {
+            return;
+        }
+        boolean memory = aluOp == AluOp.LOAD || aluOp == AluOp.STORE;
+        int value = aluOp == AluOp.STORE ? mdr : state.readRegister(current.rd());
+        for (RetireListener listener : listeners) {
+            listener.retired(pcTemp - 4, current, state.getPc(), memory ? mar : 0, value);
+        }
+        if (profiler != null) {
+            profiler.retired(pcTemp - 4, current, state.getPc(), memory ? mar : 0, value);
+        }
+    }
+
+    public void addRetireListener(RetireListener listener) {
+        listeners.add(listener);
+    }
+
+    // Printed after the run, before the final state
+    public void addReport(RunReport report) {
+        reports.add(report);
+    }
+
+    // Models pipelined timing for the rest of the run and reports it at the end
+    public PipelineModel enablePipelineModel(PipelineConfig config) {
+        pipelineModel = new PipelineModel(config);
+        if (branchUnit != null) {
+            // The pipeline drives the predictor so it sees each outcome first
+            listeners.remove(branchUnit);
+            pipelineModel.setBranchPredictionUnit(branchUnit);
+        }
+        if (cacheModel != null) {
+            listeners.remove(cacheModel);
+            pipelineModel.setCacheModel(cacheModel);
+        }
+        addRetireListener(pipelineModel);
+        addReport(pipelineModel);
+        return pipelineModel;
+    }
+
+    // Predicts every jump and branch for the rest of the run and reports the
+    // accuracy at the end; with a pipeline model, only mispredicts flush
+    public BranchPredictionUnit enableBranchPrediction(BranchPredictor predictor, int btbEntries, int rasDepth) {
+        branchUnit = new BranchPredictionUnit(predictor, btbEntries, rasDepth);
+        if (pipelineModel != null) {
+            pipelineModel.setBranchPredictionUnit(branchUnit);
+        } else {
+            addRetireListener(branchUnit);
+        }
+        addReport(branchUnit);
+        return branchUnit;
+    }
+
+    // Sends fetches, loads and stores through split L1 caches for the rest of
+    // the run and reports their hit rates at the end; miss penalties are added
+    // to the clock and, with a pipeline model, to its timing
+    public CacheModel enableCaches(CacheConfig instructionCache, CacheConfig dataCache) {
+        cacheModel = new CacheModel(instructionCache, dataCache, dataLabels);
+        if (pipelineModel != null) {
+            pipelineModel.setCacheModel(cacheModel);
+        } else {
+            addRetireListener(cacheModel);
         }
+        addReport(cacheModel);
+        return cacheModel;
+    }
+
+    // Profiles the rest of the run by PC, label and call stack and prints the
+    // profile at the end. Kept apart from the listeners so fast runs can feed
+    // it whole blocks.
+    public Profiler enableProfiler() {
+        profiler = new Profiler(textLabels);
+        addReport(profiler);
+        return profiler;
+    }
+
+    // Backs the cycle and event counter CSRs with whichever models are enabled:
+    // cycles come from the pipeline model, or one per instruction plus cache
+    // stalls; hpmcounter3 counts branch mispredictions, 4 and 5 I- and D-cache
+    // misses and 6 pipeline stall cycles
+    private final class ModelCounters implements CounterSource {
+        @Override
+        public long cycles(long instret) {
+            if (pipelineModel != null) {
+                return pipelineModel.getCycles();
+            }
+            return instret + (cacheModel != null ? cacheModel.getStallCycles() : 0);
+        }
+
+        @Override
+        public long event(int counter) {
+            switch (counter) {
+                case 3:
+                    return branchUnit != null ? branchUnit.getMispredictions() : 0;
+                case 4:
+                    return cacheModel != null ? cacheModel.getInstructionCache().getMisses() : 0;
+                case 5:
+                    return cacheModel != null ? cacheModel.getDataCache().getMisses() : 0;
+                case 6:
+                    return pipelineModel != null ? pipelineModel.getStallCycles() : 0;
+                default:
+                    return 0;
+            }
+        }
+    }
+
+    private void printReports() {
+        for (RunReport report : reports) {
+            report.printReport(out);
+        }
+    }
+
+    // Functional run without datapath latches or per-cycle output. Stops at the
+    // same halts as completeExecution(), or after FAST_MAX_INSTRUCTIONS.
+    public RunResult runFast() {
+        return runFast(ExecutionBudget.FAST_DEFAULT);
+    }
+
+    public RunResult runFast(ExecutionBudget budget) {
+        return newFastInterpreter().run(budget);
+    }
 
+    // Functional interpreter over this machine's state, for callers such as
+    // SliceScheduler that drive the run themselves
+    public FastInterpreter newFastInterpreter() {
+        FastInterpreter interpreter = new FastInterpreter(state, decodeCache, blockCache);
+        for (RetireListener listener : listeners) {
+            interpreter.addRetireListener(listener);
+        }
+        interpreter.setProfiler(profiler);
+        return interpreter;
+    }
+
+    // Stage-by-stage run with the per-cycle log, or a fast run that only
+    // reports the retired count, why it stopped and the final state
+    public RunResult run(boolean fast, ExecutionBudget budget) {
+        if (!fast) {
+            return completeExecution(budget);
+        }
+        RunResult result = runFast(budget);
+        printFastResult(result);
+        return result;
+    }
+
+    public void printFastResult(RunResult result) {
+        out.println("Instructions Retired: " + result.instructionsRetired());
+        out.println("Stop Reason: " + result.reason());
+        printReports();
+        printFinalState();
+    }
+
+    // Makes printFinalState() list every mapped byte, not only those the run changed
+    public void setFullMemoryDump(boolean fullMemoryDump) {
+        this.fullMemoryDump = fullMemoryDump;
+    }
 
-        System.out.println("Register File State:");
-        TreeMap<Integer, String> sortedRegs = new TreeMap<>();
+    // Register file, then the bytes that differ from the loaded listing (or
+    // every mapped byte with setFullMemoryDump), so unchanged text and data
+    // are not repeated back
+    public void printFinalState() {
+        printRegisterFile();
+        out.println("\nFinal Memory State:");
+        printMemoryChanges();
+    }
+
+    public void printMemoryChanges() {
+        Memory memory = state.getMemory();
+        boolean all = fullMemoryDump || loadedImage == null;
+        printBytes(all ? memory.mappedAddresses() : memory.changedAddresses(loadedImage));
+    }
+
+    // Mapped bytes in [start, start + length), for inspecting a region on demand
+    public void printMemoryRange(int start, int length) {
+        if (length < 0 || length > MAX_MEMORY_RANGE) {
+            throw new IllegalArgumentException("Memory ranges hold 0 to " + MAX_MEMORY_RANGE + " bytes");
+        }
+        Memory memory = state.getMemory();
+        int[] addresses = new int[length];
+        int count = 0;
+        for (int i = 0; i < length; i++) {
+            if (memory.isMapped(start + i)) {
+                addresses[count++] = start + i;
+            }
+        }
+        printBytes(Arrays.copyOf(addresses, count));
+    }
+
+    private void printBytes(int[] addresses) {
+        Memory memory = state.getMemory();
+        for (int address : addresses) {
+            out.printf("0x%08X: %02X%n", address, memory.loadByte(address));
+        }
+    }
+
+    private void printRegisterFile() {
+        out.println("Register File State:");
         for (int i = 0; i < 32; i++) {
-            sortedRegs.put(i, registerFile.get("x" + i));
+            out.printf("  x%d: %s ", i, MachineState.toHex(state.readRegister(i)));
+            if ((i + 1) % 4 == 0) out.println(); // Newline every 4 registers
         }
-        for (Map.Entry<Integer, String> entry : sortedRegs.entrySet()) {
-            System.out.printf("  x%d: %s ", entry.getKey(), entry.getValue());
-            if ((entry.getKey() + 1) % 4 == 0) System.out.println(); // Newline every 4 registers
+    }
+
+    // Reversible run over this machine's state from where it is now,
+    // checkpointed every interval instructions
+    public History newHistory(int interval) {
+        return new History(state, decodeCache, new FastInterpreter(state, decodeCache, blockCache), interval);
+    }
+
+    // Prints steps [from, from + count) of history's run in the datapath log's
+    // format, then the position reached, the stop reason if the program has
+    // halted, and the register file. History runs, or restores a checkpoint,
+    // only as far as the window needs. Clock cycles count instructions, since
+    // no timing models are attached. Returns the number of steps printed.
+    public int printSteps(History history, long from, int count) {
+        history.seek(from);
+        int printed = 0;
+        int[] regs = state.getRegisters();
+        while (printed < count && history.getPosition() == from + printed && !history.isHalted()) {
+            int pc = state.getPc();
+            DecodedInstruction insn = decodeCache.lookup(pc);
+            int address = regs[insn.rs1()] + insn.imm();
+            int stored = regs[insn.rs2()];
+            history.stepForward(1);
+            printed++;
+
+            out.println("PC: " + MachineState.toHex(pc));
+            out.println("Clock Cycle: " + (from + printed));
+            out.println("Instruction Register (IR): " + String.format("0X%08X", insn.word()));
+            if (insn.writesRegister()) {
+                out.println("WriteBack: Register x" + insn.rd() + " updated with "
+                        + MachineState.toHex(regs[insn.rd()]));
+            }
+            if (insn.aluOp() == AluOp.STORE) {
+                out.println("Stored Value (MDR): " + MachineState.toHex(stored) + " to Address (MAR): "
+                        + MachineState.toHex(address));
+            }
+            out.println("--------------------------------------------------");
+        }
+        out.println("Position: " + history.getPosition());
+        if (history.isHalted()) {
+            int word = decodeCache.readWord(state.getPc());
+            out.println("Stop Reason: " + (word == END_OF_TEXT ? StopReason.END_OF_TEXT : StopReason.HALTED));
         }
-        if (sortedRegs.size() % 4 != 0) System.out.println(); // Ensure final newline
-        TreeMap<String, String> sortedMap = new TreeMap<>(memory);
-        System.out.println("\nFinal Memory State:");
-        for (String addr : sortedMap.keySet()) {
-        System.out.println(addr + ": " + sortedMap.get(addr));
+        printRegisterFile();
+        return printed;
+    }
+
+    // Interactive debugger reading one command per line: "step [n]", "back [n]",
+    // "seek <position>", "regs" or "quit". Each move prints where it ended up.
+    public void debug(BufferedReader in, int interval) throws IOException {
+        History history = newHistory(interval);
+        String line;
+        while ((line = in.readLine()) != null) {
+            String[] words = line.trim().split("\\s+");
+            try {
+                long count = words.length > 1 ? Long.parseLong(words[1]) : 1;
+                switch (words[0]) {
+                    case "step":
+                    case "s":
+                        history.stepForward(count);
+                        break;
+                    case "back":
+                    case "b":
+                        history.stepBack(count);
+                        break;
+                    case "seek":
+                    case "g":
+                        if (words.length < 2) {
+                            out.println("Usage: seek <position>");
+                            continue;
+                        }
+                        history.seek(count);
+                        break;
+                    case "regs":
+                    case "r":
+                        printRegisterFile();
+                        continue;
+                    case "quit":
+                    case "q":
+                        return;
+                    case "":
+                        continue;
+                    default:
+                        out.println("Unknown command: " + words[0]);
+                        continue;
+                }
+            } catch (IllegalArgumentException e) {
+                out.println("Error: " + e.getMessage());
+                continue;
+            }
+            int pc = state.getPc();
+            out.println("Position: " + history.getPosition() + ", PC: " + MachineState.toHex(pc) + ", IR: "
+                    + MachineState.toHex(decodeCache.readWord(pc)) + (history.isHalted() ? " (halted)" : ""));
         }
     }
 
     public void parseMachineCodeFromFile(String filePath) {
-        HashMap<String, String> textSegment = new HashMap<>();
-        HashMap<String, String> memoryMap = new HashMap<>();
+        try (BufferedReader br = new BufferedReader(new FileReader(filePath))) {
+            parseMachineCode(br);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Loads a listing in the format the assembler writes: "0x<address> 0x<word>"
+    // text lines up to the end marker, then "0x<address> 0x<byte>" data lines
+    public void parseMachineCode(BufferedReader br) throws IOException {
+        Memory memory = state.getMemory();
+        releaseLoadedImage();
+        memory.clear();
+        decodeCache.clear();
+        dataLabels.clear();
+        textLabels.clear();
         boolean isMemorySection = false;
 
-        try (BufferedReader br = new BufferedReader(new FileReader(filePath))) {
-            String line;
+        String line;
+        while ((line = br.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty())
+                continue;
+            if (line.startsWith("#")) {
+                if (!dataLabels.parse(line)) {
+                    textLabels.parse(line);
+                }
+                continue;
+            }
+
+            String[] parts = line.split("\\s+", 3);
+            if (parts.length >= 2 && parts[0].startsWith("0x") && parts[1].startsWith("0x")) {
+                int address = Integer.parseUnsignedInt(parts[0].substring(2), 16);
+                int value = Integer.parseUnsignedInt(parts[1].substring(2), 16);
 
-            while ((line = br.readLine()) != null) {
-                line = line.trim();
-                if (line.isEmpty() || line.startsWith("#"))
+                // Detect end of instructions section
+                if (value == END_OF_TEXT && !isMemorySection) {
+                    decodeCache.putWord(address, value);
+                    isMemorySection = true;
                     continue;
+                }
 
-                String[] parts = line.split("\\s+", 3);
-                if (parts.length >= 2) {
-                    String pc = parts[0];
-                    String instruction = parts[1];
-
-                    // Detect end of instructions section
-                    if (instruction.equalsIgnoreCase("0xdeadbeef")) {
-                        try {
-                            int pcInt = Integer.parseUnsignedInt(pc.replace("0x", ""), 16);
-                            pc = String.format("0x%08X", pcInt);
-                        } catch (NumberFormatException ignored) {
-                        }
-                        textSegment.put(pc, instruction.toUpperCase());
-                        isMemorySection = true;
-                        continue;
-                    }
+                if (!isMemorySection) {
+                    decodeCache.putWord(address, value);
 
-                    if (!isMemorySection) {
-                        if (pc.startsWith("0x")) {
-                            int pcInt = Integer.parseUnsignedInt(pc.replace("0x", ""), 16);
-                            pc = String.format("0x%08X", pcInt);
-                            textSegment.put(pc, instruction.toUpperCase());
-
-                            // Add instruction bytes to memory map (little endian)
-                            String instrHex = instruction.replace("0x", "").toUpperCase();
-                            instrHex = String.format("%8s", instrHex).replace(' ', '0'); // pad to 8 digits
-
-                            for (int i = 0; i < 4; i++) {
-                                String byteHex = instrHex.substring(6 - i * 2, 8 - i * 2);
-                                String byteAddress = String.format("0x%08X", pcInt + i);
-                                memoryMap.put(byteAddress, byteHex);
-                            }
-                        }
-                    } else {
-                        if (pc.startsWith("0x") && instruction.startsWith("0x")) {
-                            memoryMap.put("0x" + pc.replace("0x", "").toUpperCase(),
-                                    instruction.replace("0x", "").toUpperCase());
-                        }
-                    }
+                    // Mirror instruction bytes into memory (little endian)
+                    memory.storeWord(address, value);
+                } else {
+                    memory.storeByte(address, value);
                 }
             }
-        } catch (IOException e) {
-            e.printStackTrace();
         }
 
-        setTextSegment(textSegment);
-        memory = memoryMap;
-        System.out.println("Parsing done.");
+        blockCache.discover();
+        loadedImage = memory.snapshot();
+        out.println("Parsing done.");
+    }
+
+    private void releaseLoadedImage() {
+        if (loadedImage != null) {
+            state.getMemory().release(loadedImage);
+            loadedImage = null;
+        }
     }
 
-    public static void main(String[] args) {
-        if (args.length != 1) {
-            System.out.println("Usage: java Assembler <output file>");
+    public static void main(String[] args) throws IOException {
+        boolean fast = false;
+        String traceFile = null;
+        String outputFile = null;
+        // The instruction limit defaults per engine, once --fast is known
+        ExecutionBudget budget = ExecutionBudget.FAST_DEFAULT;
+        boolean instructionLimit = false;
+        PipelineConfig pipeline = null;
+        String predictor = null;
+        int predictorBits = BranchPredictionUnit.DEFAULT_INDEX_BITS;
+        int btbEntries = BranchPredictionUnit.DEFAULT_BTB_ENTRIES;
+        int rasDepth = BranchPredictionUnit.DEFAULT_RAS_DEPTH;
+        CacheConfig icache = null;
+        CacheConfig dcache = null;
+        boolean profile = false;
+        boolean debug = false;
+        int checkpointInterval = 0;
+        boolean fullMemory = false;
+        // Options that only affect a run, which the debugger does not do
+        ArrayList<String> runOptions = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                boolean hasValue = i + 1 < args.length;
+                if (args[i].startsWith("--") && !args[i].equals("--debug")
+                        && !args[i].equals("--checkpoint-interval")) {
+                    runOptions.add(args[i]);
+                }
+                if (args[i].equals("--fast")) {
+                    fast = true;
+                } else if (args[i].equals("--trace") && hasValue) {
+                    traceFile = args[++i];
+                } else if (args[i].equals("--max-instructions") && hasValue) {
+                    budget = budget.withMaxInstructions(Long.parseLong(args[++i]));
+                    instructionLimit = true;
+                } else if (args[i].equals("--max-millis") && hasValue) {
+                    budget = budget.withMaxMillis(Long.parseLong(args[++i]));
+                } else if (args[i].equals("--max-pages") && hasValue) {
+                    budget = budget.withMaxPages(Integer.parseInt(args[++i]));
+                } else if (args[i].equals("--pipeline")) {
+                    pipeline = pipeline == null ? PipelineConfig.DEFAULT : pipeline;
+                } else if (args[i].equals("--forwarding") && hasValue) {
+                    pipeline = (pipeline == null ? PipelineConfig.DEFAULT : pipeline)
+                            .withForwarding(PipelineConfig.Forwarding.valueOf(args[++i].toUpperCase()));
+                } else if (args[i].equals("--branch-in-id")) {
+                    pipeline = (pipeline == null ? PipelineConfig.DEFAULT : pipeline).withResolveBranchesInId(true);
+                } else if (args[i].equals("--mul-latency") && hasValue) {
+                    pipeline = (pipeline == null ? PipelineConfig.DEFAULT : pipeline)
+                            .withMulLatency(Integer.parseInt(args[++i]));
+                } else if (args[i].equals("--div-latency") && hasValue) {
+                    pipeline = (pipeline == null ? PipelineConfig.DEFAULT : pipeline)
+                            .withDivLatency(Integer.parseInt(args[++i]));
+                } else if (args[i].equals("--predictor") && hasValue) {
+                    predictor = args[++i];
+                } else if (args[i].equals("--predictor-bits") && hasValue) {
+                    predictorBits = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("--btb-entries") && hasValue) {
+                    btbEntries = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("--ras-depth") && hasValue) {
+                    rasDepth = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("--profile")) {
+                    profile = true;
+                } else if (args[i].equals("--full-memory")) {
+                    fullMemory = true;
+                } else if (args[i].equals("--debug")) {
+                    debug = true;
+                } else if (args[i].equals("--checkpoint-interval") && hasValue) {
+                    checkpointInterval = Integer.parseInt(args[++i]);
+                    if (checkpointInterval <= 0) {
+                        throw new IllegalArgumentException("Checkpoint interval must be positive");
+                    }
+                } else if (args[i].equals("--cache")) {
+                    icache = icache == null ? CacheConfig.DEFAULT : icache;
+                    dcache = dcache == null ? CacheConfig.DEFAULT : dcache;
+                } else if (args[i].equals("--icache") && hasValue) {
+                    icache = CacheConfig.parse(args[++i]);
+                    dcache = dcache == null ? CacheConfig.DEFAULT : dcache;
+                } else if (args[i].equals("--dcache") && hasValue) {
+                    dcache = CacheConfig.parse(args[++i]);
+                    icache = icache == null ? CacheConfig.DEFAULT : icache;
+                } else if (outputFile == null && !args[i].startsWith("--")) {
+                    outputFile = args[i];
+                } else {
+                    outputFile = null;
+                    break;
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            outputFile = null;
+        }
+        if (outputFile == null) {
+            System.out.println("Usage: java Execution [--fast] [--trace <trace file>] [--max-instructions <n>]"
+                    + " [--max-millis <n>] [--max-pages <n>] [--pipeline] [--forwarding none|mem_wb|full]"
+                    + " [--branch-in-id] [--mul-latency <n>] [--div-latency <n>]"
+                    + " [--predictor static|1bit|2bit|gshare|tournament] [--predictor-bits <n>]"
+                    + " [--btb-entries <n>] [--ras-depth <n>] [--cache]"
+                    + " [--icache <size>[:ways[:line[:lru|fifo|random[:wb|wt[:penalty]]]]]] [--dcache <same>]"
+                    + " [--profile] [--full-memory] [--debug [--checkpoint-interval <n>]] <output file>");
+            return;
+        }
+        if (debug && !runOptions.isEmpty()) {
+            System.out.println("--debug cannot be combined with " + String.join(", ", runOptions)
+                    + ": the debugger runs the program without timing models, traces, profiles or budgets");
             return;
         }
-        
-        String outputFile = args[0];
+        if (!debug && checkpointInterval != 0) {
+            System.out.println("--checkpoint-interval applies only with --debug");
+            return;
+        }
+        if (!fast && !instructionLimit) {
+            budget = budget.withMaxInstructions(ExecutionBudget.STAGE_DEFAULT.maxInstructions());
+        }
 
         Execution cpu = new Execution();
         cpu.parseMachineCodeFromFile(outputFile);
-        cpu.completeExecution();
+        if (debug) {
+            cpu.debug(new BufferedReader(new InputStreamReader(System.in)),
+                    checkpointInterval != 0 ? checkpointInterval : History.DEFAULT_INTERVAL);
+            return;
+        }
+        // The trace is closed, and so flushed, even if the run throws
+        try (TraceWriter trace = traceFile == null ? null : new TraceWriter(Paths.get(traceFile))) {
+            if (trace != null) {
+                cpu.addRetireListener(trace);
+            }
+            if (pipeline != null) {
+                cpu.enablePipelineModel(pipeline);
+            }
+            if (predictor != null) {
+                cpu.enableBranchPrediction(BranchPredictor.create(predictor, predictorBits), btbEntries, rasDepth);
+            }
+            if (icache != null) {
+                cpu.enableCaches(icache, dcache);
+            }
+            if (profile) {
+                cpu.enableProfiler();
+            }
+            cpu.setFullMemoryDump(fullMemory);
+            cpu.run(fast, budget);
+        }
     }
-
-}
\ No newline at end of file
+}
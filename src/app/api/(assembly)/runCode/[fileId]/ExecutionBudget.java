@@ -0,0 +1,59 @@
+// Limits for one run: instructions retired, wall-clock milliseconds and
+// memory pages touched (Memory.PAGE_SIZE bytes each). UNLIMITED disables a limit.
+// The stage-by-stage engine checks every limit after each instruction. The
+// fast engines check pages after each basic block (each instruction when
+// stepping) and the clock every FastInterpreter.CHECK_INTERVAL (16384)
+// instructions, at the next block boundary: a fast run can overshoot its page
+// limit by one block's stores and its time limit by the time those
+// instructions take, plus one block.
+public record ExecutionBudget(long maxInstructions, long maxMillis, int maxPages) {
+
+    public static final long UNLIMITED = Long.MAX_VALUE;
+    // Default instruction limit of the fast engines: enough for long benchmark
+    // programs, while one that never halts still stops
+    public static final long FAST_MAX_INSTRUCTIONS = 1L << 32;
+
+    // The historical safety net of the stage-by-stage engine, whose per-cycle
+    // log makes longer runs impractical: MAX_CLOCK_CYCLES cycles, counted the
+    // way completeExecution() always has, with no time or memory limit
+    public static final ExecutionBudget STAGE_DEFAULT =
+            new ExecutionBudget(Execution.MAX_CLOCK_CYCLES + 1, UNLIMITED, Integer.MAX_VALUE);
+    public static final ExecutionBudget FAST_DEFAULT =
+            new ExecutionBudget(FAST_MAX_INSTRUCTIONS, UNLIMITED, Integer.MAX_VALUE);
+
+    public ExecutionBudget {
+        if (maxInstructions < 0 || maxMillis < 0 || maxPages < 0) {
+            throw new IllegalArgumentException("Budget limits must not be negative");
+        }
+    }
+
+    // The default for the fast engines or the stage-by-stage one
+    public static ExecutionBudget defaultFor(boolean fast) {
+        return fast ? FAST_DEFAULT : STAGE_DEFAULT;
+    }
+
+    public static ExecutionBudget instructions(long maxInstructions) {
+        return new ExecutionBudget(maxInstructions, UNLIMITED, Integer.MAX_VALUE);
+    }
+
+    public ExecutionBudget withMaxInstructions(long maxInstructions) {
+        return new ExecutionBudget(maxInstructions, maxMillis, maxPages);
+    }
+
+    public ExecutionBudget withMaxMillis(long maxMillis) {
+        return new ExecutionBudget(maxInstructions, maxMillis, maxPages);
+    }
+
+    public ExecutionBudget withMaxPages(int maxPages) {
+        return new ExecutionBudget(maxInstructions, maxMillis, maxPages);
+    }
+
+    // System.nanoTime() value after which a run that starts at startNanos is out
+    // of time, or FastInterpreter.NO_DEADLINE if time is unlimited
+    public long deadlineNanos(long startNanos) {
+        if (maxMillis == UNLIMITED || maxMillis > Long.MAX_VALUE / 2_000_000) {
+            return FastInterpreter.NO_DEADLINE;
+        }
+        return startNanos + maxMillis * 1_000_000;
+    }
+}
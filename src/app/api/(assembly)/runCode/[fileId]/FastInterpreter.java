@@ -0,0 +1,353 @@
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+
+// Functional-only execution of decoded instructions against a MachineState.
+// Unlike the stage-by-stage datapath in Execution it keeps no latches or
+// control signals and prints nothing; only architectural state changes.
+// run() dispatches whole basic blocks; step() executes a single instruction.
+// With the JIT on (setJitThreshold()), blocks that have run jitThreshold times
+// are handed to BlockCompiler and run as JVM bytecode from then on. Cold
+// blocks, blocks that fail to compile and blocks dropped because the text
+// changed stay with the interpreter. The JIT is off by default: each compiled
+// block still returns to dispatch() and goes through JitRuntime for memory,
+// which leaves it slower than the block interpreter on most of the corpus.
+public class FastInterpreter {
+
+    // The threshold used when the JIT is turned on
+    public static final int JIT_THRESHOLD = 50;
+    public static final long NO_DEADLINE = Long.MAX_VALUE;
+    // Instructions between checks of the clock and the interrupt flag
+    private static final int CHECK_INTERVAL = 1 << 14;
+
+    private final MachineState state;
+    private final DecodeCache decodeCache;
+    private final BlockCache blockCache;
+    private final JitRuntime jitRuntime;
+    private final BlockCompiler compiler = new BlockCompiler();
+    private int jitThreshold = 0;
+    private RetireListener[] listeners = new RetireListener[0];
+    private Profiler profiler = null;
+
+    // Instructions retired by the last executeBlock() call
+    private int blockRetired;
+
+    FastInterpreter(MachineState state, DecodeCache decodeCache, BlockCache blockCache) {
+        this.state = state;
+        this.decodeCache = decodeCache;
+        this.blockCache = blockCache;
+        this.jitRuntime = new JitRuntime(state.getMemory(), decodeCache);
+    }
+
+    // Listeners see every retired instruction, so while any are registered
+    // run() steps one instruction at a time instead of using blocks
+    public void addRetireListener(RetireListener listener) {
+        listeners = Arrays.copyOf(listeners, listeners.length + 1);
+        listeners[listeners.length - 1] = listener;
+    }
+
+    // Unlike a listener, the profiler is fed whole blocks, so profiled runs
+    // keep the block dispatch and, if on, the JIT
+    public void setProfiler(Profiler profiler) {
+        this.profiler = profiler;
+    }
+
+    // Executions before a block is compiled; 0 disables the JIT
+    public void setJitThreshold(int jitThreshold) {
+        this.jitThreshold = jitThreshold;
+    }
+
+    // True if the word at pc ends the program (empty slot or end-of-text marker)
+    public static boolean isHalt(int word) {
+        return word == 0 || word == Execution.END_OF_TEXT;
+    }
+
+    // Runs until the program halts or maxInstructions have retired
+    public RunResult run(long maxInstructions) {
+        return run(maxInstructions, NO_DEADLINE, Integer.MAX_VALUE);
+    }
+
+    // Runs until the program halts or the budget runs out. Calling it again
+    // after a budget stop resumes where the previous run left off.
+    public RunResult run(ExecutionBudget budget) {
+        return run(budget.maxInstructions(), budget.deadlineNanos(System.nanoTime()), budget.maxPages());
+    }
+
+    // deadline is a System.nanoTime() value, or NO_DEADLINE
+    RunResult run(long maxInstructions, long deadline, int maxPages) {
+        Memory memory = state.getMemory();
+        long retired = 0;
+        long nextCheck = CHECK_INTERVAL;
+        if (listeners.length > 0) {
+            while (retired < maxInstructions && step()) {
+                retired++;
+                if (retired >= nextCheck) {
+                    nextCheck = retired + CHECK_INTERVAL;
+                    if (outOfTime(deadline)) {
+                        return new RunResult(retired, state.getPc(), StopReason.TIME_LIMIT);
+                    }
+                }
+                if (memory.getPageCount() > maxPages) {
+                    return new RunResult(retired, state.getPc(), StopReason.MEMORY_LIMIT);
+                }
+            }
+            return finish(retired, maxInstructions);
+        }
+
+        int pc = state.getPc();
+        while (retired < maxInstructions) {
+            BasicBlock block = blockCache.lookup(pc);
+            if (block == null) {
+                break; // Halt at pc
+            }
+            if (block.length() > maxInstructions - retired) {
+                // Budget ends inside this block: finish one instruction at a time
+                state.setPc(pc);
+                while (retired < maxInstructions && step()) {
+                    retired++;
+                }
+                return finish(retired, maxInstructions);
+            }
+            pc = dispatch(block);
+            retired += blockRetired;
+            state.getCsrs().retire(blockRetired);
+            if (profiler != null) {
+                profiler.retiredBlock(block, blockRetired, pc);
+            }
+            if (retired >= nextCheck) {
+                nextCheck = retired + CHECK_INTERVAL;
+                if (outOfTime(deadline)) {
+                    state.setPc(pc);
+                    return new RunResult(retired, pc, StopReason.TIME_LIMIT);
+                }
+            }
+            if (memory.getPageCount() > maxPages) {
+                state.setPc(pc);
+                return new RunResult(retired, pc, StopReason.MEMORY_LIMIT);
+            }
+        }
+        state.setPc(pc);
+        return finish(retired, maxInstructions);
+    }
+
+    // Result for a run that stopped at a halt or at its instruction limit
+    private RunResult finish(long retired, long maxInstructions) {
+        int pc = state.getPc();
+        int word = decodeCache.readWord(pc);
+        StopReason reason;
+        if (isHalt(word)) {
+            reason = word == Execution.END_OF_TEXT ? StopReason.END_OF_TEXT : StopReason.HALTED;
+        } else {
+            reason = StopReason.INSTRUCTION_LIMIT;
+        }
+        return new RunResult(retired, pc, reason);
+    }
+
+    // Also where a caller that owns the thread can cancel a long run by interrupting it
+    private static boolean outOfTime(long deadline) {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new CancellationException("Execution interrupted");
+        }
+        return deadline != NO_DEADLINE && System.nanoTime() - deadline >= 0;
+    }
+
+    // Runs block compiled if it is hot enough, interpreted otherwise
+    private int dispatch(BasicBlock block) {
+        CompiledBlock compiled = block.getCompiled();
+        if (compiled == null) {
+            if (jitThreshold <= 0 || block.countExecution() != jitThreshold) {
+                return executeBlock(block);
+            }
+            compiled = compiler.compile(block);
+            if (compiled == null) {
+                return executeBlock(block);
+            }
+            block.setCompiled(compiled);
+        }
+        try {
+            int next = compiled.run(state.getRegisters(), jitRuntime);
+            blockRetired = block.length();
+            return next;
+        } catch (JitRuntime.TextModified e) {
+            // The store completed; the rest of the block may be stale
+            blockRetired = (jitRuntime.modifiedPc - block.getStartPc()) / 4 + 1;
+            return jitRuntime.modifiedPc + 4;
+        }
+    }
+
+    // Executes block and returns the next PC. A store that rewrites the text
+    // segment ends the block right after the store so no stale decode runs.
+    private int executeBlock(BasicBlock block) {
+        DecodedInstruction[] body = block.getInstructions();
+        int version = decodeCache.getVersion();
+        int pc = block.getStartPc();
+        for (int i = 0; i < body.length; i++) {
+            DecodedInstruction insn = body[i];
+            pc = execute(insn, pc);
+            if (insn.opcode() == DecodedInstruction.OP_STORE && decodeCache.getVersion() != version) {
+                blockRetired = i + 1;
+                return pc;
+            }
+        }
+        blockRetired = body.length;
+        return pc;
+    }
+
+    // Executes the instruction at PC; returns false without changing state if it halts
+    public boolean step() {
+        int pc = state.getPc();
+        DecodedInstruction insn = decodeCache.lookup(pc);
+        if (isHalt(insn.word())) {
+            return false;
+        }
+        if (listeners.length == 0) {
+            int next = execute(insn, pc);
+            state.setPc(next);
+            state.getCsrs().retire(1);
+            if (profiler != null) {
+                profiler.retired(pc, insn, next, 0, 0);
+            }
+            return true;
+        }
+
+        int[] regs = state.getRegisters();
+        int address = regs[insn.rs1()] + insn.imm(); // Before a load can overwrite rs1
+        int stored = regs[insn.rs2()];
+        int next = execute(insn, pc);
+        state.setPc(next);
+        state.getCsrs().retire(1);
+        boolean memory = insn.aluOp() == AluOp.LOAD || insn.aluOp() == AluOp.STORE;
+        int value = insn.aluOp() == AluOp.STORE ? stored : regs[insn.rd()];
+        for (RetireListener listener : listeners) {
+            listener.retired(pc, insn, next, memory ? address : 0, value);
+        }
+        if (profiler != null) {
+            profiler.retired(pc, insn, next, memory ? address : 0, value);
+        }
+        return true;
+    }
+
+    // Applies insn at pc to the register file and memory and returns the next PC
+    int execute(DecodedInstruction insn, int pc) {
+        int[] regs = state.getRegisters();
+        int a = regs[insn.rs1()];
+        int b = regs[insn.rs2()];
+        int imm = insn.imm();
+        int result;
+
+        switch (insn.aluOp()) {
+            case ADD:
+                result = a + (insn.opcode() == DecodedInstruction.OP_R ? b : imm);
+                break;
+            case SUB:
+                result = a - b;
+                break;
+            case MUL:
+                result = a * b;
+                break;
+            case DIV:
+                result = b != 0 ? a / b : 0;
+                break;
+            case REM:
+                result = b != 0 ? a % b : 0;
+                break;
+            case AND:
+                result = a & (insn.opcode() == DecodedInstruction.OP_R ? b : imm);
+                break;
+            case OR:
+                result = a | (insn.opcode() == DecodedInstruction.OP_R ? b : imm);
+                break;
+            case XOR:
+                result = a ^ b;
+                break;
+            case SLL:
+                result = a << (b & 0x1F);
+                break;
+            case SRL:
+                result = a >>> (b & 0x1F);
+                break;
+            case SRA:
+                result = a >> (b & 0x1F);
+                break;
+            case SLT:
+                result = a < b ? 1 : 0;
+                break;
+            case LUI:
+                result = imm;
+                break;
+            case AUIPC:
+                result = pc + imm;
+                break;
+            case LOAD:
+                result = load(a + imm, insn.size());
+                break;
+            case STORE:
+                store(a + imm, b, insn.size());
+                return pc + 4;
+            case JAL:
+                writeRegister(regs, insn.rd(), pc + 4);
+                return pc + imm;
+            case JALR: {
+                int target = (a + imm) & ~1;
+                writeRegister(regs, insn.rd(), pc + 4);
+                return target;
+            }
+            case BEQ:
+                return a == b ? pc + imm : pc + 4;
+            case BNE:
+                return a != b ? pc + imm : pc + 4;
+            case BLT:
+                return a < b ? pc + imm : pc + 4;
+            case BGE:
+                return a >= b ? pc + imm : pc + 4;
+            case CSRRW:
+            case CSRRS:
+            case CSRRC:
+                result = state.getCsrs().execute(insn, a);
+                break;
+            default: // INVALID is skipped, as in the datapath
+                return pc + 4;
+        }
+
+        writeRegister(regs, insn.rd(), result);
+        return pc + 4;
+    }
+
+    private static void writeRegister(int[] regs, int rd, int value) {
+        if (rd != 0) {
+            regs[rd] = value;
+        }
+    }
+
+    private int load(int address, int size) {
+        Memory memory = state.getMemory();
+        switch (size) {
+            case 1:
+                return memory.loadByte(address);
+            case 2:
+                return memory.loadHalf(address);
+            case 4:
+                return memory.loadWord(address);
+            default:
+                return (int) memory.loadDouble(address); // Registers are 32 bits wide
+        }
+    }
+
+    private void store(int address, int value, int size) {
+        Memory memory = state.getMemory();
+        switch (size) {
+            case 1:
+                memory.storeByte(address, value);
+                break;
+            case 2:
+                memory.storeHalf(address, value);
+                break;
+            case 4:
+                memory.storeWord(address, value);
+                break;
+            default:
+                memory.storeDouble(address, value);
+                break;
+        }
+        decodeCache.invalidate(address, size, memory);
+    }
+}
@@ -0,0 +1,34 @@
+// Two-bit counters indexed by the branch PC XORed with the outcomes of the
+// most recent branches, so a branch whose direction depends on the path that
+// led to it gets a separate counter per path.
+public class GsharePredictor implements BranchPredictor {
+
+    private final BimodalPredictor table;
+    private final int indexBits;
+    private final int mask;
+    private int history = 0;
+    private int lastIndex;
+
+    public GsharePredictor(int indexBits) {
+        this.table = new BimodalPredictor(2, indexBits);
+        this.indexBits = indexBits;
+        this.mask = (1 << indexBits) - 1;
+    }
+
+    @Override
+    public boolean predict(int pc, int target) {
+        lastIndex = ((pc >>> 2) ^ history) & mask;
+        return table.predictAt(lastIndex);
+    }
+
+    @Override
+    public void update(int pc, boolean taken) {
+        table.updateAt(lastIndex, taken);
+        history = ((history << 1) | (taken ? 1 : 0)) & mask;
+    }
+
+    @Override
+    public String describe() {
+        return "gshare (" + (1 << indexBits) + " counters, " + indexBits + " history bits)";
+    }
+}
@@ -0,0 +1,253 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.CancellationException;
+
+// Reversible execution of a program, one instruction at a time. Every
+// interval instructions the machine state is checkpointed (registers, PC,
+// counters and a copy-on-write snapshot of memory), and the instructions
+// since the latest checkpoint keep an undo log of the register, memory and
+// counter values they overwrote. Stepping back pops the undo log; seeking to
+// any earlier or later position restores the nearest checkpoint at or before
+// it and runs forward from there, so every move costs at most interval
+// instructions however long the run is. When more than MAX_CHECKPOINTS pile
+// up, every other one is dropped and the interval doubles.
+//
+// Positions count instructions retired since the history began; position K
+// is the state after the step the datapath log shows as Clock Cycle K (when
+// no cache stalls are modelled). Only architectural state is rewound, so
+// timing and profiling models are not attached.
+public class History {
+
+    public static final int DEFAULT_INTERVAL = 1024;
+    public static final int MAX_CHECKPOINTS = 64;
+    // Instructions between checks of the interrupt flag
+    private static final int CHECK_INTERVAL = 1 << 14;
+
+    private final MachineState state;
+    private final DecodeCache decodeCache;
+    private final FastInterpreter interpreter;
+    private int interval;
+
+    private final ArrayList<Long> checkpointPositions = new ArrayList<>();
+    private final ArrayList<MachineState.Checkpoint> checkpoints = new ArrayList<>();
+
+    private long position = 0;
+    // Position of the checkpoint the undo log starts from
+    private long segmentStart = 0;
+
+    // Undo log, entry i for the instruction that retired at segmentStart + i
+    private int entries = 0;
+    private int[] undoPc = new int[64];
+    private int[] undoRd = new int[64];
+    private int[] undoRdValue = new int[64];
+    private int[] undoAddress = new int[64];
+    private byte[] undoSize = new byte[64]; // 0 when the instruction stored nothing
+    private byte[] undoMapped = new byte[64]; // Which of the stored bytes were mapped before
+    private long[] undoMemory = new long[64];
+    private final HashMap<Integer, long[]> undoCsrs = new HashMap<>(); // Only for CSR instructions
+
+    History(MachineState state, DecodeCache decodeCache, FastInterpreter interpreter, int interval) {
+        if (interval < 1) {
+            throw new IllegalArgumentException("Checkpoint interval must be positive");
+        }
+        this.state = state;
+        this.decodeCache = decodeCache;
+        this.interpreter = interpreter;
+        this.interval = interval;
+        checkpointPositions.add(0L);
+        checkpoints.add(state.checkpoint());
+    }
+
+    public long getPosition() {
+        return position;
+    }
+
+    // True if the instruction at the current PC ends the program
+    public boolean isHalted() {
+        return FastInterpreter.isHalt(decodeCache.lookup(state.getPc()).word());
+    }
+
+    public int getCheckpointCount() {
+        return checkpoints.size();
+    }
+
+    public int getInterval() {
+        return interval;
+    }
+
+    // Runs up to count instructions forward; returns the new position
+    public long stepForward(long count) {
+        return seek(position + count);
+    }
+
+    // Goes back up to count instructions, stopping at position 0
+    public long stepBack(long count) {
+        return seek(Math.max(0, position - count));
+    }
+
+    // Moves to target, or to where the program halts if that comes first;
+    // returns the position reached
+    public long seek(long target) {
+        if (target < 0) {
+            throw new IllegalArgumentException("Position must not be negative");
+        }
+        int nearest = nearestCheckpoint(target);
+        long checkpointPosition = checkpointPositions.get(nearest);
+        if (target < segmentStart || checkpointPosition > position) {
+            restore(nearest);
+        }
+        while (position > target) {
+            undo();
+        }
+        while (position < target && forward()) {
+            if ((position & (CHECK_INTERVAL - 1)) == 0 && Thread.currentThread().isInterrupted()) {
+                throw new CancellationException("Execution interrupted");
+            }
+        }
+        return position;
+    }
+
+    // Index of the last checkpoint at or before target
+    private int nearestCheckpoint(long target) {
+        int low = 0;
+        int high = checkpointPositions.size() - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (checkpointPositions.get(middle) <= target) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    private void restore(int index) {
+        state.restore(checkpoints.get(index));
+        decodeCache.refresh(state.getMemory());
+        position = segmentStart = checkpointPositions.get(index);
+        entries = 0;
+        undoCsrs.clear();
+    }
+
+    // Executes one instruction, logging what it overwrites; false if the program halts
+    private boolean forward() {
+        int pc = state.getPc();
+        DecodedInstruction insn = decodeCache.lookup(pc);
+        if (FastInterpreter.isHalt(insn.word())) {
+            return false;
+        }
+        if (position != segmentStart && position % interval == 0) {
+            startSegment();
+        }
+
+        if (entries == undoPc.length) {
+            int capacity = entries * 2;
+            undoPc = Arrays.copyOf(undoPc, capacity);
+            undoRd = Arrays.copyOf(undoRd, capacity);
+            undoRdValue = Arrays.copyOf(undoRdValue, capacity);
+            undoAddress = Arrays.copyOf(undoAddress, capacity);
+            undoSize = Arrays.copyOf(undoSize, capacity);
+            undoMapped = Arrays.copyOf(undoMapped, capacity);
+            undoMemory = Arrays.copyOf(undoMemory, capacity);
+        }
+        int[] regs = state.getRegisters();
+        undoPc[entries] = pc;
+        undoRd[entries] = insn.rd();
+        undoRdValue[entries] = regs[insn.rd()];
+        undoSize[entries] = 0;
+        if (insn.aluOp() == AluOp.STORE) {
+            Memory memory = state.getMemory();
+            int address = regs[insn.rs1()] + insn.imm();
+            int mapped = 0;
+            for (int i = 0; i < insn.size(); i++) {
+                if (memory.isMapped(address + i)) {
+                    mapped |= 1 << i;
+                }
+            }
+            undoAddress[entries] = address;
+            undoSize[entries] = (byte) insn.size();
+            undoMapped[entries] = (byte) mapped;
+            undoMemory[entries] = memory.loadDouble(address);
+        } else if (insn.aluOp().isCsr()) {
+            undoCsrs.put(entries, state.getCsrs().save());
+        }
+
+        interpreter.step();
+        entries++;
+        position++;
+        return true;
+    }
+
+    // The undo log starts over at each checkpoint; a position past the newest
+    // checkpoint gets a new one, an earlier one already has it
+    private void startSegment() {
+        if (position > checkpointPositions.get(checkpointPositions.size() - 1)) {
+            checkpointPositions.add(position);
+            checkpoints.add(state.checkpoint());
+            if (checkpoints.size() > MAX_CHECKPOINTS) {
+                thin();
+            }
+        }
+        segmentStart = position;
+        entries = 0;
+        undoCsrs.clear();
+    }
+
+    // Keeps the checkpoints on multiples of twice the interval
+    private void thin() {
+        interval *= 2;
+        int kept = 0;
+        for (int i = 0; i < checkpoints.size(); i++) {
+            if (checkpointPositions.get(i) % interval == 0) {
+                checkpointPositions.set(kept, checkpointPositions.get(i));
+                checkpoints.set(kept, checkpoints.get(i));
+                kept++;
+            }
+        }
+        checkpointPositions.subList(kept, checkpointPositions.size()).clear();
+        checkpoints.subList(kept, checkpoints.size()).clear();
+    }
+
+    // Reverts the last logged instruction
+    private void undo() {
+        entries--;
+        position--;
+        int[] regs = state.getRegisters();
+        regs[undoRd[entries]] = undoRdValue[entries];
+        int size = undoSize[entries];
+        if (size != 0) {
+            Memory memory = state.getMemory();
+            int address = undoAddress[entries];
+            long old = undoMemory[entries];
+            switch (size) {
+                case 1:
+                    memory.storeByte(address, (int) old);
+                    break;
+                case 2:
+                    memory.storeHalf(address, (int) old);
+                    break;
+                case 4:
+                    memory.storeWord(address, (int) old);
+                    break;
+                default:
+                    memory.storeDouble(address, old);
+                    break;
+            }
+            for (int i = 0; i < size; i++) {
+                if ((undoMapped[entries] & (1 << i)) == 0) {
+                    memory.unmap(address + i);
+                }
+            }
+            decodeCache.invalidate(address, size, memory);
+        }
+        long[] csrs = undoCsrs.remove(entries);
+        if (csrs != null) {
+            state.getCsrs().restore(csrs);
+        } else {
+            state.getCsrs().retire(-1);
+        }
+        state.setPc(undoPc[entries]);
+    }
+}
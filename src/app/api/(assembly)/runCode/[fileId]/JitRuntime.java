@@ -0,0 +1,99 @@
+// Calls made by compiled blocks. Memory accesses go straight to Memory; the
+// static helpers hold the few operations that would otherwise need a branch
+// in the generated bytecode.
+public final class JitRuntime {
+
+    // Thrown by a store that rewrote the text segment. The store has completed;
+    // the block stops there and resumes in the interpreter at modifiedPc + 4.
+    static final class TextModified extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        TextModified() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static final TextModified TEXT_MODIFIED = new TextModified();
+
+    private final Memory memory;
+    private final DecodeCache decodeCache;
+
+    // PC of the store that raised TextModified
+    int modifiedPc;
+
+    JitRuntime(Memory memory, DecodeCache decodeCache) {
+        this.memory = memory;
+        this.decodeCache = decodeCache;
+    }
+
+    public int loadByte(int address) {
+        return memory.loadByte(address);
+    }
+
+    public int loadHalf(int address) {
+        return memory.loadHalf(address);
+    }
+
+    public int loadWord(int address) {
+        return memory.loadWord(address);
+    }
+
+    public int loadDouble(int address) {
+        return (int) memory.loadDouble(address); // Registers are 32 bits wide
+    }
+
+    public void storeByte(int address, int value, int pc) {
+        memory.storeByte(address, value);
+        checkText(address, 1, pc);
+    }
+
+    public void storeHalf(int address, int value, int pc) {
+        memory.storeHalf(address, value);
+        checkText(address, 2, pc);
+    }
+
+    public void storeWord(int address, int value, int pc) {
+        memory.storeWord(address, value);
+        checkText(address, 4, pc);
+    }
+
+    public void storeDouble(int address, int value, int pc) {
+        memory.storeDouble(address, value);
+        checkText(address, 8, pc);
+    }
+
+    private void checkText(int address, int length, int pc) {
+        if (decodeCache.invalidate(address, length, memory)) {
+            modifiedPc = pc;
+            throw TEXT_MODIFIED;
+        }
+    }
+
+    public static int div(int a, int b) {
+        return b != 0 ? a / b : 0;
+    }
+
+    public static int rem(int a, int b) {
+        return b != 0 ? a % b : 0;
+    }
+
+    public static int slt(int a, int b) {
+        return a < b ? 1 : 0;
+    }
+
+    public static int beq(int a, int b, int taken, int notTaken) {
+        return a == b ? taken : notTaken;
+    }
+
+    public static int bne(int a, int b, int taken, int notTaken) {
+        return a != b ? taken : notTaken;
+    }
+
+    public static int blt(int a, int b, int taken, int notTaken) {
+        return a < b ? taken : notTaken;
+    }
+
+    public static int bge(int a, int b, int taken, int notTaken) {
+        return a >= b ? taken : notTaken;
+    }
+}
@@ -0,0 +1,83 @@
+import java.util.Arrays;
+
+// Labels of one segment and the address range each one covers, read from the
+// "# text|data <name> 0x<address> <size>" lines the assembler writes after the
+// data bytes
+public class LabelTable {
+
+    private final String segment;
+
+    // Sorted by start address
+    private int[] starts = new int[0];
+    private int[] ends = new int[0]; // Exclusive
+    private String[] names = new String[0];
+    private int count = 0;
+
+    // segment is "text" or "data"
+    public LabelTable(String segment) {
+        this.segment = segment;
+    }
+
+    public void clear() {
+        Arrays.fill(names, 0, count, null);
+        count = 0;
+    }
+
+    public void add(String name, int address, int size) {
+        if (count == starts.length) {
+            int capacity = Math.max(8, count * 2);
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            names = Arrays.copyOf(names, capacity);
+        }
+        int i = count++;
+        while (i > 0 && Integer.compareUnsigned(starts[i - 1], address) > 0) {
+            starts[i] = starts[i - 1];
+            ends[i] = ends[i - 1];
+            names[i] = names[i - 1];
+            i--;
+        }
+        starts[i] = address;
+        ends[i] = address + size;
+        names[i] = name;
+    }
+
+    // Parses one "# <segment> ..." listing line; false if it is some other comment
+    public boolean parse(String line) {
+        String[] parts = line.split("\\s+");
+        if (parts.length != 5 || !parts[0].equals("#") || !parts[1].equals(segment) || !parts[3].startsWith("0x")) {
+            return false;
+        }
+        add(parts[2], Integer.parseUnsignedInt(parts[3].substring(2), 16), Integer.parseInt(parts[4]));
+        return true;
+    }
+
+    // Index of the label whose range holds address, or -1
+    public int find(int address) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (Integer.compareUnsigned(starts[mid], address) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        // high is now the last label starting at or below address
+        for (int i = high; i >= 0 && starts[i] == starts[high]; i--) {
+            if (Integer.compareUnsigned(address - starts[i], ends[i] - starts[i]) < 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public String name(int index) {
+        return names[index];
+    }
+}
@@ -0,0 +1,443 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+// Differential check of a fast engine against the stage-by-stage datapath.
+// The same listing is loaded into two machines; one runs through
+// Execution.stepStages(), the other on the FastInterpreter ("jit", with block
+// compilation, "interpreter", without it, or "step", one instruction at a
+// time), interval instructions at a time (default 1000). After each interval
+// their retired counts, PCs, registers, counters and memory must match.
+// Memory is compared only where either machine has stored since the last
+// comparison, which Memory.changedAddresses() finds from a snapshot.
+//
+// On a mismatch both machines go back to the last state that matched and the
+// interval is bisected, rerunning the fast engine with ever smaller budgets,
+// to find the first instruction after which they differ. The fast engine only
+// runs a whole block when the budget covers it, so a fault inside a compiled
+// block is pinned to that block's last instruction.
+//
+//   java Lockstep [--engine <engine>] [--interval <n>] [--max-instructions <n>] <output file>
+//   java Lockstep --random <seed> [--programs <n>] [--length <n>] [--engine <engine>] [--interval <n>]
+//
+// --random generates programs of length random valid instructions each
+// (defaults 100 and 200): every supported opcode, loads and stores into a
+// data block, forward branches and jumps, and counter CSRs, in a loop run
+// RANDOM_ITERATIONS times so its blocks get hot enough to compile. Program k
+// uses seed + k, so "--random <seed + k> --programs 1" repeats a failure.
+// The exit status is 1 if anything diverged.
+public class Lockstep {
+
+    public static final List<String> ENGINES = List.of("jit", "interpreter", "step");
+    public static final int DEFAULT_INTERVAL = 1000;
+    public static final long DEFAULT_MAX_INSTRUCTIONS = 10_000_000;
+    public static final int RANDOM_ITERATIONS = 2 * FastInterpreter.JIT_THRESHOLD;
+    // Differences listed for one divergence
+    private static final int MAX_DIFFERENCES = 16;
+    // Where random programs load and store, held in x3
+    private static final int DATA_START = 0x10000000;
+    private static final int DATA_SIZE = 2048;
+    // Longest random loop body a bne can still branch back over
+    private static final int MAX_RANDOM_LENGTH = 1000;
+    // One in this many random instructions starts an auipc/jalr pair
+    private static final int PAIR_ODDS = 40;
+
+    private static final PrintStream NOWHERE = new PrintStream(OutputStream.nullOutputStream());
+
+    private final Execution reference = new Execution(NOWHERE);
+    private final Execution candidate = new Execution(NOWHERE);
+    private final FastInterpreter engine;
+    private final String engineName;
+    private final PrintStream out;
+
+    // The instruction a divergence was pinned to, once check() finds one
+    private long divergedAt = -1;
+
+    Lockstep(String listing, String engineName, PrintStream out) throws IOException {
+        reference.parseMachineCode(new BufferedReader(new StringReader(listing)));
+        candidate.parseMachineCode(new BufferedReader(new StringReader(listing)));
+        engine = candidate.newFastInterpreter();
+        switch (engineName) {
+            case "jit":
+                engine.setJitThreshold(FastInterpreter.JIT_THRESHOLD);
+                break;
+            case "interpreter":
+            case "step":
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown engine " + engineName);
+        }
+        this.engineName = engineName;
+        this.out = out;
+    }
+
+    // Runs both machines until the program halts or maxInstructions have
+    // retired; returns the instructions checked, stopping at the first
+    // divergence (see getDivergedAt())
+    public long check(long maxInstructions, int interval) {
+        MachineState referenceState = reference.getState();
+        MachineState candidateState = candidate.getState();
+        long position = 0;
+        while (position < maxInstructions) {
+            MachineState.Checkpoint referenceStart = referenceState.checkpoint();
+            MachineState.Checkpoint candidateStart = candidateState.checkpoint();
+            long count = Math.min(interval, maxInstructions - position);
+            long retired = stepReference(count);
+            long engineRetired = runEngine(count);
+            List<String> differences = compare(retired, engineRetired, referenceStart, candidateStart);
+            if (!differences.isEmpty()) {
+                divergedAt = bisect(position, Math.max(retired, engineRetired), referenceStart, candidateStart);
+                return divergedAt;
+            }
+            position += retired;
+            if (retired < count) {
+                break; // Both halted
+            }
+        }
+        return position;
+    }
+
+    // Position of the first diverging instruction (counting from 1), or -1
+    public long getDivergedAt() {
+        return divergedAt;
+    }
+
+    // Narrows a diverging interval of count instructions that started at
+    // position from the given states to its first bad instruction, prints
+    // that instruction and the differences after it, and returns its position
+    private long bisect(long position, long count, MachineState.Checkpoint referenceStart,
+            MachineState.Checkpoint candidateStart) {
+        MachineState referenceState = reference.getState();
+        MachineState candidateState = candidate.getState();
+        long good = 0; // States match after this many
+        long bad = count; // and differ after this many
+        while (bad - good > 1) {
+            long middle = (good + bad) >>> 1;
+            referenceState.restore(referenceStart);
+            candidateState.restore(candidateStart);
+            if (compare(stepReference(middle), runEngine(middle), referenceStart, candidateStart).isEmpty()) {
+                good = middle;
+            } else {
+                bad = middle;
+            }
+        }
+
+        referenceState.restore(referenceStart);
+        candidateState.restore(candidateStart);
+        long retired = stepReference(bad - 1);
+        int pc = referenceState.getPc();
+        int word = referenceState.getMemory().loadWord(pc);
+        retired += stepReference(1);
+        List<String> differences = compare(retired, runEngine(bad), referenceStart, candidateStart);
+        out.println("Diverged at instruction " + (position + bad) + ": PC " + MachineState.toHex(pc) + ", IR "
+                + MachineState.toHex(word));
+        for (String difference : differences) {
+            out.println("  " + difference);
+        }
+        return position + bad;
+    }
+
+    // Runs up to count instructions on the datapath; returns how many retired
+    private long stepReference(long count) {
+        long retired = 0;
+        while (retired < count && reference.stepStages()) {
+            retired++;
+        }
+        return retired;
+    }
+
+    private long runEngine(long count) {
+        if (!engineName.equals("step")) {
+            return engine.run(count).instructionsRetired();
+        }
+        long retired = 0;
+        while (retired < count && engine.step()) {
+            retired++;
+        }
+        return retired;
+    }
+
+    // Differences between the two machines, which started from the given
+    // states and retired these counts since, as "what: datapath x, engine y"
+    private List<String> compare(long retired, long engineRetired, MachineState.Checkpoint referenceStart,
+            MachineState.Checkpoint candidateStart) {
+        List<String> differences = new ArrayList<>();
+        if (retired != engineRetired) {
+            differences.add(difference("retired", Long.toString(retired), Long.toString(engineRetired)));
+        }
+        MachineState referenceState = reference.getState();
+        MachineState candidateState = candidate.getState();
+        if (referenceState.getPc() != candidateState.getPc()) {
+            differences.add(difference("pc", MachineState.toHex(referenceState.getPc()),
+                    MachineState.toHex(candidateState.getPc())));
+        }
+        int[] referenceRegisters = referenceState.getRegisters();
+        int[] candidateRegisters = candidateState.getRegisters();
+        for (int i = 0; i < referenceRegisters.length; i++) {
+            if (referenceRegisters[i] != candidateRegisters[i]) {
+                differences.add(difference("x" + i, MachineState.toHex(referenceRegisters[i]),
+                        MachineState.toHex(candidateRegisters[i])));
+            }
+        }
+        long[] referenceCsrs = referenceState.getCsrs().save();
+        long[] candidateCsrs = candidateState.getCsrs().save();
+        for (int i = 0; i < referenceCsrs.length; i++) {
+            if (referenceCsrs[i] != candidateCsrs[i]) {
+                // The last saved value is instret, the rest are counter offsets
+                differences.add(difference(i == referenceCsrs.length - 1 ? "instret" : "counter " + i + " offset",
+                        Long.toString(referenceCsrs[i]), Long.toString(candidateCsrs[i])));
+            }
+        }
+
+        Memory referenceMemory = referenceState.getMemory();
+        Memory candidateMemory = candidateState.getMemory();
+        TreeSet<Integer> changed = new TreeSet<>(Integer::compareUnsigned);
+        for (int address : referenceMemory.changedAddresses(referenceStart.memory())) {
+            changed.add(address);
+        }
+        for (int address : candidateMemory.changedAddresses(candidateStart.memory())) {
+            changed.add(address);
+        }
+        for (int address : changed) {
+            String expected = memoryByte(referenceMemory, address);
+            String actual = memoryByte(candidateMemory, address);
+            if (!expected.equals(actual)) {
+                differences.add(difference("[" + MachineState.toHex(address) + "]", expected, actual));
+            }
+        }
+
+        if (differences.size() > MAX_DIFFERENCES) {
+            int more = differences.size() - MAX_DIFFERENCES;
+            differences.subList(MAX_DIFFERENCES, differences.size()).clear();
+            differences.add("... and " + more + " more");
+        }
+        return differences;
+    }
+
+    private String difference(String what, String expected, String actual) {
+        return what + ": datapath " + expected + ", " + engineName + " " + actual;
+    }
+
+    private static String memoryByte(Memory memory, int address) {
+        return memory.isMapped(address) ? String.format("0x%02X", memory.loadByte(address) & 0xFF) : "unmapped";
+    }
+
+    // A listing of a random program: x3 points at DATA_SIZE random data
+    // bytes and x4 counts down RANDOM_ITERATIONS passes of a loop of length
+    // random instructions. Those never write x3 or x4, load and store only
+    // size-aligned within the data, and branch and jump only forwards within
+    // the loop, so every program halts.
+    static String randomProgram(Random random, int length) {
+        if (length < 1 || length > MAX_RANDOM_LENGTH) {
+            throw new IllegalArgumentException("Random programs have 1 to " + MAX_RANDOM_LENGTH + " instructions");
+        }
+        // Loop positions of the jalr in each auipc/jalr pair, which nothing
+        // else may jump to: the auipc sets the jalr's base register
+        boolean[] jalrAt = new boolean[length + 1];
+        for (int i = 0; i + 2 < length; i++) {
+            if (random.nextInt(PAIR_ODDS) == 0) {
+                jalrAt[++i] = true;
+            }
+        }
+
+        int[] text = new int[length + 4];
+        text[0] = uType(DATA_START, 3, DecodedInstruction.OP_LUI);
+        text[1] = iType(RANDOM_ITERATIONS, 0, 0b000, 4, DecodedInstruction.OP_IMM);
+        for (int i = 0; i < length; i++) {
+            if (jalrAt[i + 1]) {
+                int link = 5 + random.nextInt(27); // Not x0, which would drop the PC
+                text[2 + i] = uType(0, link, DecodedInstruction.OP_AUIPC);
+                text[3 + i] = iType(randomJump(random, i + 1, jalrAt) + 4, link, 0b000, randomDestination(random),
+                        DecodedInstruction.OP_JALR);
+                i++;
+            } else {
+                text[2 + i] = randomInstruction(random, i, jalrAt);
+            }
+        }
+        text[length + 2] = iType(-1, 4, 0b000, 4, DecodedInstruction.OP_IMM);
+        text[length + 3] = bType(-4 * (length + 1), 0, 4, 0b001);
+
+        StringBuilder listing = new StringBuilder();
+        for (int i = 0; i < text.length; i++) {
+            listing.append(String.format("0x%X 0x%08X%n", 4 * i, text[i]));
+        }
+        listing.append(String.format("0x%X 0x%08X%n", 4 * text.length, Execution.END_OF_TEXT));
+        for (int i = 0; i < DATA_SIZE; i++) {
+            listing.append(String.format("0x%X 0x%02X%n", DATA_START + i, random.nextInt(256)));
+        }
+        return listing.toString();
+    }
+
+    // Byte offset from loop position at to a random later position up to 16
+    // on, at most the loop's closing addi at jalrAt.length - 1, and never a
+    // pair's jalr
+    private static int randomJump(Random random, int at, boolean[] jalrAt) {
+        int target = at + 1 + random.nextInt(Math.min(jalrAt.length - 1 - at, 16));
+        if (jalrAt[target]) {
+            target++;
+        }
+        return 4 * (target - at);
+    }
+
+    // An instruction word for loop position at, other than auipc/jalr pairs
+    private static int randomInstruction(Random random, int at, boolean[] jalrAt) {
+        int rd = randomDestination(random);
+        int rs1 = random.nextInt(32);
+        int rs2 = random.nextInt(32);
+        switch (random.nextInt(10)) {
+            case 0:
+            case 1:
+            case 2: {
+                // funct7, funct3: add sub mul and or xor sll slt srl sra div rem
+                int[][] ops = {{0, 0}, {0x20, 0}, {1, 0}, {0, 7}, {0, 6}, {0, 4}, {0, 1}, {0, 2}, {0, 5},
+                    {0x20, 5}, {1, 4}, {1, 6}};
+                int[] op = ops[random.nextInt(ops.length)];
+                return (op[0] << 25) | (rs2 << 20) | (rs1 << 15) | (op[1] << 12) | (rd << 7) | DecodedInstruction.OP_R;
+            }
+            case 3:
+            case 4: {
+                // addi andi ori
+                int[] funct3s = {0b000, 0b111, 0b110};
+                return iType(random.nextInt(4096) - 2048, rs1, funct3s[random.nextInt(3)], rd,
+                        DecodedInstruction.OP_IMM);
+            }
+            case 5: {
+                int sizeCode = random.nextInt(4);
+                int offset = random.nextInt(DATA_SIZE >> sizeCode) << sizeCode;
+                return iType(offset, 3, sizeCode, rd, DecodedInstruction.OP_LOAD);
+            }
+            case 6: {
+                int sizeCode = random.nextInt(4);
+                int offset = random.nextInt(DATA_SIZE >> sizeCode) << sizeCode;
+                return ((offset >> 5) << 25) | (rs2 << 20) | (3 << 15) | (sizeCode << 12) | ((offset & 0x1F) << 7)
+                        | DecodedInstruction.OP_STORE;
+            }
+            case 7:
+                return uType(random.nextInt() & 0xFFFFF000, rd,
+                        random.nextBoolean() ? DecodedInstruction.OP_LUI : DecodedInstruction.OP_AUIPC);
+            case 8: {
+                int offset = randomJump(random, at, jalrAt);
+                if (random.nextInt(4) == 0) {
+                    return jType(offset, rd);
+                }
+                // beq bne blt bge
+                int[] funct3s = {0b000, 0b001, 0b100, 0b101};
+                return bType(offset, rs1, rs2, funct3s[random.nextInt(4)]);
+            }
+            default: {
+                // cycle instret mcycle minstret, their upper halves, and one CSR that is not implemented
+                int[] csrs = {0xC00, 0xC02, 0xB00, 0xB02, 0xC80, 0xC82, 0x340};
+                int csr = csrs[random.nextInt(csrs.length)];
+                int funct3 = 1 + random.nextInt(3) + (random.nextBoolean() ? 0b100 : 0);
+                return (csr << 20) | (rs1 << 15) | (funct3 << 12) | (rd << 7) | DecodedInstruction.OP_SYSTEM;
+            }
+        }
+    }
+
+    // Any register but x3 and x4, which hold the data address and loop count
+    private static int randomDestination(Random random) {
+        int rd = random.nextInt(30);
+        return rd < 3 ? rd : rd + 2;
+    }
+
+    private static int iType(int imm, int rs1, int funct3, int rd, int opcode) {
+        return (imm << 20) | (rs1 << 15) | (funct3 << 12) | (rd << 7) | opcode;
+    }
+
+    private static int uType(int imm, int rd, int opcode) {
+        return (imm & 0xFFFFF000) | (rd << 7) | opcode;
+    }
+
+    private static int bType(int offset, int rs1, int rs2, int funct3) {
+        return ((offset >> 12 & 0x1) << 31) | ((offset >> 5 & 0x3F) << 25) | (rs2 << 20) | (rs1 << 15)
+                | (funct3 << 12) | ((offset >> 1 & 0xF) << 8) | ((offset >> 11 & 0x1) << 7)
+                | DecodedInstruction.OP_BRANCH;
+    }
+
+    private static int jType(int offset, int rd) {
+        return ((offset >> 20 & 0x1) << 31) | ((offset >> 1 & 0x3FF) << 21) | ((offset >> 11 & 0x1) << 20)
+                | ((offset >> 12 & 0xFF) << 12) | (rd << 7) | DecodedInstruction.OP_JAL;
+    }
+
+    public static void main(String[] args) throws IOException {
+        String engineName = "jit";
+        int interval = DEFAULT_INTERVAL;
+        long maxInstructions = DEFAULT_MAX_INSTRUCTIONS;
+        Long seed = null;
+        int programs = 100;
+        int length = 200;
+        String outputFile = null;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                boolean hasValue = i + 1 < args.length;
+                if (args[i].equals("--engine") && hasValue) {
+                    engineName = args[++i];
+                } else if (args[i].equals("--interval") && hasValue) {
+                    interval = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("--max-instructions") && hasValue) {
+                    maxInstructions = Long.parseLong(args[++i]);
+                } else if (args[i].equals("--random") && hasValue) {
+                    seed = Long.parseLong(args[++i]);
+                } else if (args[i].equals("--programs") && hasValue) {
+                    programs = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("--length") && hasValue) {
+                    length = Integer.parseInt(args[++i]);
+                } else if (outputFile == null && seed == null && !args[i].startsWith("--")) {
+                    outputFile = args[i];
+                } else {
+                    outputFile = null;
+                    seed = null;
+                    break;
+                }
+            }
+        } catch (NumberFormatException e) {
+            outputFile = null;
+            seed = null;
+        }
+        if ((outputFile == null) == (seed == null) || interval < 1 || !ENGINES.contains(engineName)) {
+            System.out.println("Usage: java Lockstep [--engine jit|interpreter|step] [--interval <n>]"
+                    + " [--max-instructions <n>] <output file>");
+            System.out.println("       java Lockstep --random <seed> [--programs <n>] [--length <n>]"
+                    + " [--engine jit|interpreter|step] [--interval <n>]");
+            return;
+        }
+
+        if (outputFile != null) {
+            Lockstep lockstep = new Lockstep(Files.readString(Paths.get(outputFile)), engineName, System.out);
+            long checked = lockstep.check(maxInstructions, interval);
+            if (lockstep.getDivergedAt() >= 0) {
+                System.out.println("Diverged after " + (checked - 1) + " matching instructions");
+                System.exit(1);
+            }
+            System.out.println("Matched " + checked + " instructions");
+            return;
+        }
+
+        int failed = 0;
+        long total = 0;
+        for (int k = 0; k < programs; k++) {
+            String listing = randomProgram(new Random(seed + k), length);
+            Lockstep lockstep = new Lockstep(listing, engineName, System.out);
+            long checked = lockstep.check(maxInstructions, interval);
+            if (lockstep.getDivergedAt() >= 0) {
+                System.out.println("Seed " + (seed + k) + " diverged after " + (checked - 1)
+                        + " matching instructions");
+                failed++;
+            }
+            total += checked;
+        }
+        System.out.println("Matched " + (programs - failed) + " of " + programs + " random programs, " + total
+                + " instructions");
+        if (failed > 0) {
+            System.exit(1);
+        }
+    }
+}
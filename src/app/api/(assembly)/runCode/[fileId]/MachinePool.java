@@ -0,0 +1,46 @@
+import java.io.PrintStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+// Fixed set of Execution instances that are reset and handed out again
+// instead of being allocated per run. Each machine is created up front with
+// reservedPages memory pages, so a server that runs many short programs keeps
+// a steady heap footprint: pages, decode and block cache arrays are zeroed and
+// reused, and only grow when a program is larger than any seen before.
+public class MachinePool {
+
+    private final BlockingQueue<Execution> idle;
+    private final int size;
+
+    public MachinePool(int size, int reservedPages) {
+        this.size = size;
+        idle = new ArrayBlockingQueue<>(size);
+        for (int i = 0; i < size; i++) {
+            Execution cpu = new Execution();
+            cpu.getState().getMemory().reserve(reservedPages);
+            idle.add(cpu);
+        }
+    }
+
+    // Waits for an idle machine and resets it to write its output to out
+    public Execution acquire(PrintStream out) throws InterruptedException {
+        Execution cpu = idle.take();
+        cpu.reset(out);
+        return cpu;
+    }
+
+    // Returns a machine taken with acquire(); it is reset on its next acquire
+    public void release(Execution cpu) {
+        if (!idle.offer(cpu)) {
+            throw new IllegalStateException("Machine released twice or not from this pool");
+        }
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getIdleCount() {
+        return idle.size();
+    }
+}
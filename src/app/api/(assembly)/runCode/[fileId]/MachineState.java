@@ -0,0 +1,82 @@
+// Architectural state of the simulated hart: 32 integer registers, the PC,
+// the CSRs and memory. Everything is kept as primitives; hex strings are only produced by
+// toHex() when output is requested.
+public class MachineState {
+
+    public static final int STACK_POINTER = 0x7FFFFFDC;
+
+    private final int[] registers = new int[32];
+    private final Memory memory;
+    private final CsrFile csrs = new CsrFile();
+    private int pc;
+
+    MachineState() {
+        this(false);
+    }
+
+    // offHeapMemory keeps memory pages outside the Java heap
+    MachineState(boolean offHeapMemory) {
+        memory = new Memory(offHeapMemory);
+        reset();
+    }
+
+    public void reset() {
+        for (int i = 0; i < registers.length; i++) {
+            registers[i] = 0;
+        }
+        registers[2] = STACK_POINTER;
+        memory.clear();
+        csrs.reset();
+        pc = 0;
+    }
+
+    public int readRegister(int index) {
+        return registers[index];
+    }
+
+    public void writeRegister(int index, int value) {
+        if (index != 0) { // x0 is hardwired to zero
+            registers[index] = value;
+        }
+    }
+
+    // Direct access for execution engines that manage x0 themselves
+    public int[] getRegisters() {
+        return registers;
+    }
+
+    public Memory getMemory() {
+        return memory;
+    }
+
+    public CsrFile getCsrs() {
+        return csrs;
+    }
+
+    public int getPc() {
+        return pc;
+    }
+
+    public void setPc(int pc) {
+        this.pc = pc;
+    }
+
+    // Registers, PC, counters and a copy-on-write snapshot of memory
+    public record Checkpoint(int[] registers, int pc, long[] csrs, Memory.Snapshot memory) {
+    }
+
+    public Checkpoint checkpoint() {
+        return new Checkpoint(registers.clone(), pc, csrs.save(), memory.snapshot());
+    }
+
+    public void restore(Checkpoint checkpoint) {
+        System.arraycopy(checkpoint.registers(), 0, registers, 0, registers.length);
+        pc = checkpoint.pc();
+        csrs.restore(checkpoint.csrs());
+        memory.restore(checkpoint.memory());
+    }
+
+    public static String toHex(int value) {
+        return String.format("0x%08X", value);
+    }
+}
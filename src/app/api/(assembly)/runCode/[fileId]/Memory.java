@@ -0,0 +1,422 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+// Byte addressable little-endian memory covering the full 32-bit address
+// space. Storage is split into 4 KiB pages held in a two-level page table and
+// allocated the first time a byte in them is written, so a program costs
+// memory in proportion to the pages it touches. Reads of untouched pages
+// return zero without allocating. Half, word and double accesses that fit in
+// one page are single VarHandle reads/writes; only accesses that straddle a
+// page boundary fall back to byte-at-a-time. clear() recycles pages instead of
+// dropping them, so a reused Memory reaches a steady footprint.
+//
+// snapshot() freezes the current contents in O(pages) without copying any
+// data: pages are shared with the snapshot and copied the first time a store
+// touches them afterwards (copy-on-write). Each page records the generation it
+// was created in; a page from an older generation may be shared and is copied
+// before being written. release() hands a snapshot back: once none is left,
+// nothing is shared any more, so pages are written in place and clear()
+// recycles all of them again.
+public class Memory {
+
+    public static final int PAGE_BITS = 12;
+    public static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+    // Top 10 address bits select a directory slot, the next 10 a page within it
+    private static final int DIRECTORY_BITS = 10;
+    private static final int TABLE_SIZE = 1 << DIRECTORY_BITS;
+
+    private static final VarHandle SHORT = MethodHandles.byteBufferViewVarHandle(short[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle LONG = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    static final class Page {
+        final ByteBuffer data;
+        // One bit per byte that was loaded from the image or written by the program
+        final long[] mapped = new long[PAGE_SIZE / 64];
+        int generation;
+
+        Page(boolean offHeap) {
+            data = offHeap ? ByteBuffer.allocateDirect(PAGE_SIZE) : ByteBuffer.allocate(PAGE_SIZE);
+        }
+
+        // Back to all zero and unmapped so the page can be handed out again
+        void reset() {
+            if (data.hasArray()) {
+                Arrays.fill(data.array(), (byte) 0);
+            } else {
+                for (int i = 0; i < PAGE_SIZE; i += 8) {
+                    data.putLong(i, 0);
+                }
+            }
+            Arrays.fill(mapped, 0);
+        }
+
+        void copyFrom(Page other) {
+            for (int i = 0; i < PAGE_SIZE; i += 8) {
+                data.putLong(i, other.data.getLong(i));
+            }
+            System.arraycopy(other.mapped, 0, mapped, 0, mapped.length);
+        }
+
+        void mark(int offset, int length) {
+            int bit = offset & 63;
+            int word = offset >>> 6;
+            if (bit + length <= 64) {
+                mapped[word] |= (-1L >>> (64 - length)) << bit;
+            } else {
+                mapped[word] |= -1L << bit;
+                mapped[word + 1] |= -1L >>> (128 - bit - length);
+            }
+        }
+
+        boolean isMapped(int offset) {
+            return (mapped[offset >>> 6] & (1L << offset)) != 0;
+        }
+    }
+
+    // Pages kept for reuse after clear(), beyond which they are left to the GC
+    public static final int MAX_FREE_PAGES = 256;
+
+    // Frozen contents from snapshot(); only restore() reads it
+    public static final class Snapshot {
+        private final Page[][] directory;
+        private final int pageCount;
+        private boolean released = false;
+
+        private Snapshot(Page[][] directory, int pageCount) {
+            this.directory = directory;
+            this.pageCount = pageCount;
+        }
+
+        // Pages the snapshot holds on to
+        public int getPageCount() {
+            return pageCount;
+        }
+    }
+
+    private final boolean offHeap;
+    private final Page[][] directory = new Page[TABLE_SIZE][];
+    private final ArrayDeque<Page> freePages = new ArrayDeque<>();
+    private int pageCount = 0;
+    // Pages created before this generation may be shared with a snapshot
+    private int generation = 0;
+    // Snapshots taken and not yet released
+    private int liveSnapshots = 0;
+
+    public Memory() {
+        this(false);
+    }
+
+    // offHeap keeps page contents in direct buffers outside the Java heap
+    public Memory(boolean offHeap) {
+        this.offHeap = offHeap;
+    }
+
+    private Page findPage(int address) {
+        Page[] table = directory[address >>> (PAGE_BITS + DIRECTORY_BITS)];
+        return table == null ? null : table[(address >>> PAGE_BITS) & (TABLE_SIZE - 1)];
+    }
+
+    private Page touchPage(int address) {
+        int slot = address >>> (PAGE_BITS + DIRECTORY_BITS);
+        Page[] table = directory[slot];
+        if (table == null) {
+            table = new Page[TABLE_SIZE];
+            directory[slot] = table;
+        }
+        int index = (address >>> PAGE_BITS) & (TABLE_SIZE - 1);
+        Page page = table[index];
+        if (page == null) {
+            page = newPage();
+            table[index] = page;
+            pageCount++;
+        } else if (page.generation != generation) {
+            if (liveSnapshots == 0) {
+                page.generation = generation;
+            } else {
+                Page copy = newPage();
+                copy.copyFrom(page);
+                table[index] = copy;
+                page = copy;
+            }
+        }
+        return page;
+    }
+
+    private Page newPage() {
+        Page page = freePages.isEmpty() ? new Page(offHeap) : freePages.pop();
+        page.generation = generation;
+        return page;
+    }
+
+    // True if an access of length bytes at address stays inside one page
+    private static boolean inPage(int address, int length) {
+        return (address & PAGE_MASK) <= PAGE_SIZE - length;
+    }
+
+    public int loadByte(int address) {
+        Page page = findPage(address);
+        return page == null ? 0 : page.data.get(address & PAGE_MASK) & 0xFF;
+    }
+
+    public int loadHalf(int address) {
+        if (!inPage(address, 2)) {
+            return loadByte(address) | (loadByte(address + 1) << 8);
+        }
+        Page page = findPage(address);
+        return page == null ? 0 : (short) SHORT.get(page.data, address & PAGE_MASK) & 0xFFFF;
+    }
+
+    public int loadWord(int address) {
+        if (!inPage(address, 4)) {
+            return loadHalf(address) | (loadHalf(address + 2) << 16);
+        }
+        Page page = findPage(address);
+        return page == null ? 0 : (int) INT.get(page.data, address & PAGE_MASK);
+    }
+
+    public long loadDouble(int address) {
+        if (!inPage(address, 8)) {
+            return (loadWord(address) & 0xFFFFFFFFL) | ((long) loadWord(address + 4) << 32);
+        }
+        Page page = findPage(address);
+        return page == null ? 0 : (long) LONG.get(page.data, address & PAGE_MASK);
+    }
+
+    public void storeByte(int address, int value) {
+        Page page = touchPage(address);
+        int offset = address & PAGE_MASK;
+        page.data.put(offset, (byte) value);
+        page.mark(offset, 1);
+    }
+
+    public void storeHalf(int address, int value) {
+        if (!inPage(address, 2)) {
+            storeByte(address, value);
+            storeByte(address + 1, value >>> 8);
+            return;
+        }
+        Page page = touchPage(address);
+        int offset = address & PAGE_MASK;
+        SHORT.set(page.data, offset, (short) value);
+        page.mark(offset, 2);
+    }
+
+    public void storeWord(int address, int value) {
+        if (!inPage(address, 4)) {
+            storeHalf(address, value);
+            storeHalf(address + 2, value >>> 16);
+            return;
+        }
+        Page page = touchPage(address);
+        int offset = address & PAGE_MASK;
+        INT.set(page.data, offset, value);
+        page.mark(offset, 4);
+    }
+
+    public void storeDouble(int address, long value) {
+        if (!inPage(address, 8)) {
+            storeWord(address, (int) value);
+            storeWord(address + 4, (int) (value >>> 32));
+            return;
+        }
+        Page page = touchPage(address);
+        int offset = address & PAGE_MASK;
+        LONG.set(page.data, offset, value);
+        page.mark(offset, 8);
+    }
+
+    // True if the byte was loaded from the image or written by the program
+    public boolean isMapped(int address) {
+        Page page = findPage(address);
+        return page != null && page.isMapped(address & PAGE_MASK);
+    }
+
+    // Forgets that the byte was ever written, for undoing a store to a byte
+    // that was unmapped before; the store should already be undone, leaving zero
+    public void unmap(int address) {
+        Page page = touchPage(address);
+        int offset = address & PAGE_MASK;
+        page.mapped[offset >>> 6] &= ~(1L << offset);
+    }
+
+    // Mapped addresses in ascending (unsigned) order; walks the page table in
+    // address order so no sorting is needed
+    public int[] mappedAddresses() {
+        int count = 0;
+        for (Page[] table : directory) {
+            if (table == null) {
+                continue;
+            }
+            for (Page page : table) {
+                if (page != null) {
+                    for (long bits : page.mapped) {
+                        count += Long.bitCount(bits);
+                    }
+                }
+            }
+        }
+
+        int[] addresses = new int[count];
+        int i = 0;
+        for (int slot = 0; slot < TABLE_SIZE; slot++) {
+            Page[] table = directory[slot];
+            if (table == null) {
+                continue;
+            }
+            for (int index = 0; index < TABLE_SIZE; index++) {
+                Page page = table[index];
+                if (page == null) {
+                    continue;
+                }
+                int base = (slot << (PAGE_BITS + DIRECTORY_BITS)) | (index << PAGE_BITS);
+                for (int word = 0; word < page.mapped.length; word++) {
+                    long bits = page.mapped[word];
+                    while (bits != 0) {
+                        int bit = Long.numberOfTrailingZeros(bits);
+                        addresses[i++] = base + word * 64 + bit;
+                        bits &= bits - 1;
+                    }
+                }
+            }
+        }
+        return addresses;
+    }
+
+    // Mapped addresses whose byte differs from since, or that were not mapped
+    // in since, in ascending (unsigned) order. Pages still shared with since
+    // have not been written and are skipped without reading them.
+    public int[] changedAddresses(Snapshot since) {
+        int[] addresses = new int[64];
+        int count = 0;
+        for (int slot = 0; slot < TABLE_SIZE; slot++) {
+            Page[] table = directory[slot];
+            if (table == null) {
+                continue;
+            }
+            Page[] oldTable = since.directory[slot];
+            for (int index = 0; index < TABLE_SIZE; index++) {
+                Page page = table[index];
+                Page old = oldTable == null ? null : oldTable[index];
+                if (page == null || page == old) {
+                    continue;
+                }
+                int base = (slot << (PAGE_BITS + DIRECTORY_BITS)) | (index << PAGE_BITS);
+                for (int word = 0; word < page.mapped.length; word++) {
+                    long bits = page.mapped[word];
+                    while (bits != 0) {
+                        int offset = word * 64 + Long.numberOfTrailingZeros(bits);
+                        bits &= bits - 1;
+                        if (old != null && old.isMapped(offset) && old.data.get(offset) == page.data.get(offset)) {
+                            continue;
+                        }
+                        if (count == addresses.length) {
+                            addresses = Arrays.copyOf(addresses, count * 2);
+                        }
+                        addresses[count++] = base + offset;
+                    }
+                }
+            }
+        }
+        return Arrays.copyOf(addresses, count);
+    }
+
+    // Number of 4 KiB pages allocated so far
+    public int getPageCount() {
+        return pageCount;
+    }
+
+    // Number of zeroed pages waiting to be reused
+    public int getFreePageCount() {
+        return freePages.size();
+    }
+
+    // Allocates pages up front so the first runs on this memory do not have to
+    public void reserve(int pages) {
+        while (freePages.size() < Math.min(pages, MAX_FREE_PAGES)) {
+            freePages.push(new Page(offHeap));
+        }
+    }
+
+    // Freezes the current contents; later stores copy the pages they touch
+    public Snapshot snapshot() {
+        Page[][] frozen = new Page[TABLE_SIZE][];
+        for (int slot = 0; slot < TABLE_SIZE; slot++) {
+            if (directory[slot] != null) {
+                frozen[slot] = directory[slot].clone();
+            }
+        }
+        generation++;
+        liveSnapshots++;
+        return new Snapshot(frozen, pageCount);
+    }
+
+    // Hands back a snapshot taken from this memory, which must not be used
+    // afterwards. Releasing the last live one recycles the pages only it still
+    // held: the originals of pages copied since it was taken.
+    public void release(Snapshot snapshot) {
+        if (snapshot.released) {
+            throw new IllegalStateException("Snapshot released twice");
+        }
+        snapshot.released = true;
+        if (--liveSnapshots > 0) {
+            return;
+        }
+        for (int slot = 0; slot < TABLE_SIZE; slot++) {
+            Page[] frozen = snapshot.directory[slot];
+            if (frozen == null) {
+                continue;
+            }
+            Page[] table = directory[slot];
+            for (int index = 0; index < TABLE_SIZE && freePages.size() < MAX_FREE_PAGES; index++) {
+                Page page = frozen[index];
+                if (page != null && (table == null || table[index] != page)) {
+                    page.reset();
+                    freePages.push(page);
+                }
+            }
+        }
+    }
+
+    // Brings back the contents frozen by snapshot, which stays usable
+    public void restore(Snapshot snapshot) {
+        if (snapshot.released) {
+            throw new IllegalStateException("Snapshot already released");
+        }
+        clear();
+        for (int slot = 0; slot < TABLE_SIZE; slot++) {
+            Page[] table = snapshot.directory[slot];
+            directory[slot] = table == null ? null : table.clone();
+        }
+        pageCount = snapshot.pageCount;
+        generation++;
+    }
+
+    // Unmaps everything. Allocated pages are zeroed and kept for reuse (up to
+    // MAX_FREE_PAGES), so resetting a machine between runs does not churn the heap.
+    // Pages that may still belong to a live snapshot are left to it.
+    public void clear() {
+        for (Page[] table : directory) {
+            if (table == null) {
+                continue;
+            }
+            for (int index = 0; index < TABLE_SIZE; index++) {
+                Page page = table[index];
+                if (page != null) {
+                    if ((page.generation == generation || liveSnapshots == 0)
+                            && freePages.size() < MAX_FREE_PAGES) {
+                        page.reset();
+                        freePages.push(page);
+                    }
+                    table[index] = null;
+                }
+            }
+        }
+        pageCount = 0;
+    }
+}
@@ -0,0 +1,36 @@
+// Parameters of the PipelineModel timing model
+public record PipelineConfig(Forwarding forwarding, boolean resolveBranchesInId, int mulLatency, int divLatency) {
+
+    // Where results can be bypassed to the ALU inputs from
+    public enum Forwarding {
+        NONE,     // Only through the register file (written in WB, read in ID the same cycle)
+        MEM_WB,   // From the MEM/WB latch only
+        FULL      // From the EX/MEM and MEM/WB latches
+    }
+
+    // Classic textbook pipeline: full forwarding, branches resolved in EX,
+    // a 3 cycle multiplier and a 20 cycle divider
+    public static final PipelineConfig DEFAULT = new PipelineConfig(Forwarding.FULL, false, 3, 20);
+
+    public PipelineConfig {
+        if (mulLatency < 1 || divLatency < 1) {
+            throw new IllegalArgumentException("Latencies must be at least one cycle");
+        }
+    }
+
+    public PipelineConfig withForwarding(Forwarding forwarding) {
+        return new PipelineConfig(forwarding, resolveBranchesInId, mulLatency, divLatency);
+    }
+
+    public PipelineConfig withResolveBranchesInId(boolean resolveBranchesInId) {
+        return new PipelineConfig(forwarding, resolveBranchesInId, mulLatency, divLatency);
+    }
+
+    public PipelineConfig withMulLatency(int mulLatency) {
+        return new PipelineConfig(forwarding, resolveBranchesInId, mulLatency, divLatency);
+    }
+
+    public PipelineConfig withDivLatency(int divLatency) {
+        return new PipelineConfig(forwarding, resolveBranchesInId, mulLatency, divLatency);
+    }
+}
@@ -0,0 +1,214 @@
+import java.io.PrintStream;
+
+// Timing model of a classic in-order IF/ID/EX/MEM/WB pipeline, driven by the
+// stream of retired instructions. Architectural results still come from the
+// engine that runs the program; this only works out in which cycle every
+// instruction would have reached EX on the modelled hardware.
+//
+// Each instruction enters EX one cycle after its predecessor unless held back
+// by, in this order of attribution:
+//   control     fetch was redirected by a mispredicted jump or branch, flushing
+//               the instructions fetched behind it. Without a
+//               BranchPredictionUnit every taken transfer counts as
+//               mispredicted (predict not taken).
+//   cache miss  with a CacheModel attached, fetch waited for the I-cache, or
+//               the previous instruction is still in MEM waiting for the
+//               D-cache; a load's result is late by its miss penalty
+//   structural  a multi-cycle MUL/DIV/REM still occupies the unpipelined EX unit
+//   load-use    a source register is produced by a load still in MEM
+//   data        a source register is produced by an instruction whose result
+//               cannot be forwarded yet
+// Cycles are numbered from 0, the first instruction's IF.
+public class PipelineModel implements RetireListener, RunReport {
+
+    public enum Stall {
+        CONTROL("control"),
+        STRUCTURAL("structural"),
+        LOAD_USE("load-use"),
+        DATA("data hazard"),
+        MEMORY("cache miss");
+
+        private final String label;
+
+        Stall(String label) {
+            this.label = label;
+        }
+    }
+
+    private final PipelineConfig config;
+    private BranchPredictionUnit branchUnit = null;
+    private CacheModel cacheModel = null;
+
+    // Earliest cycle a consumer of each register can be in EX
+    private final long[] ready = new long[32];
+    // Whether that register's pending value comes from a load
+    private final boolean[] loaded = new boolean[32];
+    private long previousEx = 1; // So the first instruction reaches EX in cycle 2
+    private long exFree = 0;     // First cycle the EX unit can accept an instruction
+    private long redirectEx = 0; // Earliest EX cycle after the last fetch redirect
+    private long memFree = 0;    // First cycle an instruction can be in EX without MEM being busy
+    private long lastWb = -1;
+
+    private long instructions = 0;
+    private long flushes = 0;
+    private final long[] stalls = new long[Stall.values().length];
+
+    public PipelineModel(PipelineConfig config) {
+        this.config = config;
+    }
+
+    // Lets unit decide which control transfers flush. The model then feeds
+    // the unit itself, so the unit must not also be registered as a listener.
+    public void setBranchPredictionUnit(BranchPredictionUnit unit) {
+        this.branchUnit = unit;
+    }
+
+    // Adds cache miss penalties to the timing. As with the branch unit, the
+    // model feeds the cache model itself.
+    public void setCacheModel(CacheModel model) {
+        this.cacheModel = model;
+    }
+
+    @Override
+    public void retired(int pc, DecodedInstruction insn, int nextPc, int memAddress, int value) {
+        boolean redirected;
+        if (branchUnit != null) {
+            branchUnit.retired(pc, insn, nextPc, memAddress, value);
+            redirected = branchUnit.lastMispredicted();
+        } else {
+            redirected = insn.aluOp().isControlTransfer() && nextPc != pc + 4;
+        }
+        int fetchPenalty = 0;
+        int dataPenalty = 0;
+        if (cacheModel != null) {
+            cacheModel.retired(pc, insn, nextPc, memAddress, value);
+            fetchPenalty = cacheModel.lastFetchPenalty();
+            dataPenalty = cacheModel.lastDataPenalty();
+        }
+
+        long ex = previousEx + 1;
+        ex = stallUntil(ex, redirectEx, Stall.CONTROL);
+        if (fetchPenalty != 0) {
+            ex += fetchPenalty; // The line is filled after fetch knows the PC
+            stalls[Stall.MEMORY.ordinal()] += fetchPenalty;
+        }
+        ex = stallUntil(ex, memFree, Stall.MEMORY);
+        ex = stallUntil(ex, exFree, Stall.STRUCTURAL);
+
+        // Branches resolved in ID need their operands a cycle before EX
+        int early = config.resolveBranchesInId() && insn.opcode() == DecodedInstruction.OP_BRANCH ? 1 : 0;
+        ex = operand(ex, insn.rs1(), early);
+        if (insn.opcode() == DecodedInstruction.OP_STORE && config.forwarding() == PipelineConfig.Forwarding.FULL) {
+            ex = operand(ex, insn.rs2(), -1); // Store data is only needed in MEM
+        } else {
+            ex = operand(ex, insn.rs2(), early);
+        }
+
+        long exEnd = ex + latency(insn.aluOp()) - 1;
+        exFree = exEnd + 1;
+        memFree = exEnd + 1 + dataPenalty;
+        lastWb = Math.max(lastWb, exEnd + 2 + dataPenalty);
+
+        if (insn.writesRegister() && insn.rd() != 0) {
+            boolean load = insn.aluOp() == AluOp.LOAD;
+            switch (config.forwarding()) {
+                case FULL:
+                    ready[insn.rd()] = load ? exEnd + 2 + dataPenalty : exEnd + 1;
+                    break;
+                case MEM_WB:
+                    ready[insn.rd()] = exEnd + 2 + dataPenalty;
+                    break;
+                default:
+                    ready[insn.rd()] = exEnd + 3 + dataPenalty; // Read in ID during the WB cycle
+                    break;
+            }
+            loaded[insn.rd()] = load;
+        }
+
+        if (redirected) {
+            // The right PC is fetched the cycle after the jump or branch resolves
+            boolean inId = insn.aluOp() == AluOp.JAL
+                    || (config.resolveBranchesInId() && insn.opcode() == DecodedInstruction.OP_BRANCH);
+            long resolved = inId ? ex - 1 : ex;
+            redirectEx = resolved + 3;
+            flushes++;
+        }
+
+        previousEx = ex;
+        instructions++;
+    }
+
+    // Delays ex to at least earliest, charging the difference to cause
+    private long stallUntil(long ex, long earliest, Stall cause) {
+        if (earliest > ex) {
+            stalls[cause.ordinal()] += earliest - ex;
+            return earliest;
+        }
+        return ex;
+    }
+
+    // Delays ex until register reg can be read; early is how many cycles
+    // before EX the value is needed (negative if it is needed later)
+    private long operand(long ex, int reg, int early) {
+        if (reg == 0) {
+            return ex;
+        }
+        return stallUntil(ex, ready[reg] + early, loaded[reg] ? Stall.LOAD_USE : Stall.DATA);
+    }
+
+    private int latency(AluOp op) {
+        switch (op) {
+            case MUL:
+                return config.mulLatency();
+            case DIV:
+            case REM:
+                return config.divLatency();
+            default:
+                return 1;
+        }
+    }
+
+    public long getCycles() {
+        return lastWb + 1;
+    }
+
+    public long getInstructions() {
+        return instructions;
+    }
+
+    public double getCpi() {
+        return instructions == 0 ? 0 : (double) getCycles() / instructions;
+    }
+
+    public long getStalls(Stall cause) {
+        return stalls[cause.ordinal()];
+    }
+
+    // Stall cycles of every cause
+    public long getStallCycles() {
+        long total = 0;
+        for (long cycles : stalls) {
+            total += cycles;
+        }
+        return total;
+    }
+
+    // Jumps and branches that redirected fetch
+    public long getFlushes() {
+        return flushes;
+    }
+
+    @Override
+    public void printReport(PrintStream out) {
+        out.println("Pipeline Model: forwarding " + config.forwarding()
+                + ", branches resolved in " + (config.resolveBranchesInId() ? "ID" : "EX")
+                + ", MUL " + config.mulLatency() + " cycles, DIV/REM " + config.divLatency() + " cycles");
+        out.println("Pipeline Cycles: " + getCycles());
+        out.println("Pipeline Instructions: " + instructions);
+        out.printf("CPI: %.3f%n", getCpi());
+        for (Stall cause : Stall.values()) {
+            out.println("Stall Cycles (" + cause.label + "): " + stalls[cause.ordinal()]);
+        }
+        out.println("Pipeline Flushes: " + flushes);
+    }
+}
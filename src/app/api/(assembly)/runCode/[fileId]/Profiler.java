@@ -0,0 +1,247 @@
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+// Hot-spot profile of a run: how often each PC executed, which way each
+// branch went and the mix of instruction classes, rolled up by the text
+// label that encloses each PC. Calls (JAL/JALR linking ra or t0) and returns
+// (JALR x0 through ra or t0) are followed to attribute every instruction to
+// a stack of labels, printed in the collapsed-stack format flame graph tools
+// read: "caller;callee;label count", one line per distinct stack. A call
+// from a label already on the stack (recursion, or a linking jump used as a
+// loop) returns to that frame instead of growing the stack.
+//
+// Stage-by-stage runs feed it per instruction as a RetireListener; fast runs
+// hand it whole basic blocks so the JIT can stay on.
+public class Profiler implements RetireListener, RunReport {
+
+    private static final String[] CLASS_NAMES = {"alu", "mul/div", "load", "store", "branch", "jump", "csr", "invalid"};
+    private static final int[] CLASS_OF = new int[AluOp.values().length];
+
+    static {
+        for (AluOp op : AluOp.values()) {
+            int instructionClass;
+            switch (op) {
+                case MUL:
+                case DIV:
+                case REM:
+                    instructionClass = 1;
+                    break;
+                case LOAD:
+                    instructionClass = 2;
+                    break;
+                case STORE:
+                    instructionClass = 3;
+                    break;
+                case BEQ:
+                case BNE:
+                case BLT:
+                case BGE:
+                    instructionClass = 4;
+                    break;
+                case JAL:
+                case JALR:
+                    instructionClass = 5;
+                    break;
+                case CSRRW:
+                case CSRRS:
+                case CSRRC:
+                    instructionClass = 6;
+                    break;
+                case INVALID:
+                    instructionClass = 7;
+                    break;
+                default:
+                    instructionClass = 0;
+                    break;
+            }
+            CLASS_OF[op.ordinal()] = instructionClass;
+        }
+    }
+
+    private final LabelTable labels;
+
+    // Per PC, indexed by pc / 4
+    private long[] executed = new long[0];
+    private long[] taken = new long[0];
+    private long[] notTaken = new long[0];
+    private int[] labelOf = new int[0]; // Enclosing label + 1, so 0 means not looked up yet
+    private final long[] classCounts = new long[CLASS_NAMES.length];
+    private long total = 0;
+
+    // Stacks are paths in a tree of frames; stack is the frame of the
+    // current caller chain (root when nothing has been called)
+    private final Frame root = new Frame(null, -1);
+    private Frame stack = root;
+
+    public Profiler(LabelTable labels) {
+        this.labels = labels;
+    }
+
+    @Override
+    public void retired(int pc, DecodedInstruction insn, int nextPc, int memAddress, int value) {
+        count(pc, insn);
+        if (insn.aluOp().isControlTransfer()) {
+            transfer(pc, insn, nextPc);
+        }
+    }
+
+    // The first count instructions of block retired and execution went on at
+    // nextPc; only the last of them can be a jump or branch
+    public void retiredBlock(BasicBlock block, int count, int nextPc) {
+        DecodedInstruction[] body = block.getInstructions();
+        int pc = block.getStartPc();
+        for (int i = 0; i < count; i++) {
+            count(pc, body[i]);
+            pc += 4;
+        }
+        DecodedInstruction last = body[count - 1];
+        if (last.aluOp().isControlTransfer()) {
+            transfer(pc - 4, last, nextPc);
+        }
+    }
+
+    private void count(int pc, DecodedInstruction insn) {
+        int index = pc >>> 2;
+        if (index >= executed.length) {
+            int capacity = Math.max(index + 1, executed.length * 2);
+            executed = Arrays.copyOf(executed, capacity);
+            taken = Arrays.copyOf(taken, capacity);
+            notTaken = Arrays.copyOf(notTaken, capacity);
+            labelOf = Arrays.copyOf(labelOf, capacity);
+        }
+        executed[index]++;
+        classCounts[CLASS_OF[insn.aluOp().ordinal()]]++;
+        total++;
+        stack.leaf(label(index)).samples++;
+    }
+
+    private void transfer(int pc, DecodedInstruction insn, int nextPc) {
+        int index = pc >>> 2;
+        if (insn.opcode() == DecodedInstruction.OP_BRANCH) {
+            if (nextPc != pc + 4) {
+                taken[index]++;
+            } else {
+                notTaken[index]++;
+            }
+            return;
+        }
+        if (insn.aluOp() == AluOp.JALR && insn.rd() == 0 && isLink(insn.rs1()) && stack != root) {
+            stack = stack.parent;
+        }
+        if (isLink(insn.rd())) {
+            int site = label(index);
+            Frame frame = stack;
+            while (frame != root && frame.label != site) {
+                frame = frame.parent;
+            }
+            stack = frame != root ? frame : stack.leaf(site);
+        }
+    }
+
+    // ra (x1) and t0 (x5) are the link registers by RISC-V convention
+    private static boolean isLink(int reg) {
+        return reg == 1 || reg == 5;
+    }
+
+    // Index of the label enclosing the PC at index, or -1
+    private int label(int index) {
+        int label = labelOf[index];
+        if (label == 0) {
+            label = labels.find(index * 4) + 1;
+            labelOf[index] = label == 0 ? -1 : label;
+            return label - 1;
+        }
+        return label < 0 ? -1 : label - 1;
+    }
+
+    private String labelName(int label) {
+        return label < 0 ? "(entry)" : labels.name(label);
+    }
+
+    public long getExecuted(int pc) {
+        int index = pc >>> 2;
+        return index < executed.length ? executed[index] : 0;
+    }
+
+    private static String percent(long part, long whole) {
+        return whole == 0 ? "n/a" : String.format("%.2f%%", 100.0 * part / whole);
+    }
+
+    @Override
+    public void printReport(PrintStream out) {
+        out.println("Profile Instructions: " + total);
+        for (int i = 0; i < CLASS_NAMES.length; i++) {
+            if (classCounts[i] != 0) {
+                out.println("Profile Class " + CLASS_NAMES[i] + ": " + classCounts[i] + " (" + percent(classCounts[i], total)
+                        + ")");
+            }
+        }
+
+        // Flat profile: instructions executed under each label, hottest first
+        HashMap<Integer, long[]> byLabel = new HashMap<>();
+        for (int index = 0; index < executed.length; index++) {
+            if (executed[index] != 0) {
+                long[] sums = byLabel.computeIfAbsent(label(index), k -> new long[3]);
+                sums[0] += executed[index];
+                sums[1] += taken[index];
+                sums[2] += notTaken[index];
+            }
+        }
+        ArrayList<Integer> order = new ArrayList<>(byLabel.keySet());
+        order.sort((a, b) -> Long.compare(byLabel.get(b)[0], byLabel.get(a)[0]));
+        for (int label : order) {
+            long[] sums = byLabel.get(label);
+            out.println("Profile Label " + labelName(label) + ": " + sums[0] + " instructions (" + percent(sums[0], total)
+                    + "), " + sums[1] + " branches taken, " + sums[2] + " not taken");
+        }
+
+        for (int index = 0; index < executed.length; index++) {
+            if (executed[index] != 0) {
+                out.println("Profile PC " + MachineState.toHex(index * 4) + " (" + labelName(label(index)) + "): "
+                        + executed[index] + " executed, " + taken[index] + " taken, " + notTaken[index] + " not taken");
+            }
+        }
+
+        ArrayList<String> stacks = new ArrayList<>();
+        collapse(root, "", stacks);
+        stacks.sort(null);
+        for (String line : stacks) {
+            out.println("Profile Stack " + line);
+        }
+    }
+
+    private void collapse(Frame frame, String prefix, ArrayList<String> lines) {
+        for (Frame child : frame.children.values()) {
+            String path = prefix.isEmpty() ? labelName(child.label) : prefix + ";" + labelName(child.label);
+            if (child.samples != 0) {
+                lines.add(path + " " + child.samples);
+            }
+            collapse(child, path, lines);
+        }
+    }
+
+    // One label in a call stack
+    private static final class Frame {
+        final Frame parent;
+        final int label;
+        final HashMap<Integer, Frame> children = new HashMap<>();
+        long samples = 0;
+        // Last child looked up, since consecutive instructions mostly share a label
+        private Frame lastLeaf = null;
+
+        Frame(Frame parent, int label) {
+            this.parent = parent;
+            this.label = label;
+        }
+
+        Frame leaf(int label) {
+            if (lastLeaf != null && lastLeaf.label == label) {
+                return lastLeaf;
+            }
+            lastLeaf = children.computeIfAbsent(label, k -> new Frame(this, k));
+            return lastLeaf;
+        }
+    }
+}
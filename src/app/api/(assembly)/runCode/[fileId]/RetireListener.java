@@ -0,0 +1,8 @@
+// Notified by the execution engines once for every instruction that retires.
+// memAddress is the effective address of a load or store (0 otherwise); value
+// is what the instruction wrote: the new rd value, or the stored register value
+// for a store.
+public interface RetireListener {
+
+    void retired(int pc, DecodedInstruction insn, int nextPc, int memAddress, int value);
+}
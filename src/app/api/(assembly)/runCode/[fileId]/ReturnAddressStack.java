@@ -0,0 +1,36 @@
+// Fixed-depth stack of return addresses pushed by calls and popped by
+// returns. When it overflows the oldest entry is lost, as in hardware.
+public class ReturnAddressStack {
+
+    private final int[] entries;
+    private int top = 0;   // Index of the next push
+    private int count = 0;
+
+    public ReturnAddressStack(int depth) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("RAS depth must be at least 1");
+        }
+        entries = new int[depth];
+    }
+
+    public void push(int address) {
+        entries[top] = address;
+        top = (top + 1) % entries.length;
+        count = Math.min(count + 1, entries.length);
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    // Most recent address; only meaningful if the stack is not empty
+    public int pop() {
+        top = (top + entries.length - 1) % entries.length;
+        count--;
+        return entries[top];
+    }
+
+    public int depth() {
+        return entries.length;
+    }
+}
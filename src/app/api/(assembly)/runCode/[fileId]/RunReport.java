@@ -0,0 +1,8 @@
+import java.io.PrintStream;
+
+// Statistics gathered during a run (usually by a RetireListener) that are
+// printed before the final register and memory state
+public interface RunReport {
+
+    void printReport(PrintStream out);
+}
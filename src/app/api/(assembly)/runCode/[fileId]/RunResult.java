@@ -0,0 +1,4 @@
+// Outcome of a run: how many instructions retired, where the PC stopped and
+// why. The architectural state itself stays in the MachineState that was run.
+public record RunResult(long instructionsRetired, int pc, StopReason reason) {
+}
@@ -0,0 +1,94 @@
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Runs many fast-mode simulations on a bounded set of threads by advancing
+// each one a fixed number of instructions at a time. A run that uses up its
+// slice without finishing goes to the back of the queue, so a long program
+// shares the threads round-robin with short ones instead of pinning one.
+// Every run keeps its own ExecutionBudget across slices.
+public class SliceScheduler {
+
+    public static final long DEFAULT_SLICE = 1_000_000;
+
+    private final ExecutorService threads;
+    private final long slice;
+
+    public SliceScheduler(int threadCount, long slice) {
+        this.threads = Executors.newFixedThreadPool(threadCount);
+        this.slice = slice;
+    }
+
+    // Queues a run of interpreter under budget. The interpreter and its machine
+    // belong to the scheduler until the job's result completes.
+    public Job submit(FastInterpreter interpreter, ExecutionBudget budget) {
+        Job job = new Job(interpreter, budget);
+        threads.execute(job);
+        return job;
+    }
+
+    public void shutdown() {
+        threads.shutdownNow();
+    }
+
+    public final class Job implements Runnable {
+        private final FastInterpreter interpreter;
+        private final ExecutionBudget budget;
+        private final long deadline;
+        private final CompletableFuture<RunResult> result = new CompletableFuture<>();
+        private volatile boolean cancelled = false;
+        private long retired = 0;
+        private int slices = 0;
+
+        private Job(FastInterpreter interpreter, ExecutionBudget budget) {
+            this.interpreter = interpreter;
+            this.budget = budget;
+            this.deadline = budget.deadlineNanos(System.nanoTime());
+        }
+
+        // Completes with the whole run's result, or with CancellationException
+        public CompletableFuture<RunResult> getResult() {
+            return result;
+        }
+
+        // Stops the run at the end of its current slice. The result completes
+        // only once no slice is running, so the machine is then free to reuse.
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public int getSlices() {
+            return slices;
+        }
+
+        @Override
+        public void run() {
+            if (cancelled) {
+                result.completeExceptionally(new CancellationException("Run cancelled"));
+                return;
+            }
+            RunResult last;
+            try {
+                long remaining = budget.maxInstructions() - retired;
+                last = interpreter.run(Math.min(slice, remaining), deadline, budget.maxPages());
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+                return;
+            }
+            retired += last.instructionsRetired();
+            slices++;
+
+            boolean sliceUsedUp = last.reason() == StopReason.INSTRUCTION_LIMIT && retired < budget.maxInstructions();
+            if (!sliceUsedUp) {
+                result.complete(new RunResult(retired, last.pc(), last.reason()));
+                return;
+            }
+            try {
+                threads.execute(this); // Back of the queue
+            } catch (RuntimeException e) {
+                result.completeExceptionally(new CancellationException("Scheduler shut down"));
+            }
+        }
+    }
+}
@@ -0,0 +1,18 @@
+// Backward taken, forward not taken: loops are predicted to repeat and
+// forward skips to be skipped over. Needs no state.
+public class StaticPredictor implements BranchPredictor {
+
+    @Override
+    public boolean predict(int pc, int target) {
+        return Integer.compareUnsigned(target, pc) <= 0;
+    }
+
+    @Override
+    public void update(int pc, boolean taken) {
+    }
+
+    @Override
+    public String describe() {
+        return "static (backward taken, forward not taken)";
+    }
+}
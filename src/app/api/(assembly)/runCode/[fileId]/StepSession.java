@@ -0,0 +1,67 @@
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// A program opened for reading its datapath log a window at a time. Nothing
+// runs until a window is asked for; the session's History then runs, or
+// restores a checkpoint and replays, just far enough to print it. The last
+// MAX_CACHED_WINDOWS windows are kept, so paging back and forth over them
+// costs nothing. Calls are serialized, since a session owns one machine.
+public class StepSession {
+
+    public static final int MAX_WINDOW_STEPS = 500;
+    public static final int MAX_CACHED_WINDOWS = 8;
+
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private final PrintStream out = new PrintStream(buffer, false, StandardCharsets.UTF_8);
+    private final Execution cpu = new Execution(out);
+    private final History history;
+    private final Map<Long, String> windows = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, String> eldest) {
+            return size() > MAX_CACHED_WINDOWS;
+        }
+    };
+
+    public StepSession(BufferedReader listing, int checkpointInterval) throws IOException {
+        cpu.parseMachineCode(listing);
+        history = cpu.newHistory(checkpointInterval);
+    }
+
+    // Steps [from, from + count) in Execution.printSteps() format
+    public synchronized String steps(long from, int count) {
+        if (from < 0 || count < 1 || count > MAX_WINDOW_STEPS) {
+            throw new IllegalArgumentException("Windows start at 0 and hold 1 to " + MAX_WINDOW_STEPS + " steps");
+        }
+        long key = from * (MAX_WINDOW_STEPS + 1) + count;
+        String window = windows.get(key);
+        if (window == null) {
+            buffer.reset();
+            cpu.printSteps(history, from, count);
+            window = buffer.toString(StandardCharsets.UTF_8);
+            windows.put(key, window);
+        }
+        return window;
+    }
+
+    // Memory after step at: the mapped bytes in [start, start + length), or
+    // with length -1 the bytes that differ from the loaded listing. Printed
+    // after "Position: N", which is less than at if the program halted first.
+    public synchronized String memory(long at, int start, int length) {
+        if (at < 0) {
+            throw new IllegalArgumentException("Position must not be negative");
+        }
+        buffer.reset();
+        out.println("Position: " + history.seek(at));
+        if (length == -1) {
+            cpu.printMemoryChanges();
+        } else {
+            cpu.printMemoryRange(start, length);
+        }
+        return buffer.toString(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,13 @@
+// Why a run returned control to its caller
+public enum StopReason {
+    HALTED,            // Fetched an empty (zero) instruction slot
+    END_OF_TEXT,       // Fetched the assembler's end-of-text marker
+    INSTRUCTION_LIMIT, // Retired the budgeted number of instructions
+    TIME_LIMIT,        // Ran past the budgeted wall-clock time
+    MEMORY_LIMIT;      // Touched more memory pages than budgeted
+
+    // True if the program itself ended, as opposed to running out of budget
+    public boolean isFinished() {
+        return this == HALTED || this == END_OF_TEXT;
+    }
+}
@@ -0,0 +1,41 @@
+// Runs a per-PC 2-bit predictor and gshare side by side and lets a table of
+// 2-bit chooser counters, indexed by PC, learn which of the two to trust for
+// each branch.
+public class TournamentPredictor implements BranchPredictor {
+
+    private final BimodalPredictor local;
+    private final GsharePredictor global;
+    // Counts up when gshare was right and the local predictor wrong
+    private final BimodalPredictor chooser;
+    private final int indexBits;
+    private boolean localPrediction;
+    private boolean globalPrediction;
+
+    public TournamentPredictor(int indexBits) {
+        this.local = new BimodalPredictor(2, indexBits);
+        this.global = new GsharePredictor(indexBits);
+        this.chooser = new BimodalPredictor(2, indexBits);
+        this.indexBits = indexBits;
+    }
+
+    @Override
+    public boolean predict(int pc, int target) {
+        localPrediction = local.predict(pc, target);
+        globalPrediction = global.predict(pc, target);
+        return chooser.predict(pc, target) ? globalPrediction : localPrediction;
+    }
+
+    @Override
+    public void update(int pc, boolean taken) {
+        if (localPrediction != globalPrediction) {
+            chooser.update(pc, globalPrediction == taken);
+        }
+        local.update(pc, taken);
+        global.update(pc, taken);
+    }
+
+    @Override
+    public String describe() {
+        return "tournament (2-bit and gshare, " + (1 << indexBits) + " counters each)";
+    }
+}
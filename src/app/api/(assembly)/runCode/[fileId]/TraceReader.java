@@ -0,0 +1,156 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+// Reads a trace written by TraceWriter. The reader is a cursor: next()
+// advances to the following record and the getters describe the current one,
+// with omitted fields (sequential PC, repeated IR) filled back in.
+public class TraceReader implements AutoCloseable {
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+    private final TraceWriter.IrHistory lastIr = new TraceWriter.IrHistory();
+    private boolean endOfFile = false;
+
+    private int pc;
+    private int ir;
+    private int nextPc = 0;
+    private boolean registerWrite;
+    private int rd;
+    private int registerValue;
+    private boolean memoryWrite;
+    private int memoryAddress;
+    private int memorySize;
+    private int memoryValue;
+
+    public TraceReader(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        buffer.limit(0);
+        if (!fill(6) || buffer.getInt() != TraceWriter.MAGIC) {
+            throw new IOException("Not an execution trace: " + path);
+        }
+        short version = buffer.getShort();
+        if (version != TraceWriter.VERSION) {
+            throw new IOException("Unsupported trace version " + version);
+        }
+    }
+
+    // Makes at least count bytes available; false at end of file
+    private boolean fill(int count) throws IOException {
+        if (buffer.remaining() >= count) {
+            return true;
+        }
+        buffer.compact();
+        while (!endOfFile && buffer.position() < count) {
+            if (channel.read(buffer) < 0) {
+                endOfFile = true;
+            }
+        }
+        buffer.flip();
+        return buffer.remaining() >= count;
+    }
+
+    // Advances to the next record; false when the trace is exhausted
+    public boolean next() throws IOException {
+        if (!fill(1)) {
+            return false;
+        }
+        int flags = buffer.get();
+        int length = ((flags & TraceWriter.FLAG_PC) != 0 ? 4 : 0)
+                + ((flags & TraceWriter.FLAG_IR) != 0 ? 4 : 0)
+                + ((flags & TraceWriter.FLAG_REG) != 0 ? 5 : 0)
+                + ((flags & TraceWriter.FLAG_MEM) != 0 ? 9 : 0);
+        if (!fill(length)) {
+            throw new IOException("Truncated trace record");
+        }
+
+        pc = (flags & TraceWriter.FLAG_PC) != 0 ? buffer.getInt() : nextPc;
+        if ((flags & TraceWriter.FLAG_IR) != 0) {
+            ir = buffer.getInt();
+            lastIr.record(pc, ir);
+        } else {
+            ir = lastIr.get(pc);
+        }
+        registerWrite = (flags & TraceWriter.FLAG_REG) != 0;
+        if (registerWrite) {
+            rd = buffer.get();
+            registerValue = buffer.getInt();
+        }
+        memoryWrite = (flags & TraceWriter.FLAG_MEM) != 0;
+        if (memoryWrite) {
+            memoryAddress = buffer.getInt();
+            memorySize = buffer.get();
+            memoryValue = buffer.getInt();
+        }
+        nextPc = pc + 4;
+        return true;
+    }
+
+    public int getPc() {
+        return pc;
+    }
+
+    public int getIr() {
+        return ir;
+    }
+
+    public boolean hasRegisterWrite() {
+        return registerWrite;
+    }
+
+    public int getRd() {
+        return rd;
+    }
+
+    public int getRegisterValue() {
+        return registerValue;
+    }
+
+    public boolean hasMemoryWrite() {
+        return memoryWrite;
+    }
+
+    public int getMemoryAddress() {
+        return memoryAddress;
+    }
+
+    public int getMemorySize() {
+        return memorySize;
+    }
+
+    public int getMemoryValue() {
+        return memoryValue;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    // Prints a trace as text, one line per retired instruction
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.out.println("Usage: java TraceReader <trace file>");
+            return;
+        }
+        try (TraceReader reader = new TraceReader(Paths.get(args[0]))) {
+            StringBuilder line = new StringBuilder();
+            while (reader.next()) {
+                line.setLength(0);
+                line.append(MachineState.toHex(reader.getPc())).append(' ').append(MachineState.toHex(reader.getIr()));
+                if (reader.hasRegisterWrite()) {
+                    line.append(" x").append(reader.getRd()).append('=').append(MachineState.toHex(reader.getRegisterValue()));
+                }
+                if (reader.hasMemoryWrite()) {
+                    line.append(" [").append(MachineState.toHex(reader.getMemoryAddress())).append("]/")
+                            .append(reader.getMemorySize()).append('=').append(MachineState.toHex(reader.getMemoryValue()));
+                }
+                System.out.println(line);
+            }
+        }
+    }
+}
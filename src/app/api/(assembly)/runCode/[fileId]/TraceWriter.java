@@ -0,0 +1,144 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+// Writes a compact binary trace with one record per retired instruction.
+//
+// File layout (little endian): the 4 byte magic "RVTR", a u16 version, then
+// records. Every record starts with a flags byte; each flag adds one
+// fixed-width field, in this order:
+//
+//   PC    u32          only when the PC is not the previous record's PC + 4
+//   IR    u32          only when the word differs from the last one traced at this PC
+//   REG   u8 rd, u32   register write (never for x0)
+//   MEM   u32 address, u8 size, u32 value   memory write
+//
+// Straight-line code in a loop therefore costs one byte plus its register or
+// memory write per instruction. TraceReader decodes the format.
+public class TraceWriter implements RetireListener, AutoCloseable {
+
+    static final int MAGIC = 0x52545652; // "RVTR" read as a little-endian int
+    static final short VERSION = 1;
+
+    static final int FLAG_PC = 1;
+    static final int FLAG_IR = 1 << 1;
+    static final int FLAG_REG = 1 << 2;
+    static final int FLAG_MEM = 1 << 3;
+
+    private static final int MAX_RECORD = 1 + 4 + 4 + 5 + 9;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+    private final IrHistory lastIr = new IrHistory();
+    private int expectedPc = 0;
+    private long records = 0;
+
+    public TraceWriter(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        buffer.putInt(MAGIC);
+        buffer.putShort(VERSION);
+    }
+
+    @Override
+    public void retired(int pc, DecodedInstruction insn, int nextPc, int memAddress, int value) {
+        if (buffer.remaining() < MAX_RECORD) {
+            flush();
+        }
+
+        int flags = 0;
+        if (pc != expectedPc) {
+            flags |= FLAG_PC;
+        }
+        if (!lastIr.matches(pc, insn.word())) {
+            flags |= FLAG_IR;
+        }
+        if (insn.writesRegister()) {
+            flags |= FLAG_REG;
+        }
+        if (insn.aluOp() == AluOp.STORE) {
+            flags |= FLAG_MEM;
+        }
+
+        buffer.put((byte) flags);
+        if ((flags & FLAG_PC) != 0) {
+            buffer.putInt(pc);
+        }
+        if ((flags & FLAG_IR) != 0) {
+            buffer.putInt(insn.word());
+        }
+        if ((flags & FLAG_REG) != 0) {
+            buffer.put((byte) insn.rd());
+            buffer.putInt(value);
+        }
+        if ((flags & FLAG_MEM) != 0) {
+            buffer.putInt(memAddress);
+            buffer.put((byte) insn.size());
+            buffer.putInt(value);
+        }
+        expectedPc = pc + 4; // Taken jumps and branches spell out the next PC
+        records++;
+    }
+
+    public long getRecordCount() {
+        return records;
+    }
+
+    private void flush() {
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Error while writing trace", e);
+        }
+        buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        channel.close();
+    }
+
+    // Last IR traced at each PC, kept by both the writer and the reader so
+    // they agree on when the IR field is omitted. PCs outside the first 64 MiB
+    // are never remembered and always carry their IR.
+    static final class IrHistory {
+        private static final int MAX_INDEX = 1 << 24;
+
+        private int[] words = new int[256];
+        private boolean[] seen = new boolean[256];
+
+        // True if word is what was last recorded at pc; records it either way
+        boolean matches(int pc, int word) {
+            int index = pc >>> 2;
+            boolean same = (pc & 3) == 0 && index < words.length && seen[index] && words[index] == word;
+            record(pc, word);
+            return same;
+        }
+
+        void record(int pc, int word) {
+            int index = pc >>> 2;
+            if ((pc & 3) != 0 || index >= MAX_INDEX) {
+                return;
+            }
+            if (index >= words.length) {
+                int capacity = Math.min(MAX_INDEX, Math.max(words.length * 2, index + 1));
+                words = Arrays.copyOf(words, capacity);
+                seen = Arrays.copyOf(seen, capacity);
+            }
+            words[index] = word;
+            seen[index] = true;
+        }
+
+        int get(int pc) {
+            return words[pc >>> 2];
+        }
+    }
+}
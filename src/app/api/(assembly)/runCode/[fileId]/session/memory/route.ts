@@ -0,0 +1,55 @@
+import { NextRequest, NextResponse } from "next/server";
+import { SimulatorError, callSimulator } from "@/lib/simulator";
+import { parseMemoryView } from "@/lib/runOutput";
+
+// Memory of a stepping session (see ../route.ts) after step ?at=, without
+// sending the rest of the machine state:
+//   GET ?session=&at=&start=&length=   the mapped bytes in [start, start + length),
+//                                      start decimal or 0x hex, length <= 65536
+//   GET ?session=&at=                  the bytes that differ from the loaded program
+// Both return the position reached (less than at if the program halted first)
+// and the bytes as { "0x10000000": "05", ... }; unmapped bytes are left out.
+export async function GET(req: NextRequest) {
+    const params = req.nextUrl.searchParams
+    const sessionId = params.get("session") ?? ""
+    const at = params.get("at") ?? "0"
+    const start = params.get("start")
+    const length = params.get("length") ?? "256"
+    if (!/^[0-9a-f-]+$/.test(sessionId) || !/^\d+$/.test(at)
+        || (start !== null && (!/^(\d+|0x[0-9a-f]{1,8})$/i.test(start) || !/^\d+$/.test(length)))) {
+        return NextResponse.json({
+            success: false,
+            message: "session and at are required; start and length must be numbers"
+        }, { status: 400 })
+    }
+
+    try {
+        const query = new URLSearchParams({ id: sessionId, at })
+        if (start !== null) {
+            query.set("start", start)
+            query.set("length", length)
+        }
+        const output = await callSimulator(`/session/memory?${query}`, "", req.signal)
+        if (output === null) {
+            return NextResponse.json({
+                success: false,
+                message: "Stepping sessions need the simulator server (npm run simulator)"
+            }, { status: 503 })
+        }
+        return NextResponse.json({
+            success: true,
+            ...parseMemoryView(output)
+        }, { status: 200 })
+    } catch (error) {
+        if (error instanceof SimulatorError) {
+            return NextResponse.json({
+                success: false,
+                message: error.message
+            }, { status: error.status })
+        }
+        return NextResponse.json({
+            success: false,
+            message: "Error while reading memory"
+        }, { status: 500 })
+    }
+}
@@ -0,0 +1,107 @@
+import { NextRequest, NextResponse } from "next/server";
+import path from "path";
+import fs from "fs"
+import { SimulatorError, callSimulator } from "@/lib/simulator";
+import { parseWindow } from "@/lib/runOutput";
+
+// Windowed stepping through a program's datapath log, backed by a daemon
+// session that only simulates as far as the windows asked for:
+//   POST   ?                          opens a session, returns { sessionId }
+//   GET    ?session=&from=&count=     steps [from, from + count) (count <= 500),
+//                                    the position after them, the stop reason
+//                                    once halted and the register file there
+//   DELETE ?session=                 closes the session
+// memory/route.ts reads a session's memory at any position.
+// Sessions live in the resident simulator only, so without it these answer 503.
+
+function errorResponse(error: unknown) {
+    if (error instanceof SimulatorError) {
+        return NextResponse.json({
+            success: false,
+            message: error.message
+        }, { status: error.status })
+    }
+    return NextResponse.json({
+        success: false,
+        message: "Error while executing file"
+    }, { status: 500 })
+}
+
+const daemonDown = () => NextResponse.json({
+    success: false,
+    message: "Stepping sessions need the simulator server (npm run simulator)"
+}, { status: 503 })
+
+export async function POST(req: NextRequest, { params }: { params: { fileId: string } }) {
+    const { fileId } = await params
+
+    if (!fileId) {
+        return NextResponse.json({
+            success: false,
+            message: "File Id is required"
+        }, { status: 404 })
+    }
+
+    const outputFileName = fileId.toString() + "_output.mc"
+    const outputFilePath = path.join(process.cwd(), "public", outputFileName)
+
+    if (!fs.existsSync(outputFilePath)) {
+        return NextResponse.json({
+            success: false,
+            message: "File does not exist"
+        }, { status: 500 })
+    }
+
+    try {
+        const machineCode = await fs.promises.readFile(outputFilePath, "utf8")
+        const output = await callSimulator("/session", machineCode, req.signal)
+        if (output === null) {
+            return daemonDown()
+        }
+        return NextResponse.json({
+            success: true,
+            sessionId: output.replace("Session:", "").trim()
+        }, { status: 200 })
+    } catch (error) {
+        return errorResponse(error)
+    }
+}
+
+export async function GET(req: NextRequest) {
+    const sessionId = req.nextUrl.searchParams.get("session") ?? ""
+    const from = req.nextUrl.searchParams.get("from") ?? "0"
+    const count = req.nextUrl.searchParams.get("count") ?? "100"
+    if (!/^[0-9a-f-]+$/.test(sessionId) || !/^\d+$/.test(from) || !/^\d+$/.test(count)) {
+        return NextResponse.json({
+            success: false,
+            message: "session, from and count are required"
+        }, { status: 400 })
+    }
+
+    try {
+        const query = new URLSearchParams({ id: sessionId, from, count })
+        const output = await callSimulator(`/session/steps?${query}`, "", req.signal)
+        if (output === null) {
+            return daemonDown()
+        }
+        return NextResponse.json({
+            success: true,
+            ...parseWindow(output)
+        }, { status: 200 })
+    } catch (error) {
+        return errorResponse(error)
+    }
+}
+
+export async function DELETE(req: NextRequest) {
+    const sessionId = req.nextUrl.searchParams.get("session") ?? ""
+    try {
+        const output = await callSimulator(`/session/close?${new URLSearchParams({ id: sessionId })}`, "", req.signal)
+        if (output === null) {
+            return daemonDown()
+        }
+        return NextResponse.json({ success: true }, { status: 200 })
+    } catch (error) {
+        return errorResponse(error)
+    }
+}
@@ -0,0 +1,139 @@
+import { NextRequest, NextResponse } from "next/server";
+import path from "path";
+import fs from "fs"
+import { spawn } from "child_process";
+import { Readable } from "stream";
+import { SimulatorError, openSimulatorStream, runArguments } from "@/lib/simulator";
+import { STEP_SEPARATOR, parseFinalState, parseRunSummary, parseStep } from "@/lib/runOutput";
+
+// Runs a program like ../route.ts but answers with newline-delimited JSON
+// while the simulator is still running: a {"type":"step", ...} record for
+// each datapath step (none with ?mode=fast), then one {"type":"result", ...}
+// record with the final state and reports, or {"type":"error", message} if
+// the run ended without printing its final state. Records are produced as the
+// client reads them, so a slow client holds the simulator back instead of
+// being buffered for, and a client that disconnects stops the run.
+export async function POST(req: NextRequest, { params }: { params: { fileId: string } }) {
+    const { fileId } = await params
+
+    if (!fileId) {
+        return NextResponse.json({
+            success: false,
+            message: "File Id is required"
+        }, { status: 404 })
+    }
+
+    const outputFileName = fileId.toString() + "_output.mc"
+    const outputFilePath = path.join(process.cwd(), "public", outputFileName)
+
+    if (!fs.existsSync(outputFilePath)) {
+        return NextResponse.json({
+            success: false,
+            message: "File does not exist"
+        }, { status: 500 })
+    }
+
+    const args = runArguments(req.nextUrl.searchParams)
+    if ("invalid" in args) {
+        return NextResponse.json({
+            success: false,
+            message: `Invalid value for ${args.invalid}`
+        }, { status: 400 })
+    }
+    const { daemonQuery, flags } = args
+
+    // Aborted when the client goes away, which stops the daemon job or the process
+    const abort = new AbortController()
+    req.signal.addEventListener("abort", () => abort.abort())
+
+    let source: ReadableStream<Uint8Array>
+    try {
+        const machineCode = await fs.promises.readFile(outputFilePath, "utf8")
+        source = await openSimulatorStream(`/stream?${daemonQuery}`, machineCode, abort.signal)
+            ?? spawnExecution(flags, outputFileName, abort.signal)
+    } catch (error) {
+        return NextResponse.json({
+            success: false,
+            message: error instanceof SimulatorError ? error.message : "Error while executing file"
+        }, { status: error instanceof SimulatorError ? error.status : 500 })
+    }
+
+    return new Response(toRecords(source, abort), {
+        headers: {
+            "Content-Type": "application/x-ndjson; charset=utf-8",
+            "Cache-Control": "no-cache"
+        }
+    })
+}
+
+// `java Execution` for when the daemon is not running; its stdout is only read
+// as fast as the records are, and aborting kills the process
+function spawnExecution(flags: string, outputFileName: string, signal: AbortSignal): ReadableStream<Uint8Array> {
+    const child = spawn("java", [
+        "-cp", "src/app/api/(assembly)/runCode/[fileId]/", "Execution",
+        ...flags.split(" ").filter(flag => flag.length > 0),
+        `public/${outputFileName}`
+    ], { signal, stdio: ["ignore", "pipe", "ignore"] })
+    child.on("error", () => {
+        // Killed by the abort; the stream ends with an error record
+    })
+    return Readable.toWeb(child.stdout) as ReadableStream<Uint8Array>
+}
+
+// Turns the simulator's text output into NDJSON records, one read of the
+// source per pull. Only the text after the last complete step is held, so
+// memory does not grow with the length of the run.
+function toRecords(source: ReadableStream<Uint8Array>, abort: AbortController): ReadableStream<Uint8Array> {
+    const reader = source.getReader()
+    const decoder = new TextDecoder()
+    const encoder = new TextEncoder()
+    const record = (value: object) => encoder.encode(JSON.stringify(value) + "\n")
+    let pending = ""
+
+    return new ReadableStream<Uint8Array>({
+        async pull(controller) {
+            let chunk
+            try {
+                chunk = await reader.read()
+            } catch (error) {
+                controller.enqueue(record({ type: "error", message: "Simulator stream failed" }))
+                controller.close()
+                return
+            }
+
+            if (chunk.done) {
+                pending += decoder.decode()
+                // The terminating fetch, the reports and the final state
+                if (/PC:\s*0x/.test(pending)) {
+                    controller.enqueue(record({ type: "step", ...parseStep(pending) }))
+                }
+                if (pending.includes("Register File State:") && pending.includes("Final Memory State:")) {
+                    controller.enqueue(record({ type: "result", ...parseFinalState(pending), ...parseRunSummary(pending) }))
+                } else {
+                    const errorMatch = pending.match(/Error: (.*)/)
+                    controller.enqueue(record({
+                        type: "error",
+                        message: errorMatch ? errorMatch[1] : "Run ended before printing its final state"
+                    }))
+                }
+                controller.close()
+                return
+            }
+
+            pending += decoder.decode(chunk.value, { stream: true })
+            let start = 0
+            let end
+            while ((end = pending.indexOf(STEP_SEPARATOR, start)) !== -1) {
+                const block = pending.substring(start, end)
+                if (block.trim().length > 0) {
+                    controller.enqueue(record({ type: "step", ...parseStep(block) }))
+                }
+                start = end + STEP_SEPARATOR.length
+            }
+            pending = pending.substring(start)
+        },
+        cancel() {
+            abort.abort()
+        }
+    })
+}
@@ -0,0 +1,550 @@
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+// Long-lived process that hosts the assembler and the simulator behind a small
+// HTTP API on the loopback interface, so the web routes do not start a JVM for
+// every request and the simulator runs on already JIT-compiled code.
+//
+//   POST /assemble[?fields=1] body: assembly source
+//                           200: the machine code listing RiscVParser writes,
+//                           with each instruction's fields in binary if asked
+//                           400: the assembler error message
+//   POST /run[?mode=fast]   body: a machine code listing
+//                           200: the text `java Execution [--fast]` prints
+//   POST /stream[?mode=fast] as /run, but the text is sent (chunked) while the
+//                           program runs, a step at a time; errors after the
+//                           first step arrive as a final "Error:" line
+//   POST /session           body: a machine code listing
+//                           200: "Session: <id>"; nothing runs yet
+//   POST /session/steps?id=&from=&count=
+//                           200: steps [from, from + count) of the session's
+//                           datapath log, see Execution.printSteps()
+//   POST /session/close?id= 200: the session is dropped
+//   GET  /health            200 "ok"
+//
+// Both job endpoints accept ?timeout=<millis> (capped at the server timeout).
+// /run also takes the ExecutionBudget limits maxInstructions, maxMillis and
+// maxPages; a run that hits one stops cleanly and reports it as its
+// "Stop Reason". maxInstructions defaults to ExecutionBudget.defaultFor() the
+// mode, and maxMillis to, at most, the request's timeout less RUN_GRACE_MILLIS,
+// so a runaway program reports TIME_LIMIT with its state rather than a 504.
+// pipeline=1 adds the PipelineModel report, tuned with
+// forwarding=none|mem_wb|full, branchInId=1, mulLatency and divLatency;
+// predictor=static|1bit|2bit|gshare|tournament adds the BranchPredictionUnit
+// report, sized with predictorBits, btbEntries and rasDepth. cache=1 adds the
+// CacheModel report; icache and dcache take CacheConfig.parse() specs.
+// Jobs run on a fixed pool of workers; a job that outlives its timeout is
+// interrupted, which the execution loops check, and answered with 504.
+// A streamed run is held back by a client that reads slowly, through TCP flow
+// control, and ends at the first write after the client disconnects; it is not
+// buffered, so the stage mode instruction cap of /run does not apply to it.
+// Fast runs execute on a SliceScheduler with one thread per core, so a long
+// program shares the cores with short ones instead of holding one.
+// Sessions (StepSession) keep their machine between requests and only run as
+// far as the windows asked for; the least recently used one is dropped once
+// there are more than MAX_SESSIONS, and unknown ids are answered with 404.
+//
+// Start with both engine directories on the class path, e.g.
+//   java -cp "server:runCode/[fileId]:assembly/[fileId]" SimulatorServer [port]
+public class SimulatorServer {
+
+    public static final int DEFAULT_PORT = 7070;
+    public static final long DEFAULT_TIMEOUT_MILLIS = 10_000;
+    // Larger bodies are rejected before they are read into memory
+    private static final int MAX_BODY_BYTES = 1 << 20;
+
+    // Memory pages allocated up front for each pooled machine
+    private static final int RESERVED_PAGES = 16;
+    // Stage mode logs every cycle into the response, which bounds its length
+    public static final long MAX_STAGE_INSTRUCTIONS = 100_000;
+    public static final int MAX_SESSIONS = 32;
+    // How long a streamed run may outlive its time budget while it prints its final state
+    private static final long STREAM_GRACE_MILLIS = 1_000;
+    // How much of a /run request's timeout is kept back for printing the final
+    // state once the time budget ends the run; at most half of the timeout
+    private static final long RUN_GRACE_MILLIS = 1_000;
+
+    private final HttpServer server;
+    private final ExecutorService workers;
+    private final MachinePool machines;
+    private final SliceScheduler scheduler;
+    private final Map<String, StepSession> sessions = Collections.synchronizedMap(
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, StepSession> eldest) {
+                    return size() > MAX_SESSIONS;
+                }
+            });
+    // Workers are long-lived, so each keeps one parser and reuses it
+    private final ThreadLocal<RiscVParser> parsers = ThreadLocal.withInitial(RiscVParser::new);
+    private final long timeoutMillis;
+
+    // workerCount bounds the jobs in flight, cpuCount the threads simulating at once
+    public SimulatorServer(int port, int workerCount, int cpuCount, long timeoutMillis) throws IOException {
+        this.timeoutMillis = timeoutMillis;
+        workers = Executors.newFixedThreadPool(workerCount);
+        // One machine per worker, so acquiring never waits
+        machines = new MachinePool(workerCount, RESERVED_PAGES);
+        scheduler = new SliceScheduler(cpuCount, SliceScheduler.DEFAULT_SLICE);
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        // Request threads only wait on workers, so they are cheap to keep around
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/assemble", exchange -> handle(exchange, this::assemble));
+        server.createContext("/run", exchange -> handle(exchange, this::run));
+        server.createContext("/stream", this::stream);
+        server.createContext("/session", exchange -> handle(exchange, this::openSession));
+        server.createContext("/session/steps", exchange -> handle(exchange, this::sessionSteps));
+        server.createContext("/session/memory", exchange -> handle(exchange, this::sessionMemory));
+        server.createContext("/session/close", exchange -> handle(exchange, this::closeSession));
+        server.createContext("/health", exchange -> respond(exchange, 200, "ok"));
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        workers.shutdownNow();
+        scheduler.shutdown();
+        ((ExecutorService) server.getExecutor()).shutdownNow();
+    }
+
+    // Work done for one request: reads the body and returns the response text
+    private interface Job {
+        Callable<String> prepare(String body, Map<String, String> query);
+    }
+
+    private Callable<String> assemble(String body, Map<String, String> query) {
+        return () -> {
+            StringWriter listing = new StringWriter();
+            RiscVParser parser = parsers.get();
+            parser.setFieldBreakdown(boolParam(query, "fields"));
+            parser.assemble(new StringReader(body), listing);
+            return listing.toString();
+        };
+    }
+
+    // A run prepared from a request, printing to the stream it is given
+    private interface RunJob {
+        void runTo(PrintStream out) throws Exception;
+    }
+
+    private Callable<String> run(String body, Map<String, String> query) {
+        long timeout = requestTimeout(query);
+        long maxMillis = timeout - Math.min(RUN_GRACE_MILLIS, timeout / 2);
+        RunJob job = prepareRun(body, query, MAX_STAGE_INSTRUCTIONS, maxMillis);
+        return () -> {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            PrintStream out = new PrintStream(buffer, false, StandardCharsets.UTF_8);
+            job.runTo(out);
+            out.flush();
+            return buffer.toString(StandardCharsets.UTF_8);
+        };
+    }
+
+    // Checks the run options up front, so bad ones are rejected before any
+    // output; maxStageInstructions caps stage-by-stage runs and maxMillis the
+    // run's time
+    private RunJob prepareRun(String body, Map<String, String> query, long maxStageInstructions, long maxMillis) {
+        boolean fast = "fast".equals(query.get("mode"));
+        ExecutionBudget budget = parseBudget(query, fast, maxStageInstructions, maxMillis);
+        PipelineConfig pipeline = parsePipeline(query);
+        // Predictors hold per-run state, so each job builds its own
+        BranchPredictor predictor = query.containsKey("predictor")
+                ? BranchPredictor.create(query.get("predictor"),
+                        intParam(query, "predictorBits", BranchPredictionUnit.DEFAULT_INDEX_BITS))
+                : null;
+        CacheConfig[] caches = parseCaches(query);
+        return out -> {
+            Execution cpu = machines.acquire(out);
+            try {
+                cpu.parseMachineCode(new BufferedReader(new StringReader(body)));
+                if (pipeline != null) {
+                    cpu.enablePipelineModel(pipeline);
+                }
+                if (predictor != null) {
+                    cpu.enableBranchPrediction(predictor, intParam(query, "btbEntries",
+                            BranchPredictionUnit.DEFAULT_BTB_ENTRIES), intParam(query, "rasDepth",
+                            BranchPredictionUnit.DEFAULT_RAS_DEPTH));
+                }
+                if (caches != null) {
+                    cpu.enableCaches(caches[0], caches[1]);
+                }
+                if (boolParam(query, "profile")) {
+                    cpu.enableProfiler();
+                }
+                cpu.setFullMemoryDump(boolParam(query, "fullMemory"));
+                if (fast) {
+                    cpu.printFastResult(runSliced(cpu, budget));
+                } else {
+                    cpu.run(false, budget);
+                }
+            } finally {
+                machines.release(cpu);
+            }
+        };
+    }
+
+    private Callable<String> openSession(String body, Map<String, String> query) {
+        return () -> {
+            StepSession session = new StepSession(new BufferedReader(new StringReader(body)),
+                    History.DEFAULT_INTERVAL);
+            String id = UUID.randomUUID().toString();
+            sessions.put(id, session);
+            return "Session: " + id;
+        };
+    }
+
+    private Callable<String> sessionSteps(String body, Map<String, String> query) {
+        StepSession session = findSession(query);
+        long from = Long.parseLong(query.getOrDefault("from", "0"));
+        int count = intParam(query, "count", 100);
+        return () -> session.steps(from, count);
+    }
+
+    // Memory after step at: ?start=&length= for a range, neither for the bytes
+    // changed since the listing was loaded
+    private Callable<String> sessionMemory(String body, Map<String, String> query) {
+        StepSession session = findSession(query);
+        long at = Long.parseLong(query.getOrDefault("at", "0"));
+        int start = (int) (long) Long.decode(query.getOrDefault("start", "0"));
+        int length = query.containsKey("start") ? intParam(query, "length", 256) : -1;
+        if (query.containsKey("start") && (length < 0 || length > Execution.MAX_MEMORY_RANGE)) {
+            throw new IllegalArgumentException("length must be 0 to " + Execution.MAX_MEMORY_RANGE);
+        }
+        return () -> session.memory(at, start, length);
+    }
+
+    private Callable<String> closeSession(String body, Map<String, String> query) {
+        findSession(query);
+        sessions.remove(query.get("id"));
+        return () -> "Closed";
+    }
+
+    private StepSession findSession(Map<String, String> query) {
+        StepSession session = sessions.get(query.get("id"));
+        if (session == null) {
+            throw new NoSuchElementException("No session " + query.get("id"));
+        }
+        return session;
+    }
+
+    // Waits for cpu's run on the scheduler; if this worker is interrupted the
+    // run is cancelled and waited for, so cpu is idle when this returns
+    private RunResult runSliced(Execution cpu, ExecutionBudget budget) throws Exception {
+        SliceScheduler.Job job = scheduler.submit(cpu.newFastInterpreter(), budget);
+        try {
+            return job.getResult().get();
+        } catch (InterruptedException e) {
+            job.cancel();
+            job.getResult().handle((result, error) -> null).join();
+            throw new CancellationException("Run cancelled");
+        } catch (ExecutionException e) {
+            throw (RuntimeException) e.getCause(); // Jobs only fail with unchecked exceptions
+        }
+    }
+
+    // Pipeline model settings, or null if the model was not asked for. Like
+    // the command line, any pipeline setting turns the model on.
+    private static PipelineConfig parsePipeline(Map<String, String> query) {
+        if (!boolParam(query, "pipeline") && !query.containsKey("forwarding") && !query.containsKey("branchInId")
+                && !query.containsKey("mulLatency") && !query.containsKey("divLatency")) {
+            return null;
+        }
+        PipelineConfig config = PipelineConfig.DEFAULT;
+        if (query.containsKey("forwarding")) {
+            config = config.withForwarding(PipelineConfig.Forwarding.valueOf(query.get("forwarding").toUpperCase()));
+        }
+        if (query.containsKey("branchInId")) {
+            config = config.withResolveBranchesInId(boolParam(query, "branchInId"));
+        }
+        if (query.containsKey("mulLatency")) {
+            config = config.withMulLatency(Integer.parseInt(query.get("mulLatency")));
+        }
+        if (query.containsKey("divLatency")) {
+            config = config.withDivLatency(Integer.parseInt(query.get("divLatency")));
+        }
+        return config;
+    }
+
+    // I- and D-cache settings, or null if caches were not asked for. Either
+    // spec turns both caches on, the other with the default geometry.
+    private static CacheConfig[] parseCaches(Map<String, String> query) {
+        if (!boolParam(query, "cache") && !query.containsKey("icache") && !query.containsKey("dcache")) {
+            return null;
+        }
+        return new CacheConfig[] {
+            query.containsKey("icache") ? CacheConfig.parse(query.get("icache")) : CacheConfig.DEFAULT,
+            query.containsKey("dcache") ? CacheConfig.parse(query.get("dcache")) : CacheConfig.DEFAULT
+        };
+    }
+
+    private static int intParam(Map<String, String> query, String name, int defaultValue) {
+        return query.containsKey(name) ? Integer.parseInt(query.get(name)) : defaultValue;
+    }
+
+    // A flag such as ?profile=1: on when given with any value but 0 or false
+    private static boolean boolParam(Map<String, String> query, String name) {
+        String value = query.get(name);
+        return value != null && !value.equals("0") && !value.equalsIgnoreCase("false");
+    }
+
+    private static ExecutionBudget parseBudget(Map<String, String> query, boolean fast, long maxStageInstructions,
+            long maxMillis) {
+        ExecutionBudget budget = ExecutionBudget.defaultFor(fast).withMaxMillis(maxMillis);
+        if (query.containsKey("maxInstructions")) {
+            budget = budget.withMaxInstructions(Long.parseLong(query.get("maxInstructions")));
+        }
+        if (query.containsKey("maxMillis")) {
+            budget = budget.withMaxMillis(Math.min(maxMillis, Long.parseLong(query.get("maxMillis"))));
+        }
+        if (query.containsKey("maxPages")) {
+            budget = budget.withMaxPages(Integer.parseInt(query.get("maxPages")));
+        }
+        if (!fast && budget.maxInstructions() > maxStageInstructions) {
+            budget = budget.withMaxInstructions(maxStageInstructions);
+        }
+        return budget;
+    }
+
+    // Query, body and timeout of a job request
+    private record Request(Map<String, String> query, String body, long timeout) {
+    }
+
+    // Reads a job request, or answers it with an error and returns null
+    private Request readRequest(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("POST")) {
+            respond(exchange, 405, "POST required");
+            return null;
+        }
+        Map<String, String> query = parseQuery(exchange.getRequestURI());
+        String body = readBody(exchange.getRequestBody());
+        if (body == null) {
+            respond(exchange, 413, "Request body exceeds " + MAX_BODY_BYTES + " bytes");
+            return null;
+        }
+        long timeout;
+        try {
+            timeout = requestTimeout(query);
+        } catch (NumberFormatException e) {
+            respond(exchange, 400, "Invalid timeout: " + query.get("timeout"));
+            return null;
+        }
+        return new Request(query, body, timeout);
+    }
+
+    // The ?timeout= of a job request, capped at the server timeout
+    private long requestTimeout(Map<String, String> query) {
+        return query.containsKey("timeout") ? Math.min(timeoutMillis, Long.parseLong(query.get("timeout")))
+                : timeoutMillis;
+    }
+
+    private void handle(HttpExchange exchange, Job job) throws IOException {
+        try {
+            Request request = readRequest(exchange);
+            if (request == null) {
+                return;
+            }
+
+            Callable<String> work;
+            try {
+                work = job.prepare(request.body(), request.query());
+            } catch (IllegalArgumentException e) {
+                respond(exchange, 400, "Invalid request: " + e.getMessage());
+                return;
+            } catch (NoSuchElementException e) {
+                respond(exchange, 404, e.getMessage());
+                return;
+            }
+
+            long timeout = request.timeout();
+            Future<String> result = workers.submit(work);
+            try {
+                respond(exchange, 200, result.get(timeout, TimeUnit.MILLISECONDS));
+            } catch (TimeoutException e) {
+                result.cancel(true);
+                respond(exchange, 504, "Timed out after " + timeout + " ms");
+            } catch (InterruptedException e) {
+                result.cancel(true);
+                Thread.currentThread().interrupt();
+                respond(exchange, 503, "Server shutting down");
+            } catch (CancellationException e) {
+                respond(exchange, 503, "Cancelled");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IllegalArgumentException) {
+                    respond(exchange, 400, cause.getMessage());
+                } else {
+                    cause.printStackTrace();
+                    respond(exchange, 500, "Error: " + cause);
+                }
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void stream(HttpExchange exchange) throws IOException {
+        try {
+            Request request = readRequest(exchange);
+            if (request == null) {
+                return;
+            }
+
+            RunJob job;
+            try {
+                job = prepareRun(request.body(), request.query(), ExecutionBudget.UNLIMITED, request.timeout());
+            } catch (IllegalArgumentException e) {
+                respond(exchange, 400, "Invalid request: " + e.getMessage());
+                return;
+            }
+
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(200, 0); // Chunked
+            PrintStream out = new PrintStream(new ClientStream(exchange.getResponseBody()), false,
+                    StandardCharsets.UTF_8);
+            Future<?> result = workers.submit(() -> {
+                try {
+                    job.runTo(out);
+                } catch (IllegalArgumentException e) {
+                    out.println("Error: " + e.getMessage());
+                }
+                out.flush();
+                return null;
+            });
+            try {
+                // The run's own time budget normally ends it first, with its final state
+                result.get(request.timeout() + STREAM_GRACE_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                result.cancel(true); // Cuts the stream short
+            } catch (InterruptedException e) {
+                result.cancel(true);
+                Thread.currentThread().interrupt();
+            } catch (CancellationException e) {
+                // Cancelled by shutdown; the stream just ends
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (!(cause instanceof UncheckedIOException)) { // Otherwise the client has gone
+                    cause.printStackTrace();
+                    out.println("Error: " + cause);
+                    out.flush();
+                }
+            }
+        } catch (UncheckedIOException e) {
+            // The client went away before the error could be sent
+        } finally {
+            exchange.close();
+        }
+    }
+
+    // Response body that throws when a write fails, which means the client has
+    // gone; PrintStream would otherwise swallow the error and the run would go
+    // on printing to nobody
+    private static final class ClientStream extends FilterOutputStream {
+        ClientStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) {
+            try {
+                out.write(b);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            try {
+                out.write(bytes, offset, length);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void flush() {
+            try {
+                out.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    // Reads the whole body, or returns null if it is larger than MAX_BODY_BYTES
+    private static String readBody(InputStream in) throws IOException {
+        byte[] bytes = in.readNBytes(MAX_BODY_BYTES + 1);
+        if (bytes.length > MAX_BODY_BYTES) {
+            return null;
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static Map<String, String> parseQuery(URI uri) {
+        Map<String, String> query = new HashMap<>();
+        String raw = uri.getQuery();
+        if (raw == null) {
+            return query;
+        }
+        for (String pair : raw.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) {
+                query.put(pair.substring(0, eq), pair.substring(eq + 1));
+            }
+        }
+        return query;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+        if (bytes.length > 0) {
+            try (OutputStream body = exchange.getResponseBody()) {
+                body.write(bytes);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        int cpuCount = Runtime.getRuntime().availableProcessors();
+        int workerCount = 4 * cpuCount;
+        SimulatorServer server = new SimulatorServer(port, workerCount, cpuCount, DEFAULT_TIMEOUT_MILLIS);
+        Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+        server.start();
+        System.out.println("Simulator server listening on 127.0.0.1:" + port + " with " + workerCount + " workers on " + cpuCount + " cores");
+    }
+}
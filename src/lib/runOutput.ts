@@ -0,0 +1,332 @@
+// Parsers for the text `java Execution` prints (directly or through the
+// SimulatorServer), shared by the buffered and the streaming run routes.
+
+export type Step = {
+    pc: string,
+    clock: number,
+    ir: string | null,
+    registerUpdate: { register: string, value: string } | null,
+    memoryUpdate: { memoryAddr: string, value: string } | null
+}
+
+// Lines between two steps of the stage-by-stage log
+export const STEP_SEPARATOR = "--------------------------------------------------"
+
+// One step of the stage-by-stage log, as printed between two separators
+export function parseStep(block: string): Step {
+    let pc: string = '';
+    let clock: number = -1;
+    let ir: string | null = null;
+    let registerUpdate: { register: string, value: string } | null = null;
+    let memoryUpdate: { memoryAddr: string, value: string } | null = null;
+
+    // Match PC
+    const pcMatch = block.match(/PC:\s*(0x[0-9A-Fa-f]+)/);
+    if (pcMatch) {
+        pc = pcMatch[1];
+    }
+
+    // Match Clock Cycle
+    const clockMatch = block.match(/Clock Cycle:\s*(\d+)/);
+    if (clockMatch) {
+        clock = parseInt(clockMatch[1], 10);
+    }
+
+    const irMatch = block.match(/Instruction Register \(IR\):\s*(0[xX][0-9a-fA-F]+)/);
+    if (irMatch) {
+        ir = irMatch[1]; // Normalize to consistent casing
+    }
+
+    // Match Register Update
+    const regMatch = block.match(/WriteBack: Register (\w+) updated with (0x[0-9A-Fa-f]+)/);
+    if (regMatch) {
+        registerUpdate = {
+            register: regMatch[1],
+            value: regMatch[2]
+        };
+    }
+
+
+    // Match Memory Store
+    const memStore = block.match(/Stored Value \(MDR\): (0x[0-9A-Fa-f]+) to Address \(MAR\): (0x[0-9A-Fa-f]+)/);
+    if (memStore) {
+        memoryUpdate = {
+            memoryAddr: memStore[2],
+            value: memStore[1]
+        };
+    }
+
+    return {
+        pc,
+        clock,
+        ir,
+        registerUpdate,
+        memoryUpdate
+    };
+}
+
+// Register lines like: "  x0: 0   x1: 5   x2: 0   x3: 0 "
+function parseRegisters(section: string) {
+    const registerFile: Record<string, string> = {};
+    for (const line of section.trim().split('\n')) {
+        const regex = /x(\d+):\s*([^\s]+)/g;
+        let match;
+        while ((match = regex.exec(line)) !== null) {
+            const reg = `x${match[1]}`;
+            const val = match[2];
+            registerFile[reg] = val;
+        }
+    }
+    return registerFile;
+}
+
+// Register file and memory printed after the run
+export function parseFinalState(output: string) {
+    const memoryState: Record<string, string> = {};
+
+    // Extract the Register File State section
+    const regStart = output.indexOf("Register File State:");
+    const memStart = output.indexOf("Final Memory State:");
+    if (regStart === -1 || memStart === -1) {
+        console.error("Could not find register or memory section.");
+        return { registerFile: {} as Record<string, string>, memoryState };
+    }
+
+    const registerFile = parseRegisters(output.substring(regStart + "Register File State:".length, memStart));
+
+    // Extract the Final Memory State section: the bytes the run changed, or
+    // every mapped byte with ?fullMemory=1
+    parseMemory(output.substring(memStart + "Final Memory State:".length), memoryState);
+
+    return { registerFile, memoryState };
+}
+
+// Match memory lines like: "0x10000000: 05"
+function parseMemory(section: string, memory: Record<string, string>) {
+    for (const line of section.trim().split('\n')) {
+        const [addr, val] = line.split(":").map(s => s.trim());
+        if (addr && val) {
+            memory[addr] = val;
+        }
+    }
+    return memory
+}
+
+export function parseOutput(output: string) {
+    const outputArray: Array<Step> = [];
+
+    const pcBlocks = output.split(STEP_SEPARATOR).filter(block => block.trim().length > 0);
+
+    pcBlocks.forEach(block => {
+        outputArray.push(parseStep(block));
+    });
+
+    return { ...parseFinalState(output), outputArray };
+}
+
+// A window of a session's steps (Execution.printSteps()): the steps, the
+// position after them, the stop reason once the program has halted and the
+// register file at that position
+export function parseWindow(output: string) {
+    const blocks = output.split(STEP_SEPARATOR)
+    const tail = blocks.pop() ?? ""
+    const positionMatch = tail.match(/Position:\s*(\d+)/)
+    const stopMatch = tail.match(/Stop Reason:\s*(\w+)/)
+    const regStart = tail.indexOf("Register File State:")
+    return {
+        steps: blocks.filter(block => block.trim().length > 0).map(parseStep),
+        position: positionMatch ? parseInt(positionMatch[1], 10) : null,
+        stopReason: stopMatch ? stopMatch[1] : null,
+        registerFile: regStart === -1 ? {} : parseRegisters(tail.substring(regStart + "Register File State:".length))
+    }
+}
+
+// Everything after the last step: why the run stopped and the model reports
+export function parseRunSummary(output: string) {
+    const stopMatch = output.match(/Stop Reason:\s*(\w+)/)
+    const retiredMatch = output.match(/Instructions Retired:\s*(\d+)/)
+    return {
+        stopReason: stopMatch ? stopMatch[1] : null,
+        instructionsRetired: retiredMatch ? parseInt(retiredMatch[1], 10) : null,
+        pipeline: parsePipelineReport(output),
+        branchPrediction: parseBranchReport(output),
+        cache: parseCacheReport(output),
+        profile: parseProfileReport(output)
+    }
+}
+
+
+
+// Pipeline timing report printed when the model is enabled, or null
+export function parsePipelineReport(output: string) {
+    const cycles = output.match(/Pipeline Cycles:\s*(\d+)/)
+    if (!cycles) {
+        return null
+    }
+    const instructions = output.match(/Pipeline Instructions:\s*(\d+)/)
+    const cpi = output.match(/CPI:\s*([\d.]+)/)
+    const flushes = output.match(/Pipeline Flushes:\s*(\d+)/)
+    const stalls: Record<string, number> = {}
+    const stallRegex = /Stall Cycles \(([^)]+)\):\s*(\d+)/g
+    let match
+    while ((match = stallRegex.exec(output)) !== null) {
+        stalls[match[1]] = parseInt(match[2], 10)
+    }
+    return {
+        cycles: parseInt(cycles[1], 10),
+        instructions: instructions ? parseInt(instructions[1], 10) : null,
+        cpi: cpi ? parseFloat(cpi[1]) : null,
+        flushes: flushes ? parseInt(flushes[1], 10) : null,
+        stalls: stalls
+    }
+}
+
+
+
+// Branch prediction report printed when a predictor is selected, or null
+export function parseBranchReport(output: string) {
+    const predictor = output.match(/Branch Predictor:\s*(.+)/)
+    if (!predictor) {
+        return null
+    }
+    const summary = (label: string) => {
+        const match = output.match(new RegExp(`${label}:\\s*(\\d+) executed.*?(\\d+) mispredicted, accuracy (\\S+)`))
+        return match ? {
+            executed: parseInt(match[1], 10),
+            mispredicted: parseInt(match[2], 10),
+            accuracy: match[3]
+        } : null
+    }
+    const btb = output.match(/BTB Hits:\s*(\d+) of (\d+) lookups/)
+    const branches: Array<{ pc: string, executed: number, taken: number, mispredicted: number, accuracy: string }> = []
+    const branchRegex = /Branch (0x[0-9A-Fa-f]+): (\d+) executed, (\d+) taken, (\d+) mispredicted, accuracy (\S+)/g
+    let match
+    while ((match = branchRegex.exec(output)) !== null) {
+        branches.push({
+            pc: match[1],
+            executed: parseInt(match[2], 10),
+            taken: parseInt(match[3], 10),
+            mispredicted: parseInt(match[4], 10),
+            accuracy: match[5]
+        })
+    }
+    return {
+        predictor: predictor[1].trim(),
+        conditional: summary("Conditional Branches"),
+        jumps: summary("Jumps"),
+        returns: summary("Returns"),
+        total: summary("Control Transfers"),
+        btbHits: btb ? parseInt(btb[1], 10) : null,
+        btbLookups: btb ? parseInt(btb[2], 10) : null,
+        branches: branches
+    }
+}
+
+
+
+// Cache report printed when the caches are enabled, or null
+export function parseCacheReport(output: string) {
+    const stallCycles = output.match(/Cache Stall Cycles:\s*(\d+)/)
+    if (!stallCycles) {
+        return null
+    }
+    const cache = (name: string) => {
+        const config = output.match(new RegExp(`${name}:\\s*(.+)`))
+        const counts = output.match(new RegExp(`${name} Accesses:\\s*(\\d+), misses (\\d+), hit rate (\\S+)`))
+        return {
+            config: config ? config[1].trim() : null,
+            accesses: counts ? parseInt(counts[1], 10) : null,
+            misses: counts ? parseInt(counts[2], 10) : null,
+            hitRate: counts ? counts[3] : null
+        }
+    }
+    const writeBacks = output.match(/D-Cache Write-backs:\s*(\d+), memory writes (\d+)/)
+    const perPc: Array<{ pc: string, fetches: number, fetchMisses: number, dataAccesses: number, dataMisses: number }> = []
+    const pcRegex = /Cache PC (0x[0-9A-Fa-f]+): I-cache (\d+) accesses, (\d+) misses; D-cache (\d+) accesses, (\d+) misses/g
+    let match
+    while ((match = pcRegex.exec(output)) !== null) {
+        perPc.push({
+            pc: match[1],
+            fetches: parseInt(match[2], 10),
+            fetchMisses: parseInt(match[3], 10),
+            dataAccesses: parseInt(match[4], 10),
+            dataMisses: parseInt(match[5], 10)
+        })
+    }
+    const perLabel: Array<{ label: string, accesses: number, misses: number, hitRate: string }> = []
+    const labelRegex = /Cache Label (\S+): (\d+) accesses, (\d+) misses, hit rate (\S+)/g
+    while ((match = labelRegex.exec(output)) !== null) {
+        perLabel.push({
+            label: match[1],
+            accesses: parseInt(match[2], 10),
+            misses: parseInt(match[3], 10),
+            hitRate: match[4]
+        })
+    }
+    return {
+        instructionCache: cache("I-Cache"),
+        dataCache: cache("D-Cache"),
+        writeBacks: writeBacks ? parseInt(writeBacks[1], 10) : null,
+        memoryWrites: writeBacks ? parseInt(writeBacks[2], 10) : null,
+        stallCycles: parseInt(stallCycles[1], 10),
+        perPc: perPc,
+        perLabel: perLabel
+    }
+}
+
+export function parseProfileReport(output: string) {
+    const total = output.match(/Profile Instructions:\s*(\d+)/)
+    if (!total) {
+        return null
+    }
+    const classes: Record<string, number> = {}
+    const classRegex = /Profile Class (\S+): (\d+)/g
+    let match
+    while ((match = classRegex.exec(output)) !== null) {
+        classes[match[1]] = parseInt(match[2], 10)
+    }
+    const labels: Array<{ label: string, instructions: number, taken: number, notTaken: number }> = []
+    const labelRegex = /Profile Label (\S+): (\d+) instructions \([^)]*\), (\d+) branches taken, (\d+) not taken/g
+    while ((match = labelRegex.exec(output)) !== null) {
+        labels.push({
+            label: match[1],
+            instructions: parseInt(match[2], 10),
+            taken: parseInt(match[3], 10),
+            notTaken: parseInt(match[4], 10)
+        })
+    }
+    const perPc: Array<{ pc: string, label: string, executed: number, taken: number, notTaken: number }> = []
+    const pcRegex = /Profile PC (0x[0-9A-Fa-f]+) \((\S+)\): (\d+) executed, (\d+) taken, (\d+) not taken/g
+    while ((match = pcRegex.exec(output)) !== null) {
+        perPc.push({
+            pc: match[1],
+            label: match[2],
+            executed: parseInt(match[3], 10),
+            taken: parseInt(match[4], 10),
+            notTaken: parseInt(match[5], 10)
+        })
+    }
+    // Collapsed stacks, one "a;b;c count" line each, ready for a flame graph
+    const stacks: Array<string> = []
+    const stackRegex = /Profile Stack (.+)/g
+    while ((match = stackRegex.exec(output)) !== null) {
+        stacks.push(match[1].trim())
+    }
+    return {
+        instructions: parseInt(total[1], 10),
+        classes: classes,
+        labels: labels,
+        perPc: perPc,
+        stacks: stacks.join("\n")
+    }
+}
+
+// A session's memory at a position (StepSession.memory()): the position
+// actually reached and the bytes asked for
+export function parseMemoryView(output: string) {
+    const positionMatch = output.match(/Position:\s*(\d+)/)
+    return {
+        position: positionMatch ? parseInt(positionMatch[1], 10) : null,
+        memory: parseMemory(output.replace(/Position:.*/, ""), {})
+    }
+}
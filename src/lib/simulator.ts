@@ -0,0 +1,109 @@
+// Client for the resident SimulatorServer (src/app/api/(assembly)/server).
+// Routes try the daemon first and fall back to spawning `java` when it is not
+// running, so the app keeps working without it.
+
+const SIMULATOR_URL = process.env.SIMULATOR_URL ?? "http://127.0.0.1:7070"
+
+export class SimulatorError extends Error {
+    constructor(public status: number, message: string) {
+        super(message)
+    }
+}
+
+// Posts body to the daemon and returns the response text, or null when the
+// daemon cannot be reached. Throws SimulatorError when the daemon rejects the job.
+export async function callSimulator(path: string, body: string, signal?: AbortSignal): Promise<string | null> {
+    let response: Response
+    try {
+        response = await fetch(`${SIMULATOR_URL}${path}`, { method: "POST", body, signal })
+    } catch (error) {
+        if (signal?.aborted) {
+            throw error
+        }
+        return null
+    }
+    const text = await response.text()
+    if (!response.ok) {
+        throw new SimulatorError(response.status, text)
+    }
+    return text
+}
+
+// Options the run routes accept, as [query parameter, Execution flag, value
+// pattern]: the run budget (?maxInstructions=&maxMillis=&maxPages=), the pipeline
+// timing model (?pipeline=1&forwarding=none|mem_wb|full&branchInId=1&mulLatency=
+// &divLatency=), the branch predictor (?predictor=static|1bit|2bit|gshare|tournament
+// &predictorBits=&btbEntries=&rasDepth=), the caches (?cache=1&icache=&dcache=, each
+// size[:ways[:line[:lru|fifo|random[:wb|wt[:penalty]]]]]), the hot-spot profiler
+// (?profile=1) and ?fullMemory=1, which returns every mapped byte as the final memory
+// state rather than only those the run changed; options without a value pattern are
+// switches. ?mode=fast skips the datapath trace and only returns the final state.
+const RUN_OPTIONS: Array<[string, string, RegExp | null]> = [
+    ["maxInstructions", "--max-instructions", /^\d+$/],
+    ["maxMillis", "--max-millis", /^\d+$/],
+    ["maxPages", "--max-pages", /^\d+$/],
+    ["pipeline", "--pipeline", null],
+    ["forwarding", "--forwarding", /^(none|mem_wb|full)$/i],
+    ["branchInId", "--branch-in-id", null],
+    ["mulLatency", "--mul-latency", /^\d+$/],
+    ["divLatency", "--div-latency", /^\d+$/],
+    ["predictor", "--predictor", /^(static|1bit|2bit|gshare|tournament)$/i],
+    ["predictorBits", "--predictor-bits", /^\d+$/],
+    ["btbEntries", "--btb-entries", /^\d+$/],
+    ["rasDepth", "--ras-depth", /^\d+$/],
+    ["cache", "--cache", null],
+    ["icache", "--icache", /^\d+(:\w+){0,5}$/],
+    ["dcache", "--dcache", /^\d+(:\w+){0,5}$/],
+    ["profile", "--profile", null],
+    ["fullMemory", "--full-memory", null],
+]
+
+// Daemon query and `java Execution` flags for the run options in params, or
+// the name of the first option whose value is invalid
+export function runArguments(params: URLSearchParams): { daemonQuery: URLSearchParams, flags: string } | { invalid: string } {
+    const daemonQuery = new URLSearchParams()
+    let flags = ""
+    if (params.get("mode") === "fast") {
+        daemonQuery.set("mode", "fast")
+        flags += "--fast "
+    }
+    for (const [param, flag, pattern] of RUN_OPTIONS) {
+        const value = params.get(param)
+        if (value === null) {
+            continue
+        }
+        if (pattern === null) {
+            // Switches are off when given as 0 or false, like the daemon's flags
+            if (value === "0" || value.toLowerCase() === "false") {
+                continue
+            }
+            daemonQuery.set(param, "1")
+            flags += `${flag} `
+            continue
+        }
+        if (!pattern.test(value)) {
+            return { invalid: param }
+        }
+        daemonQuery.set(param, value)
+        flags += `${flag} ${value} `
+    }
+    return { daemonQuery, flags }
+}
+
+// Like callSimulator, but returns the response body to be read while the daemon
+// is still writing it, or null when the daemon cannot be reached
+export async function openSimulatorStream(path: string, body: string, signal?: AbortSignal): Promise<ReadableStream<Uint8Array> | null> {
+    let response: Response
+    try {
+        response = await fetch(`${SIMULATOR_URL}${path}`, { method: "POST", body, signal })
+    } catch (error) {
+        if (signal?.aborted) {
+            throw error
+        }
+        return null
+    }
+    if (!response.ok || response.body === null) {
+        throw new SimulatorError(response.status, await response.text())
+    }
+    return response.body
+}